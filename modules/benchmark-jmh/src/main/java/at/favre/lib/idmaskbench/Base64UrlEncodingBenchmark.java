@@ -0,0 +1,70 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.ByteToTextEncoding;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Compares the table driven base64url codec with the Bytes library it replaced and the generic
+    BaseEncoding (through BaseMod8Encoding with the url safe alphabet). The lengths are the raw
+    masked id sizes of the 8 and 16 byte engines.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Base64UrlEncodingBenchmark {
+
+    @Param({"17", "25", "33", "41"})
+    private int length;
+
+    private ByteToTextEncoding base64Url;
+    private ByteToTextEncoding genericBase64Url;
+    private byte[] raw;
+    private String encoded;
+
+    @Setup
+    public void setup() {
+        base64Url = new ByteToTextEncoding.Base64Url();
+        genericBase64Url = new ByteToTextEncoding.BaseMod8Encoding(
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray(), null);
+        raw = Bytes.random(length).array();
+        encoded = base64Url.encode(raw);
+    }
+
+    @Benchmark
+    public String encodeBase64Url() {
+        return base64Url.encode(raw);
+    }
+
+    @Benchmark
+    public String encodeBytesLib() {
+        return Bytes.wrap(raw).encodeBase64(true, false);
+    }
+
+    @Benchmark
+    public String encodeGeneric() {
+        return genericBase64Url.encode(raw);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64Url() {
+        return base64Url.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeBytesLib() {
+        return Bytes.parseBase64(encoded).array();
+    }
+
+    @Benchmark
+    public byte[] decodeGeneric() {
+        return genericBase64Url.decode(encoded);
+    }
+}
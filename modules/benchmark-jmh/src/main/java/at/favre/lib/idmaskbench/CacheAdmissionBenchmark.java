@@ -0,0 +1,192 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Replays skewed id streams through a cached long id mask and reports the hit ratio next to the time per id.
+
+    "zipf" draws from 64k ids with a Zipfian distribution (exponent 0.99), "zipfWithScan" additionally
+    interleaves long sequential runs of ids which are never requested again (e.g. a batch export). The cache
+    holds 1024 entries, so the scans flush plain LRU and CLOCK, while frequency admission (TinyLFU) should
+    keep the popular ids.
+
+    The aux counters "hits" and "misses" are reported as totals per iteration.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheAdmissionBenchmark {
+    private static final int CACHE_SIZE = 1024;
+    private static final int ID_UNIVERSE = 1 << 16;
+    private static final int STREAM_LENGTH = 1 << 20;
+    private static final double ZIPF_EXPONENT = 0.99;
+    private static final int ZIPF_RUN = 8192;
+    private static final int SCAN_RUN = 2048;
+
+    @Param({"SimpleLruMemCache", "ConcurrentClockMemCache", "TinyLfuClockMemCache"})
+    private String cacheType;
+
+    @Param({"zipf", "zipfWithScan"})
+    private String workload;
+
+    private IdMask<Long> idMask;
+    private CountingCache cache;
+    private long[] stream;
+    private int index;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class HitCounters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Cache delegate;
+        if ("SimpleLruMemCache".equals(cacheType)) {
+            delegate = new Cache.SimpleLruMemCache(CACHE_SIZE);
+        } else if ("ConcurrentClockMemCache".equals(cacheType)) {
+            delegate = new Cache.ConcurrentClockMemCache(CACHE_SIZE, 16);
+        } else {
+            delegate = new Cache.ConcurrentClockMemCache(CACHE_SIZE, 16, true);
+        }
+        cache = new CountingCache(delegate);
+        idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).cacheImpl(cache).build());
+        stream = createStream("zipfWithScan".equals(workload), new Random(8761238L));
+    }
+
+    @Benchmark
+    public String mask(HitCounters counters) {
+        String masked = idMask.mask(stream[index++ & (STREAM_LENGTH - 1)]);
+        if (cache.lastLookupHit) {
+            counters.hits++;
+        } else {
+            counters.misses++;
+        }
+        return masked;
+    }
+
+    private static long[] createStream(boolean withScan, Random random) {
+        double[] cdf = zipfCdf();
+        long[] stream = new long[STREAM_LENGTH];
+        long scanId = ID_UNIVERSE;
+        int i = 0;
+        while (i < STREAM_LENGTH) {
+            for (int j = 0; j < ZIPF_RUN && i < STREAM_LENGTH; j++) {
+                stream[i++] = toId(rank(cdf, random.nextDouble()));
+            }
+            for (int j = 0; withScan && j < SCAN_RUN && i < STREAM_LENGTH; j++) {
+                stream[i++] = toId(scanId++);
+            }
+        }
+        return stream;
+    }
+
+    private static double[] zipfCdf() {
+        double[] cdf = new double[ID_UNIVERSE];
+        double sum = 0;
+        for (int rank = 0; rank < ID_UNIVERSE; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, ZIPF_EXPONENT);
+            cdf[rank] = sum;
+        }
+        for (int rank = 0; rank < ID_UNIVERSE; rank++) {
+            cdf[rank] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int rank(double[] cdf, double p) {
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Spread the ranks, so popular ids are not just the small numbers
+     */
+    private static long toId(long rank) {
+        return rank * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Records if the last encode lookup was a hit, only valid for a single thread
+     */
+    private static final class CountingCache implements Cache {
+        private final Cache delegate;
+        private boolean lastLookupHit;
+
+        CountingCache(Cache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            delegate.cache(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            delegate.cacheForEncode(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            delegate.cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            String encoded = delegate.getEncoded(originalId);
+            lastLookupHit = encoded != null;
+            return encoded;
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            return delegate.getBytes(encoded);
+        }
+
+        @Override
+        public void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public void clearEncoded() {
+            delegate.clearEncoded();
+        }
+
+        @Override
+        public Stats stats() {
+            return delegate.stats();
+        }
+    }
+}
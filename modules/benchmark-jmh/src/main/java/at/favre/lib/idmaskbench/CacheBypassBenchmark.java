@@ -0,0 +1,52 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Masking with the sha256 keyed lru cache when every id is new ("fresh") and when few ids recur ("recurring"),
+    with adaptive cache bypass, with the cache always used and without cache. With fresh ids the adaptive
+    cache should cost about the same as no cache, with recurring ids about the same as the plain cache.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheBypassBenchmark {
+    private static final int RECURRING_ID_COUNT = 256;
+
+    @Param({"adaptive", "always", "noCache"})
+    private String cacheMode;
+
+    private IdMask<Long> idMask;
+    private long nextId;
+
+    @Setup
+    public void setup() {
+        idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.SimpleLruMemCache(1024))
+                .enableCache(!"noCache".equals(cacheMode))
+                .adaptiveCacheBypass("adaptive".equals(cacheMode))
+                .build());
+    }
+
+    @Benchmark
+    public String maskFresh() {
+        return idMask.mask(nextId++);
+    }
+
+    @Benchmark
+    public String maskRecurring() {
+        return idMask.mask(nextId++ & (RECURRING_ID_COUNT - 1));
+    }
+}
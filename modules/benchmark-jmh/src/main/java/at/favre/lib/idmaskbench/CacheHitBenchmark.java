@@ -0,0 +1,56 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Cache hit latency of the sha256 keyed lru cache compared to the primitive keyed cache for 8 and 16 byte ids.
+    All ids are cached in setup, so every lookup is a hit.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheHitBenchmark {
+    private static final int ID_COUNT = 128;
+
+    @Param({"SimpleLruMemCache", "PrimitiveKeyMemCache"})
+    private String cacheType;
+
+    @Param({"8", "16"})
+    private int idLength;
+
+    private Cache cache;
+    private byte[][] ids;
+    private String[] encoded;
+    private int index;
+
+    @Setup
+    public void setup() {
+        cache = "SimpleLruMemCache".equals(cacheType) ? new Cache.SimpleLruMemCache(1024) : new Cache.PrimitiveKeyMemCache(1024);
+        ids = new byte[ID_COUNT][];
+        encoded = new String[ID_COUNT];
+        for (int i = 0; i < ID_COUNT; i++) {
+            ids[i] = Bytes.random(idLength).array();
+            encoded[i] = Bytes.random(idLength + 9).encodeBase64Url();
+            cache.cache(ids[i], encoded[i]);
+        }
+    }
+
+    @Benchmark
+    public String getEncoded() {
+        return cache.getEncoded(ids[index++ & (ID_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public byte[] getBytes() {
+        return cache.getBytes(encoded[index++ & (ID_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,120 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Same scenario as IdMaskMultiThreadTest with cache: 32 threads mask and unmask ids through one shared
+    IdMask. All ids fit in the cache, so this measures hit throughput under contention.
+
+    SimpleLruMemCache is access ordered and not thread-safe, so it is wrapped in a synchronized decorator,
+    which is what sharing it between request threads requires.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheMultiThreadBenchmark {
+    private static final int ID_COUNT = 128;
+
+    @Param({"SynchronizedSimpleLruMemCache", "ConcurrentClockMemCache", "PrimitiveKeyMemCache"})
+    private String cacheType;
+
+    private IdMask<Long> idMask;
+    private long[] ids;
+    private String[] masked;
+
+    @Setup
+    public void setup() {
+        Cache cache;
+        if ("SynchronizedSimpleLruMemCache".equals(cacheType)) {
+            cache = new SynchronizedCache(new Cache.SimpleLruMemCache(1024));
+        } else if ("ConcurrentClockMemCache".equals(cacheType)) {
+            cache = new Cache.ConcurrentClockMemCache(1024, 16);
+        } else {
+            cache = new Cache.PrimitiveKeyMemCache(1024);
+        }
+        idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).cacheImpl(cache).build());
+        ids = new long[ID_COUNT];
+        masked = new String[ID_COUNT];
+        for (int i = 0; i < ID_COUNT; i++) {
+            ids[i] = Bytes.random(8).toLong();
+            masked[i] = idMask.mask(ids[i]);
+            idMask.unmask(masked[i]);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadIndex {
+        private int index;
+    }
+
+    @Benchmark
+    public String mask(ThreadIndex threadIndex) {
+        return idMask.mask(ids[threadIndex.index++ & (ID_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public Long unmask(ThreadIndex threadIndex) {
+        return idMask.unmask(masked[threadIndex.index++ & (ID_COUNT - 1)]);
+    }
+
+    private static final class SynchronizedCache implements Cache {
+        private final Cache delegate;
+
+        SynchronizedCache(Cache delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void cache(byte[] originalId, String encoded) {
+            delegate.cache(originalId, encoded);
+        }
+
+        @Override
+        public synchronized void cacheForEncode(byte[] originalId, String encoded) {
+            delegate.cacheForEncode(originalId, encoded);
+        }
+
+        @Override
+        public synchronized void cacheForDecode(byte[] originalId, String encoded) {
+            delegate.cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public synchronized String getEncoded(byte[] originalId) {
+            return delegate.getEncoded(originalId);
+        }
+
+        @Override
+        public synchronized byte[] getBytes(String encoded) {
+            return delegate.getBytes(encoded);
+        }
+
+        @Override
+        public synchronized void clear() {
+            delegate.clear();
+        }
+
+        @Override
+        public synchronized void clearEncoded() {
+            delegate.clearEncoded();
+        }
+
+        @Override
+        public synchronized Stats stats() {
+            return delegate.stats();
+        }
+    }
+}
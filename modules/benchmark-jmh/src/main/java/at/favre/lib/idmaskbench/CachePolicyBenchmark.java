@@ -0,0 +1,62 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Cost of the cache policies with randomized ids and the sha256 keyed lru cache. Randomized masking can never
+    hit the cache, so with the default policy (DECODE_ONLY) masking should cost the same as without cache.
+    "default" uses no explicit policy.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CachePolicyBenchmark {
+    private static final int ID_COUNT = 4096;
+
+    @Param({"default", "NONE"})
+    private String cachePolicy;
+
+    private IdMask<Long> idMask;
+    private long[] ids;
+    private String[] masked;
+    private int index;
+
+    @Setup
+    public void setup() {
+        idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array())
+                .randomizedIds(true)
+                .cacheImpl(new Cache.SimpleLruMemCache(1024))
+                .cachePolicy("default".equals(cachePolicy) ? null : Config.CachePolicy.valueOf(cachePolicy))
+                .build());
+        Random random = new Random();
+        ids = new long[ID_COUNT];
+        masked = new String[ID_COUNT];
+        for (int i = 0; i < ID_COUNT; i++) {
+            ids[i] = random.nextLong();
+            masked[i] = idMask.mask(ids[i]);
+        }
+    }
+
+    @Benchmark
+    public String mask() {
+        return idMask.mask(ids[index++ & (ID_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public Long unmask() {
+        return idMask.unmask(masked[index++ & (ID_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,73 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Latency of the very first call in a fresh JVM, with and without IdMask.warmUp() in the setup. Every fork
+    measures exactly one call, so run with many forks; the cost of warmUp() itself is measured by "warmUpCost"
+    (with "warmUp=true" after the other instances were warmed up).
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColdStartBenchmark {
+
+    @Param({"false", "true"})
+    private boolean warmUp;
+
+    private IdMask<Long> longIdMask;
+    private IdMask<UUID> uuidMask;
+    private UUID uuid;
+    private IdMask<Long> unwarmedIdMask;
+
+    @Setup
+    public void setup() {
+        longIdMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        uuidMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        uuid = UUID.randomUUID();
+        unwarmedIdMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        if (warmUp) {
+            longIdMask.warmUp();
+            uuidMask.warmUp();
+        }
+    }
+
+    @Benchmark
+    public String firstMaskLong() {
+        return longIdMask.mask(42L);
+    }
+
+    @Benchmark
+    public Long firstMaskAndUnmaskLong() {
+        return longIdMask.unmask(longIdMask.mask(42L));
+    }
+
+    @Benchmark
+    public String firstMaskUuid() {
+        return uuidMask.mask(uuid);
+    }
+
+    @Benchmark
+    public UUID firstMaskAndUnmaskUuid() {
+        return uuidMask.unmask(uuidMask.mask(uuid));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public IdMask<Long> warmUpCost() {
+        unwarmedIdMask.warmUp();
+        return unwarmedIdMask;
+    }
+}
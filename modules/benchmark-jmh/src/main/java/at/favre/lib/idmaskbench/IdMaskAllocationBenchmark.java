@@ -0,0 +1,57 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.ByteToTextEncoding;
+import at.favre.lib.idmask.IdMaskEngine;
+import at.favre.lib.idmask.KeyManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Measures the 8 byte engine without id mask cache. Meant to be run with -prof gc, where
+    gc.alloc.rate.norm shows the bytes allocated per single mask/unmask (see IdMaskAllocationTest).
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 15)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdMaskAllocationBenchmark {
+
+    @Param({"false", "true"})
+    private boolean randomizeIds;
+
+    private IdMaskEngine engine;
+    private byte[] plainId;
+    private CharSequence maskedId;
+    private char[] buffer;
+
+    @Setup
+    public void setup() {
+        engine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.with(Bytes.random(16).array()), null,
+                new SecureRandom(), new ByteToTextEncoding.Base64Url(), randomizeIds, false);
+        plainId = Bytes.random(8).array();
+        maskedId = engine.mask(plainId);
+        buffer = new char[engine.maskedLength()];
+    }
+
+    @Benchmark
+    public CharSequence benchmarkMask() {
+        return engine.mask(plainId);
+    }
+
+    @Benchmark
+    public int benchmarkMaskToBuffer() {
+        return engine.maskTo(plainId, buffer, 0);
+    }
+
+    @Benchmark
+    public byte[] benchmarkUnmask() {
+        return engine.unmask(maskedId);
+    }
+}
@@ -0,0 +1,126 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMasks;
+import at.favre.lib.idmask.LongIdMasker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Compares masking long ids one by one with the batch api. Every benchmark declares its batch size
+    as operations per invocation, so the score is the time per single id.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 15)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdMaskBatchBenchmark {
+
+    @State(Scope.Thread)
+    public static class BenchmarkState {
+        private LongIdMasker idMask;
+        private long[] ids1;
+        private long[] ids16;
+        private long[] ids256;
+        private long[] ids4096;
+        private String[] masked1;
+        private String[] masked16;
+        private String[] masked256;
+        private String[] masked4096;
+
+        @Setup
+        public void setup() {
+            idMask = IdMasks.forPrimitiveLongIds(
+                    Config.builder(Bytes.random(16).array())
+                            .enableCache(false)
+                            .build());
+            ids1 = randomIds(1);
+            ids16 = randomIds(16);
+            ids256 = randomIds(256);
+            ids4096 = randomIds(4096);
+            masked1 = idMask.maskAll(ids1);
+            masked16 = idMask.maskAll(ids16);
+            masked256 = idMask.maskAll(ids256);
+            masked4096 = idMask.maskAll(ids4096);
+        }
+
+        private static long[] randomIds(int count) {
+            Random random = new Random();
+            long[] ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = random.nextLong();
+            }
+            return ids;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void benchmarkMaskSingle256(BenchmarkState state, Blackhole blackhole) {
+        for (long id : state.ids256) {
+            blackhole.consume(state.idMask.mask(id));
+        }
+    }
+
+    @Benchmark
+    public void benchmarkMaskAll1(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.maskAll(state.ids1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public void benchmarkMaskAll16(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.maskAll(state.ids16));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void benchmarkMaskAll256(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.maskAll(state.ids256));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4096)
+    public void benchmarkMaskAll4096(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.maskAll(state.ids4096));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void benchmarkUnmaskSingle256(BenchmarkState state, Blackhole blackhole) {
+        for (String masked : state.masked256) {
+            blackhole.consume(state.idMask.unmaskToLong(masked));
+        }
+    }
+
+    @Benchmark
+    public void benchmarkUnmaskAll1(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmaskAll(state.masked1));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(16)
+    public void benchmarkUnmaskAll16(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmaskAll(state.masked16));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void benchmarkUnmaskAll256(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmaskAll(state.masked256));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4096)
+    public void benchmarkUnmaskAll4096(BenchmarkState state, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmaskAll(state.masked4096));
+    }
+}
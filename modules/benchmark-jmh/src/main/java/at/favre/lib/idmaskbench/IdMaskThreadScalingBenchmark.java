@@ -0,0 +1,144 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Measures how the throughput of a single IdMask instance shared by all threads scales with the
+    thread count. With no shared lock on the hot path the throughput should grow near-linear with the
+    thread count as long as there are enough physical cores.
+*/
+
+@SuppressWarnings("CheckStyle")
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdMaskThreadScalingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class LongState {
+        private IdMask<Long> idMask;
+
+        @Setup
+        public void setup() {
+            idMask = IdMasks.forLongIds(
+                    Config.builder(Bytes.random(16).array())
+                            .enableCache(false)
+                            .build());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class UuidState {
+        private IdMask<UUID> idMask;
+
+        @Setup
+        public void setup() {
+            idMask = IdMasks.forUuids(
+                    Config.builder(Bytes.random(16).array())
+                            .enableCache(false)
+                            .build());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private long longId;
+        private long uuidMsb;
+        private long uuidLsb;
+
+        @Setup
+        public void setup() {
+            Random random = new Random();
+            longId = random.nextLong();
+            uuidMsb = random.nextLong();
+            uuidLsb = random.nextLong();
+        }
+
+        UUID nextUuid() {
+            return new UUID(uuidMsb, uuidLsb++);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void benchmarkMaskAndUnmaskLong1Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void benchmarkMaskAndUnmaskUuid1Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void benchmarkMaskAndUnmaskLong2Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void benchmarkMaskAndUnmaskUuid2Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void benchmarkMaskAndUnmaskLong4Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void benchmarkMaskAndUnmaskUuid4Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void benchmarkMaskAndUnmaskLong8Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void benchmarkMaskAndUnmaskUuid8Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void benchmarkMaskAndUnmaskLong16Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void benchmarkMaskAndUnmaskUuid16Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void benchmarkMaskAndUnmaskLong32Threads(LongState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.longId++)));
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void benchmarkMaskAndUnmaskUuid32Threads(UuidState state, ThreadState threadState, Blackhole blackhole) {
+        blackhole.consume(state.idMask.unmask(state.idMask.mask(threadState.nextUuid())));
+    }
+}
@@ -0,0 +1,63 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Rejecting forged ids (valid format, wrong key) and garbage ids (invalid characters) with unmask() throwing
+    new exceptions ("throwing"), throwing preallocated exceptions without stack trace ("stackless") and with
+    tryUnmask(), which creates no exception at all.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InvalidIdBenchmark {
+
+    @Param({"throwing", "stackless", "tryUnmask"})
+    private String mode;
+
+    private IdMask<Long> idMask;
+    private String forgedId;
+    private String garbageId;
+
+    @Setup
+    public void setup() {
+        idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array())
+                .enableCache(false)
+                .stacklessExceptions("stackless".equals(mode))
+                .build());
+        forgedId = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).build()).mask(42L);
+        garbageId = "garbage!!garbage!!garb";
+    }
+
+    @Benchmark
+    public Object rejectForged() {
+        return reject(forgedId);
+    }
+
+    @Benchmark
+    public Object rejectGarbage() {
+        return reject(garbageId);
+    }
+
+    private Object reject(String encoded) {
+        if ("tryUnmask".equals(mode)) {
+            return idMask.tryUnmask(encoded).getReason();
+        }
+        try {
+            return idMask.unmask(encoded);
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Cache;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMasks;
+import at.favre.lib.idmask.LongIdMasker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Heap cache vs. off-heap cache with 1M cached long ids per direction.
+
+    "fullGc" measures the pause of an explicit full gc while the cache is filled (the off-heap cache only keeps a
+    few buffer objects on the heap), "lookup" the hit latency. The heap footprint of the filled cache is
+    printed once per trial.
+
+    Run with -prof gc to also see the allocation rate of the lookups.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms3g", "-Xmx3g", "-XX:MaxDirectMemorySize=1g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class OffHeapCacheBenchmark {
+    private static final int ENTRIES = 1 << 20;
+
+    @Param({"SimpleLruMemCache", "OffHeapMemCache"})
+    private String cacheType;
+
+    private Cache cache;
+    private long[] ids;
+    private byte[][] rawIds;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        LongIdMasker idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        ids = new long[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            ids[i] = i * 7919L;
+        }
+        String[] masked = idMask.maskAll(ids);
+        rawIds = new byte[ENTRIES][];
+        for (int i = 0; i < ENTRIES; i++) {
+            rawIds[i] = Bytes.from(ids[i]).array();
+        }
+
+        long heapBefore = usedHeap();
+        cache = "OffHeapMemCache".equals(cacheType)
+                ? new Cache.OffHeapMemCache(ENTRIES, idMask.maskedLength(), 64)
+                : new Cache.SimpleLruMemCache(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            cache.cache(rawIds[i], masked[i]);
+        }
+        long heapAfter = usedHeap();
+
+        System.out.println();
+        System.out.println(cacheType + " with " + ENTRIES + " entries uses " + (heapAfter - heapBefore) / (1024 * 1024) + " MB heap"
+                + (cache instanceof Cache.OffHeapMemCache ? " and " + ((Cache.OffHeapMemCache) cache).offHeapBytes() / (1024 * 1024) + " MB off-heap" : ""));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Cache fullGc() {
+        System.gc();
+        return cache;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 10)
+    public String lookup() {
+        return cache.getEncoded(rawIds[index++ & (ENTRIES - 1)]);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
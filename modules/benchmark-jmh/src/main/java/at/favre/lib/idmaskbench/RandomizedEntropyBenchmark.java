@@ -0,0 +1,64 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMask;
+import at.favre.lib.idmask.IdMasks;
+import at.favre.lib.idmask.LongIdMasker;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Masking randomized ids from 8 threads, all sharing one SecureRandom ("false") or with per-thread buffered
+    AES-CTR generators seeded from it ("true"). Run with -p secureRandomAlgorithm=NativePRNG (reads /dev/urandom
+    under a global lock) to see the effect of a slower shared source.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RandomizedEntropyBenchmark {
+
+    @Param({"false", "true"})
+    private boolean bufferedEntropy;
+
+    @Param({"default"})
+    private String secureRandomAlgorithm;
+
+    private LongIdMasker longIdMask;
+    private IdMask<UUID> uuidMask;
+    private UUID uuid;
+
+    @Setup
+    public void setup() throws Exception {
+        longIdMask = IdMasks.forPrimitiveLongIds(config().build());
+        uuidMask = IdMasks.forUuids(config().build());
+        uuid = UUID.randomUUID();
+    }
+
+    private Config.Builder config() throws Exception {
+        return Config.builder(Bytes.random(16).array())
+                .randomizedIds(true)
+                .enableCache(false)
+                .bufferedEntropy(bufferedEntropy)
+                .secureRandom("default".equals(secureRandomAlgorithm) ? new SecureRandom() : SecureRandom.getInstance(secureRandomAlgorithm));
+    }
+
+    @Benchmark
+    public String maskLong() {
+        return longIdMask.mask(42L);
+    }
+
+    @Benchmark
+    public String maskUuid() {
+        return uuidMask.mask(uuid);
+    }
+}
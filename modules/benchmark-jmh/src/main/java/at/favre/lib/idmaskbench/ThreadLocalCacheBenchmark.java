@@ -0,0 +1,60 @@
+package at.favre.lib.idmaskbench;
+
+import at.favre.lib.bytes.Bytes;
+import at.favre.lib.idmask.Config;
+import at.favre.lib.idmask.IdMasks;
+import at.favre.lib.idmask.LongIdMasker;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+    Masking and unmasking the same few ids (e.g. current user and tenant) from 4 threads with and without the
+    per-thread cache in front of the shared concurrent cache. With "threadLocalCacheSize" > 0 every call should be
+    served by the thread local table within a few nanoseconds.
+*/
+
+@SuppressWarnings("CheckStyle")
+@State(Scope.Benchmark)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 2, time = 6)
+@Measurement(iterations = 3, time = 10)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ThreadLocalCacheBenchmark {
+    private static final int HOT_ID_COUNT = 4;
+
+    @Param({"0", "16"})
+    private int threadLocalCacheSize;
+
+    private LongIdMasker idMask;
+    private String[] masked;
+
+    @State(Scope.Thread)
+    public static class Index {
+        int value;
+    }
+
+    @Setup
+    public void setup() {
+        idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array())
+                .threadLocalCacheSize(threadLocalCacheSize)
+                .adaptiveCacheBypass(false)
+                .build());
+        masked = new String[HOT_ID_COUNT];
+        for (int i = 0; i < HOT_ID_COUNT; i++) {
+            masked[i] = idMask.mask(i);
+        }
+    }
+
+    @Benchmark
+    public String mask(Index index) {
+        return idMask.mask(index.value++ & (HOT_ID_COUNT - 1));
+    }
+
+    @Benchmark
+    public long unmask(Index index) {
+        return idMask.unmaskToLong(masked[index.value++ & (HOT_ID_COUNT - 1)]);
+    }
+}
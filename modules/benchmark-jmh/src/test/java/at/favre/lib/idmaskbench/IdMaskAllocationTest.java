@@ -0,0 +1,73 @@
+package at.favre.lib.idmaskbench;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link IdMaskAllocationBenchmark} with the gc profiler and checks the normalized allocation
+ * rate. Apart from the resulting masked string or plain id, the engine should only allocate a
+ * small, constant amount for text encoding. Masking into a char buffer should not need to allocate at all
+ * (apart from the secure random in randomized mode).
+ */
+public class IdMaskAllocationTest {
+    private static final double MAX_BYTES_PER_MASK = 256;
+    private static final double MAX_BYTES_PER_UNMASK = 128;
+    private static final double MAX_BYTES_PER_MASK_TO_BUFFER = 64;
+    private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+    @Test
+    public void testAllocatedBytesPerOperation() throws Exception {
+        Options options = new OptionsBuilder()
+                .include(IdMaskAllocationBenchmark.class.getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .forks(0)
+                .warmupIterations(2)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(1))
+                .shouldFailOnError(true)
+                .build();
+
+        Collection<RunResult> results = new Runner(options).run();
+        assertEquals(6, results.size());
+
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            double bytesPerOp = allocatedBytesPerOp(result);
+            double limit = limitFor(benchmark);
+            assertTrue(benchmark + " (randomizeIds=" + result.getParams().getParam("randomizeIds") + ") allocated "
+                    + bytesPerOp + " bytes/op, limit is " + limit, bytesPerOp <= limit);
+        }
+    }
+
+    private static double limitFor(String benchmark) {
+        if (benchmark.endsWith("benchmarkMask")) {
+            return MAX_BYTES_PER_MASK;
+        } else if (benchmark.endsWith("benchmarkMaskToBuffer")) {
+            return MAX_BYTES_PER_MASK_TO_BUFFER;
+        }
+        return MAX_BYTES_PER_UNMASK;
+    }
+
+    private static double allocatedBytesPerOp(RunResult result) {
+        // older jmh versions prefix secondary results with a middle dot
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith(ALLOC_RATE_NORM)) {
+                return entry.getValue().getScore();
+            }
+        }
+        throw new AssertionError(ALLOC_RATE_NORM + " missing in " + result.getSecondaryResults().keySet());
+    }
+}
@@ -0,0 +1,258 @@
+package at.favre.lib.idmask;
+
+/**
+ * Wrapper around the configured {@link Cache} which stops using it (per direction) while it does not pay off.
+ * <p>
+ * For every window of {@link #WINDOW} lookups (or {@link #STORE_WINDOW} stores) the costs of the cache (time
+ * spent in lookups and stores) are compared with its benefit (hits times the average time needed to mask or unmask
+ * after a miss, reported by the {@link IdMask} with {@link #recordLoadTime(boolean, long)}). If the cache costs more
+ * than it saves, lookups and stores are skipped for {@link #MIN_BYPASS} calls, after which the cache is probed again
+ * with a new window. Every consecutive failed probe doubles the bypass length up to {@link #MAX_BYPASS} calls.
+ * <p>
+ * Timings are only sampled for every 16th call and counters are updated without synchronization; lost updates
+ * only make the decision slightly less accurate. Only the evaluation at the end of a window is synchronized.
+ */
+final class AdaptiveBypassCache implements Cache {
+    static final int WINDOW = 1024;
+    static final int STORE_WINDOW = 4 * WINDOW;
+    static final int MIN_BYPASS = 4096;
+    static final int MAX_BYPASS = 1 << 20;
+    private static final int SAMPLE_MASK = 15;
+
+    private final Cache delegate;
+    private final Direction encode = new Direction();
+    private final Direction decode = new Direction();
+
+    AdaptiveBypassCache(Cache delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void cache(byte[] originalId, String encoded) {
+        boolean forEncode = encode.tryUse();
+        boolean forDecode = decode.tryUse();
+        if (forEncode && forDecode) {
+            if (encode.sampleStore() | decode.sampleStore()) {
+                long start = System.nanoTime();
+                delegate.cache(originalId, encoded);
+                long nanos = System.nanoTime() - start;
+                encode.recordStoreTime(nanos / 2);
+                decode.recordStoreTime(nanos / 2);
+            } else {
+                delegate.cache(originalId, encoded);
+            }
+        } else if (forEncode) {
+            store(encode, originalId, encoded, true);
+        } else if (forDecode) {
+            store(decode, originalId, encoded, false);
+        }
+    }
+
+    @Override
+    public void cacheForEncode(byte[] originalId, String encoded) {
+        if (encode.tryUse()) {
+            store(encode, originalId, encoded, true);
+        }
+    }
+
+    @Override
+    public void cacheForDecode(byte[] originalId, String encoded) {
+        if (decode.tryUse()) {
+            store(decode, originalId, encoded, false);
+        }
+    }
+
+    private void store(Direction direction, byte[] originalId, String encoded, boolean forEncode) {
+        boolean sample = direction.sampleStore();
+        long start = sample ? System.nanoTime() : 0;
+        if (forEncode) {
+            delegate.cacheForEncode(originalId, encoded);
+        } else {
+            delegate.cacheForDecode(originalId, encoded);
+        }
+        if (sample) {
+            direction.recordStoreTime(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public String getEncoded(byte[] originalId) {
+        if (!encode.tryUse()) {
+            return null;
+        }
+        if (encode.sampleLookup()) {
+            long start = System.nanoTime();
+            String encoded = delegate.getEncoded(originalId);
+            encode.recordLookup(encoded != null, System.nanoTime() - start);
+            return encoded;
+        }
+        String encoded = delegate.getEncoded(originalId);
+        encode.recordLookup(encoded != null, -1);
+        return encoded;
+    }
+
+    @Override
+    public byte[] getBytes(String encoded) {
+        if (!decode.tryUse()) {
+            return null;
+        }
+        if (decode.sampleLookup()) {
+            long start = System.nanoTime();
+            byte[] raw = delegate.getBytes(encoded);
+            decode.recordLookup(raw != null, System.nanoTime() - start);
+            return raw;
+        }
+        byte[] raw = delegate.getBytes(encoded);
+        decode.recordLookup(raw != null, -1);
+        return raw;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public void clearEncoded() {
+        delegate.clearEncoded();
+    }
+
+    @Override
+    public Stats stats() {
+        return delegate.stats();
+    }
+
+    /**
+     * Report the time needed to create a value after a cache miss
+     *
+     * @param forEncode true if masking, false if unmasking
+     * @param nanos     time spent
+     */
+    void recordLoadTime(boolean forEncode, long nanos) {
+        (forEncode ? encode : decode).recordLoad(nanos);
+    }
+
+    boolean isBypassingEncode() {
+        return !encode.isActive();
+    }
+
+    boolean isBypassingDecode() {
+        return !decode.isActive();
+    }
+
+    private static final class Direction {
+        private volatile boolean bypassing;
+        private boolean probing;
+        private int bypassLength = MIN_BYPASS;
+        private int bypassedCalls;
+
+        private int lookups;
+        private int hits;
+        private int sampledLookups;
+        private long lookupNanos;
+        private int stores;
+        private int sampledStores;
+        private long storeNanos;
+        private int sampledLoads;
+        private long loadNanos;
+
+        boolean isActive() {
+            return !bypassing;
+        }
+
+        /**
+         * @return true if the cache should be used for this lookup or store
+         */
+        boolean tryUse() {
+            if (bypassing) {
+                if (++bypassedCalls >= bypassLength) {
+                    evaluate();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        boolean sampleLookup() {
+            return (lookups & SAMPLE_MASK) == 0;
+        }
+
+        boolean sampleStore() {
+            boolean sample = (stores & SAMPLE_MASK) == 0;
+            if (++stores >= STORE_WINDOW) {
+                // direction which is (almost) only written to
+                evaluate();
+            }
+            return sample;
+        }
+
+        void recordLookup(boolean hit, long nanos) {
+            if (hit) {
+                hits++;
+            }
+            if (nanos >= 0) {
+                sampledLookups++;
+                lookupNanos += nanos;
+            }
+            if (++lookups >= WINDOW) {
+                evaluate();
+            }
+        }
+
+        void recordStoreTime(long nanos) {
+            sampledStores++;
+            storeNanos += nanos;
+        }
+
+        void recordLoad(long nanos) {
+            sampledLoads++;
+            loadNanos += nanos;
+        }
+
+        private synchronized void evaluate() {
+            if (bypassing) {
+                if (bypassedCalls >= bypassLength) {
+                    resetWindow();
+                    probing = true;
+                    bypassing = false;
+                }
+                return;
+            }
+            if (lookups < WINDOW && stores < STORE_WINDOW) {
+                // already evaluated by another thread
+                return;
+            }
+
+            double avgLookup = sampledLookups == 0 ? 0 : (double) lookupNanos / sampledLookups;
+            double avgStore = sampledStores == 0 ? 0 : (double) storeNanos / sampledStores;
+            double avgLoad = sampledLoads == 0 ? 0 : (double) loadNanos / sampledLoads;
+
+            double cost = lookups * avgLookup + stores * avgStore;
+            double benefit = hits * avgLoad;
+
+            if (hits > 0 && (sampledLoads == 0 || benefit >= cost)) {
+                bypassLength = MIN_BYPASS;
+            } else {
+                if (probing) {
+                    bypassLength = Math.min(bypassLength * 2, MAX_BYPASS);
+                }
+                bypassedCalls = 0;
+                bypassing = true;
+            }
+            probing = false;
+            resetWindow();
+        }
+
+        private void resetWindow() {
+            lookups = 0;
+            hits = 0;
+            sampledLookups = 0;
+            lookupNanos = 0;
+            stores = 0;
+            sampledStores = 0;
+            storeNanos = 0;
+            sampledLoads = 0;
+            loadNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package at.favre.lib.idmask;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Table-driven RFC 4648 Base64 codec with url safe alphabet and without padding.
+ * <p>
+ * A generic loop over 3 byte groups, not unrolled per length: every group is converted with 4 table lookups
+ * and the 1 or 2 byte tail is handled separately, so no intermediate buffers, chunk objects or per bit loops
+ * are needed for any length, including the raw masked id lengths (17, 25, 33, 41 or 49 bytes).
+ * <p>
+ * Decoding is strict: only chars of the url safe alphabet are accepted, the length must be possible for a base64
+ * string and unused trailing bits must be zero, so every byte array has exactly one accepted encoding. For
+ * compatibility, the same encoding followed by exactly the <code>=</code> padding implied by its length is accepted
+ * as well; any other padding is rejected.
+ */
+final class Base64UrlCodec {
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    private static final char[] ALPHABET_CHARS = new String(ALPHABET, StandardCharsets.US_ASCII).toCharArray();
+    private static final byte[] DECODE_TABLE = new byte[128];
+    private static final char PADDING = '=';
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE_TABLE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private Base64UrlCodec() {
+    }
+
+    static int encodedLength(int byteLength) {
+        return (byteLength * 4 + 2) / 3;
+    }
+
+    static String encode(byte[] src) {
+        byte[] out = new byte[encodedLength(src.length)];
+        final int fullGroupsEnd = src.length - src.length % 3;
+        int s = 0;
+        int d = 0;
+        while (s < fullGroupsEnd) {
+            int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            out[d++] = ALPHABET[(bits >>> 18) & 0x3f];
+            out[d++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[d++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[d++] = ALPHABET[bits & 0x3f];
+        }
+        switch (src.length - fullGroupsEnd) {
+            case 1:
+                int bits1 = (src[s] & 0xff) << 16;
+                out[d++] = ALPHABET[(bits1 >>> 18) & 0x3f];
+                out[d] = ALPHABET[(bits1 >>> 12) & 0x3f];
+                break;
+            case 2:
+                int bits2 = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8;
+                out[d++] = ALPHABET[(bits2 >>> 18) & 0x3f];
+                out[d++] = ALPHABET[(bits2 >>> 12) & 0x3f];
+                out[d] = ALPHABET[(bits2 >>> 6) & 0x3f];
+                break;
+            default:
+                break;
+        }
+        // ascii only, so the string can be created from the bytes without charset encoding
+        return new String(out, StandardCharsets.ISO_8859_1);
+    }
+
+    static int encodeTo(byte[] src, char[] dst, int offset) {
+        Objects.requireNonNull(dst);
+        final int length = encodedLength(src.length);
+        if (offset < 0 || offset > dst.length - length) {
+            throw new IllegalArgumentException("target buffer too small, needs " + length + " chars at offset " + offset);
+        }
+        final int fullGroupsEnd = src.length - src.length % 3;
+        int s = 0;
+        int d = offset;
+        while (s < fullGroupsEnd) {
+            int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            dst[d++] = ALPHABET_CHARS[(bits >>> 18) & 0x3f];
+            dst[d++] = ALPHABET_CHARS[(bits >>> 12) & 0x3f];
+            dst[d++] = ALPHABET_CHARS[(bits >>> 6) & 0x3f];
+            dst[d++] = ALPHABET_CHARS[bits & 0x3f];
+        }
+        switch (src.length - fullGroupsEnd) {
+            case 1:
+                int bits1 = (src[s] & 0xff) << 16;
+                dst[d++] = ALPHABET_CHARS[(bits1 >>> 18) & 0x3f];
+                dst[d] = ALPHABET_CHARS[(bits1 >>> 12) & 0x3f];
+                break;
+            case 2:
+                int bits2 = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8;
+                dst[d++] = ALPHABET_CHARS[(bits2 >>> 18) & 0x3f];
+                dst[d++] = ALPHABET_CHARS[(bits2 >>> 12) & 0x3f];
+                dst[d] = ALPHABET_CHARS[(bits2 >>> 6) & 0x3f];
+                break;
+            default:
+                break;
+        }
+        return length;
+    }
+
+    static void encodeTo(byte[] src, Appendable target) throws IOException {
+        Objects.requireNonNull(target);
+        final int fullGroupsEnd = src.length - src.length % 3;
+        int s = 0;
+        while (s < fullGroupsEnd) {
+            int bits = (src[s++] & 0xff) << 16 | (src[s++] & 0xff) << 8 | (src[s++] & 0xff);
+            target.append(ALPHABET_CHARS[(bits >>> 18) & 0x3f])
+                    .append(ALPHABET_CHARS[(bits >>> 12) & 0x3f])
+                    .append(ALPHABET_CHARS[(bits >>> 6) & 0x3f])
+                    .append(ALPHABET_CHARS[bits & 0x3f]);
+        }
+        switch (src.length - fullGroupsEnd) {
+            case 1:
+                int bits1 = (src[s] & 0xff) << 16;
+                target.append(ALPHABET_CHARS[(bits1 >>> 18) & 0x3f])
+                        .append(ALPHABET_CHARS[(bits1 >>> 12) & 0x3f]);
+                break;
+            case 2:
+                int bits2 = (src[s] & 0xff) << 16 | (src[s + 1] & 0xff) << 8;
+                target.append(ALPHABET_CHARS[(bits2 >>> 18) & 0x3f])
+                        .append(ALPHABET_CHARS[(bits2 >>> 12) & 0x3f])
+                        .append(ALPHABET_CHARS[(bits2 >>> 6) & 0x3f]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    static byte[] decode(CharSequence encoded) {
+        Objects.requireNonNull(encoded);
+        int end = trimPaddingOrThrow(encoded, 0, encoded.length());
+        byte[] out = new byte[decodedLength(end)];
+        decodeTo(encoded, 0, end, out, 0);
+        return out;
+    }
+
+    static int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+        Objects.requireNonNull(encoded);
+        Objects.requireNonNull(dst);
+        if (start < 0 || end > encoded.length() || start > end) {
+            throw new IndexOutOfBoundsException("invalid range " + start + "-" + end + " for length " + encoded.length());
+        }
+        end = trimPaddingOrThrow(encoded, start, end);
+        final int charLength = end - start;
+        if (charLength % 4 == 1) {
+            throw new IllegalArgumentException("invalid base64 length " + charLength);
+        }
+        final int length = decodedLength(charLength);
+        if (offset < 0 || offset > dst.length - length) {
+            throw new IllegalArgumentException("target buffer too small, needs " + length + " bytes at offset " + offset);
+        }
+
+        final int fullGroupsEnd = end - charLength % 4;
+        int s = start;
+        int d = offset;
+        while (s < fullGroupsEnd) {
+            int bits = decodeChar(encoded.charAt(s++)) << 18
+                    | decodeChar(encoded.charAt(s++)) << 12
+                    | decodeChar(encoded.charAt(s++)) << 6
+                    | decodeChar(encoded.charAt(s++));
+            dst[d++] = (byte) (bits >> 16);
+            dst[d++] = (byte) (bits >> 8);
+            dst[d++] = (byte) bits;
+        }
+        switch (end - fullGroupsEnd) {
+            case 2:
+                int bits2 = decodeChar(encoded.charAt(s)) << 18 | decodeChar(encoded.charAt(s + 1)) << 12;
+                checkUnusedBitsZero(bits2 & 0xffff);
+                dst[d] = (byte) (bits2 >> 16);
+                break;
+            case 3:
+                int bits3 = decodeChar(encoded.charAt(s)) << 18 | decodeChar(encoded.charAt(s + 1)) << 12 | decodeChar(encoded.charAt(s + 2)) << 6;
+                checkUnusedBitsZero(bits3 & 0xff);
+                dst[d++] = (byte) (bits3 >> 16);
+                dst[d] = (byte) (bits3 >> 8);
+                break;
+            default:
+                break;
+        }
+        return length;
+    }
+
+    /**
+     * Check if the range can be decoded, without throwing. {@link #decodeTo(CharSequence, int, int, byte[], int)}
+     * accepts exactly the ranges for which this returns true.
+     *
+     * @param encoded text
+     * @param start   index of the first char (inclusive), must be valid
+     * @param end     index of the last char (exclusive), must be valid
+     * @return true if valid canonical base64url
+     */
+    static boolean isValid(CharSequence encoded, int start, int end) {
+        end = trimPadding(encoded, start, end);
+        final int charLength = end - start;
+        if (end < 0 || charLength % 4 == 1) {
+            return false;
+        }
+        int last = 0;
+        for (int i = start; i < end; i++) {
+            char c = encoded.charAt(i);
+            if (c >= DECODE_TABLE.length || (last = DECODE_TABLE[c]) < 0) {
+                return false;
+            }
+        }
+        switch (charLength % 4) {
+            case 2:
+                return (last & 0x0f) == 0;
+            case 3:
+                return (last & 0x03) == 0;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Same as {@link #decodeTo(CharSequence, int, int, byte[], int)}, but returns -1 instead of throwing if the range
+     * is not valid base64url or does not fit into dst
+     *
+     * @return number of bytes written or -1
+     */
+    static int tryDecodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+        if (!isValid(encoded, start, end) || decodedLength(trimPadding(encoded, start, end) - start) > dst.length - offset) {
+            return -1;
+        }
+        return decodeTo(encoded, start, end, dst, offset);
+    }
+
+    private static int decodedLength(int charLength) {
+        return charLength * 3 / 4;
+    }
+
+    private static int decodeChar(char c) {
+        final int value;
+        if (c >= DECODE_TABLE.length || (value = DECODE_TABLE[c]) < 0) {
+            throw new IllegalArgumentException("unrecognized base64url character: " + c);
+        }
+        return value;
+    }
+
+    private static void checkUnusedBitsZero(int unusedBits) {
+        if (unusedBits != 0) {
+            throw new IllegalArgumentException("non canonical base64url encoding: unused trailing bits must be zero");
+        }
+    }
+
+    /**
+     * Padding is optional (the encoder never writes it), but if present it must be exactly the padding implied by
+     * the length, i.e. one or two chars completing the last group of 4
+     *
+     * @return end of the data chars or -1 if the padding is invalid
+     */
+    private static int trimPadding(CharSequence encoded, int start, int end) {
+        int dataEnd = end;
+        while (dataEnd > start && end - dataEnd < 3 && encoded.charAt(dataEnd - 1) == PADDING) {
+            dataEnd--;
+        }
+        final int padding = end - dataEnd;
+        if (padding != 0 && (dataEnd - start) % 4 + padding != 4) {
+            return -1;
+        }
+        return dataEnd;
+    }
+
+    private static int trimPaddingOrThrow(CharSequence encoded, int start, int end) {
+        int dataEnd = trimPadding(encoded, start, end);
+        if (dataEnd < 0) {
+            throw new IllegalArgumentException("invalid base64url padding, must complete the last group of 4 chars");
+        }
+        return dataEnd;
+    }
+}
@@ -44,33 +44,65 @@ final class BaseEncoding {
         this.paddingChar = paddingChar;
     }
 
-    private int maxEncodedSize(int bytes) {
-        return alphabet.charsPerChunk * divide(bytes, alphabet.bytesPerChunk);
+    /**
+     * Exact length of the encoded text for a given byte length, including padding if used
+     *
+     * @param bytes length of the raw input
+     * @return encoded text length
+     */
+    public int encodedLength(int bytes) {
+        if (paddingChar != null) {
+            return alphabet.charsPerChunk * divide(bytes, alphabet.bytesPerChunk);
+        }
+        return divide(bytes * 8, alphabet.bitsPerChar);
     }
 
     public String encode(byte[] array) {
-        return encode(array, 0, array.length);
+        char[] result = new char[encodedLength(array.length)];
+        encodeTo(array, result, 0);
+        return new String(result);
     }
 
-    private String encode(byte[] bytes, int off, int len) {
-        StringBuilder result = new StringBuilder(maxEncodedSize(len));
-        try {
-            encodeTo(result, bytes, off, len);
-        } catch (IOException impossible) {
-            throw new AssertionError(impossible);
+    /**
+     * Encode given bytes and append to target
+     *
+     * @param target to append to
+     * @param bytes  to encode
+     * @throws IOException if target throws
+     */
+    public void encodeTo(Appendable target, byte[] bytes) throws IOException {
+        Objects.requireNonNull(target);
+        char[] chunk = new char[alphabet.charsPerChunk];
+        for (int i = 0; i < bytes.length; i += alphabet.bytesPerChunk) {
+            int charCount = encodeChunkTo(chunk, 0, bytes, i, Math.min(alphabet.bytesPerChunk, bytes.length - i));
+            for (int j = 0; j < charCount; j++) {
+                target.append(chunk[j]);
+            }
         }
-        return result.toString();
     }
 
-    private void encodeTo(Appendable target, byte[] bytes, int off, int len) throws IOException {
-        Objects.requireNonNull(target);
-        for (int i = 0; i < len; i += alphabet.bytesPerChunk) {
-            encodeChunkTo(target, bytes, off + i, Math.min(alphabet.bytesPerChunk, len - i));
+    /**
+     * Encode given bytes into the char buffer
+     *
+     * @param bytes  to encode
+     * @param dst    target buffer, must have at least {@link #encodedLength(int)} chars left after offset
+     * @param offset in dst to start writing
+     * @return number of chars written
+     */
+    public int encodeTo(byte[] bytes, char[] dst, int offset) {
+        Objects.requireNonNull(dst);
+        int length = encodedLength(bytes.length);
+        if (offset < 0 || offset > dst.length - length) {
+            throw new IllegalArgumentException("target buffer too small, needs " + length + " chars at offset " + offset);
+        }
+        int pos = offset;
+        for (int i = 0; i < bytes.length; i += alphabet.bytesPerChunk) {
+            pos += encodeChunkTo(dst, pos, bytes, i, Math.min(alphabet.bytesPerChunk, bytes.length - i));
         }
+        return pos - offset;
     }
 
-    private void encodeChunkTo(Appendable target, byte[] bytes, int off, int len) throws IOException {
-        Objects.requireNonNull(target);
+    private int encodeChunkTo(char[] target, int targetOffset, byte[] bytes, int off, int len) {
         long bitBuffer = 0;
         for (int i = 0; i < len; ++i) {
             bitBuffer |= bytes[off + i] & 0xFF;
@@ -79,73 +111,86 @@ final class BaseEncoding {
         // Position of first character is length of bitBuffer minus bitsPerChar.
         final int bitOffset = (len + 1) * 8 - alphabet.bitsPerChar;
         int bitsProcessed = 0;
+        int pos = targetOffset;
         while (bitsProcessed < len * 8) {
             int charIndex = (int) (bitBuffer >>> (bitOffset - bitsProcessed)) & alphabet.mask;
-            target.append(alphabet.encode(charIndex));
+            target[pos++] = alphabet.encode(charIndex);
             bitsProcessed += alphabet.bitsPerChar;
         }
         if (paddingChar != null) {
             while (bitsProcessed < alphabet.bytesPerChunk * 8) {
-                target.append(paddingChar);
+                target[pos++] = paddingChar;
                 bitsProcessed += alphabet.bitsPerChar;
             }
         }
+        return pos - targetOffset;
     }
 
-    private int maxDecodedSize(int chars) {
-        return (int) ((alphabet.bitsPerChar * (long) chars + 7L) / 8L);
+    private int decodedLength(int chars) {
+        return (int) ((alphabet.bitsPerChar * (long) chars) / 8L);
     }
 
-    private String trimTrailingPadding(CharSequence chars) {
-        Objects.requireNonNull(chars);
+    private int trimTrailingPadding(CharSequence chars, int start, int end) {
         if (paddingChar == null) {
-            return chars.toString();
+            return end;
         }
         int l;
-        for (l = chars.length() - 1; l >= 0; l--) {
+        for (l = end - 1; l >= start; l--) {
             if (chars.charAt(l) != paddingChar) {
                 break;
             }
         }
-        return chars.subSequence(0, l + 1).toString();
+        return l + 1;
     }
 
     public byte[] decode(CharSequence encoded) {
-        encoded = trimTrailingPadding(encoded);
-        byte[] tmp = new byte[maxDecodedSize(encoded.length())];
-        int len = decodeTo(tmp, encoded);
-        return extract(tmp, len);
+        Objects.requireNonNull(encoded);
+        int end = trimTrailingPadding(encoded, 0, encoded.length());
+        byte[] result = new byte[decodedLength(end)];
+        decodeTo(encoded, 0, end, result, 0);
+        return result;
     }
 
-    private static byte[] extract(byte[] result, int length) {
-        if (length == result.length) {
-            return result;
-        } else {
-            byte[] trunc = new byte[length];
-            System.arraycopy(result, 0, trunc, 0, length);
-            return trunc;
+    /**
+     * Decode given range of the encoded text into the target buffer
+     *
+     * @param chars  encoded text
+     * @param start  index of the first char (inclusive)
+     * @param end    index of the last char (exclusive)
+     * @param target buffer to write the decoded bytes to
+     * @param offset in target to start writing
+     * @return number of bytes written
+     */
+    public int decodeTo(CharSequence chars, int start, int end, byte[] target, int offset) {
+        Objects.requireNonNull(chars);
+        Objects.requireNonNull(target);
+        if (start < 0 || end > chars.length() || start > end) {
+            throw new IndexOutOfBoundsException("invalid range " + start + "-" + end + " for length " + chars.length());
+        }
+        end = trimTrailingPadding(chars, start, end);
+        if (!alphabet.isValidLength(end - start)) {
+            throw new IllegalArgumentException("invalid encoded length " + (end - start) + ", last chars do not form a whole byte");
+        }
+        if (offset < 0 || offset > target.length - decodedLength(end - start)) {
+            throw new IllegalArgumentException("target buffer too small, needs " + decodedLength(end - start) + " bytes at offset " + offset);
         }
-    }
 
-    private int decodeTo(byte[] target, CharSequence chars) {
-        Objects.requireNonNull(target);
-        chars = trimTrailingPadding(chars);
-        int bytesWritten = 0;
-        for (int charIdx = 0; charIdx < chars.length(); charIdx += alphabet.charsPerChunk) {
+        int bytesWritten = offset;
+        for (int charIdx = start; charIdx < end; charIdx += alphabet.charsPerChunk) {
             long chunk = 0;
             int charsProcessed = 0;
             for (int i = 0; i < alphabet.charsPerChunk; i++) {
                 chunk <<= alphabet.bitsPerChar;
-                if (charIdx + i < chars.length()) {
+                if (charIdx + i < end) {
                     chunk |= alphabet.decode(chars.charAt(charIdx + charsProcessed++));
                 }
             }
             final int minOffset = alphabet.bytesPerChunk * 8 - charsProcessed * alphabet.bitsPerChar;
-            for (int offset = (alphabet.bytesPerChunk - 1) * 8; offset >= minOffset; offset -= 8) {
-                target[bytesWritten++] = (byte) ((chunk >>> offset) & 0xFF);
+            for (int bitOffset = (alphabet.bytesPerChunk - 1) * 8; bitOffset >= minOffset; bitOffset -= 8) {
+                target[bytesWritten++] = (byte) ((chunk >>> bitOffset) & 0xFF);
             }
         }
-        return bytesWritten;
+        return bytesWritten - offset;
     }
 
     static final class Alphabet {
@@ -156,8 +201,20 @@ final class BaseEncoding {
         final int charsPerChunk;
         final int bytesPerChunk;
         private final byte[] decodabet;
+        /**
+         * Indexed by the number of chars in the last chunk; false if their bits do not form whole bytes
+         */
+        private final boolean[] validTrailingChars;
 
         Alphabet(char[] chars) {
+            this(chars, false);
+        }
+
+        /**
+         * @param chars      of the alphabet
+         * @param ignoreCase if true, upper and lower case variants of alphabet chars are also accepted when decoding
+         */
+        Alphabet(char[] chars, boolean ignoreCase) {
             this.chars = Objects.requireNonNull(chars);
             this.bitsPerChar = log2(chars.length);
 
@@ -170,12 +227,29 @@ final class BaseEncoding {
             this.bytesPerChunk = bitsPerChar / gcd;
             this.mask = chars.length - 1;
 
+            this.validTrailingChars = new boolean[charsPerChunk];
+            for (int i = 0; i < bytesPerChunk; i++) {
+                validTrailingChars[divide(i * 8, bitsPerChar)] = true;
+            }
+
             byte[] decodabet = new byte[ASCII_MAX + 1];
             Arrays.fill(decodabet, (byte) -1);
             for (int i = 0; i < chars.length; i++) {
                 char c = chars[i];
                 decodabet[c] = (byte) i;
             }
+            if (ignoreCase) {
+                for (int i = 0; i < chars.length; i++) {
+                    char upper = Character.toUpperCase(chars[i]);
+                    char lower = Character.toLowerCase(chars[i]);
+                    if (upper <= ASCII_MAX && decodabet[upper] == -1) {
+                        decodabet[upper] = (byte) i;
+                    }
+                    if (lower <= ASCII_MAX && decodabet[lower] == -1) {
+                        decodabet[lower] = (byte) i;
+                    }
+                }
+            }
             this.decodabet = decodabet;
         }
 
@@ -183,7 +257,14 @@ final class BaseEncoding {
             return chars[bits];
         }
 
+        boolean isValidLength(int encodedChars) {
+            return validTrailingChars[encodedChars % charsPerChunk];
+        }
+
         int decode(char ch) {
+            if (ch > ASCII_MAX || decodabet[ch] == -1) {
+                throw new IllegalArgumentException("unrecognized character: " + ch);
+            }
             return (int) decodabet[ch];
         }
     }
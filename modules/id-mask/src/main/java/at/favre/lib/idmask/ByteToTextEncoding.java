@@ -1,9 +1,7 @@
 package at.favre.lib.idmask;
 
-import at.favre.lib.bytes.Bytes;
-
+import java.io.IOException;
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 /**
  * Responsible for encoding byte arrays to ASCII safe text and vice versa.
@@ -27,6 +25,51 @@ public interface ByteToTextEncoding {
      */
     byte[] decode(CharSequence encoded);
 
+    /**
+     * Decode given range of the encoded text (see {@link #encode(byte[])}) straight into the given
+     * byte buffer, without creating an intermediate string
+     *
+     * @param encoded text to unmask
+     * @param start   index of the first char (inclusive)
+     * @param end     index of the last char (exclusive)
+     * @param dst     target buffer
+     * @param offset  in dst to start writing
+     * @return number of bytes written
+     * @throws IllegalArgumentException  if the text can not be decoded or dst is too small
+     * @throws IndexOutOfBoundsException if the range is not within encoded
+     */
+    int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset);
+
+    /**
+     * Encode given byte array and append the printable text to given target. Produces the
+     * same text as {@link #encode(byte[])} without creating an intermediate string.
+     *
+     * @param bytes  to encode
+     * @param target to append the text to
+     * @throws IOException if target throws
+     */
+    void encodeTo(byte[] bytes, Appendable target) throws IOException;
+
+    /**
+     * Encode given byte array and write the printable text to the given char buffer. Produces the
+     * same text as {@link #encode(byte[])} without creating an intermediate string.
+     *
+     * @param bytes  to encode
+     * @param dst    target buffer, must have at least {@link #encodedLength(int)} chars left after offset
+     * @param offset in dst to start writing
+     * @return number of chars written
+     * @throws IllegalArgumentException if dst is too small
+     */
+    int encodeTo(byte[] bytes, char[] dst, int offset);
+
+    /**
+     * Exact length of the text {@link #encode(byte[])} creates for an input of given length
+     *
+     * @param byteLength length of the raw input
+     * @return text length
+     */
+    int encodedLength(int byteLength);
+
     /**
      * RFC 4648 compatible Base64 encoding with url safe schema.
      * <p>
@@ -35,12 +78,32 @@ public interface ByteToTextEncoding {
     final class Base64Url implements ByteToTextEncoding {
         @Override
         public String encode(byte[] bytes) {
-            return Bytes.wrap(bytes).encodeBase64(true, false);
+            return Base64UrlCodec.encode(bytes);
         }
 
         @Override
         public byte[] decode(CharSequence encoded) {
-            return Bytes.parseBase64(encoded).array();
+            return Base64UrlCodec.decode(encoded);
+        }
+
+        @Override
+        public int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+            return Base64UrlCodec.decodeTo(encoded, start, end, dst, offset);
+        }
+
+        @Override
+        public void encodeTo(byte[] bytes, Appendable target) throws IOException {
+            Base64UrlCodec.encodeTo(bytes, target);
+        }
+
+        @Override
+        public int encodeTo(byte[] bytes, char[] dst, int offset) {
+            return Base64UrlCodec.encodeTo(bytes, dst, offset);
+        }
+
+        @Override
+        public int encodedLength(int byteLength) {
+            return Base64UrlCodec.encodedLength(byteLength);
         }
     }
 
@@ -67,6 +130,26 @@ public interface ByteToTextEncoding {
         public byte[] decode(CharSequence encoded) {
             return encoding.decode(encoded);
         }
+
+        @Override
+        public int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+            return encoding.decodeTo(encoded, start, end, dst, offset);
+        }
+
+        @Override
+        public void encodeTo(byte[] bytes, Appendable target) throws IOException {
+            encoding.encodeTo(target, bytes);
+        }
+
+        @Override
+        public int encodeTo(byte[] bytes, char[] dst, int offset) {
+            return encoding.encodeTo(bytes, dst, offset);
+        }
+
+        @Override
+        public int encodedLength(int byteLength) {
+            return encoding.encodedLength(byteLength);
+        }
     }
 
     /**
@@ -100,14 +183,37 @@ public interface ByteToTextEncoding {
      * Example: <code>b6f3044af5d8c14f447e5ae7f30d9d3a3c</code>
      */
     final class Base16 implements ByteToTextEncoding {
+        private static final BaseEncoding ENCODING = new BaseEncoding(new BaseEncoding.Alphabet(
+                "0123456789abcdef".toCharArray(), true), null);
+
         @Override
         public String encode(byte[] bytes) {
-            return Bytes.wrap(bytes).encodeHex();
+            return ENCODING.encode(bytes);
         }
 
         @Override
         public byte[] decode(CharSequence encoded) {
-            return Bytes.parseHex(encoded).array();
+            return ENCODING.decode(encoded);
+        }
+
+        @Override
+        public int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+            return ENCODING.decodeTo(encoded, start, end, dst, offset);
+        }
+
+        @Override
+        public void encodeTo(byte[] bytes, Appendable target) throws IOException {
+            ENCODING.encodeTo(target, bytes);
+        }
+
+        @Override
+        public int encodeTo(byte[] bytes, char[] dst, int offset) {
+            return ENCODING.encodeTo(bytes, dst, offset);
+        }
+
+        @Override
+        public int encodedLength(int byteLength) {
+            return ENCODING.encodedLength(byteLength);
         }
     }
 
@@ -131,6 +237,7 @@ public interface ByteToTextEncoding {
 
         private final int currentInterval;
         private final String currentSeparator;
+        private final ThreadLocal<UnformattedChars> unformattedBuffers = new ThreadLocal<>();
 
         /**
          * Create new formatter instance with default separator and interval.
@@ -186,7 +293,77 @@ public interface ByteToTextEncoding {
 
         @Override
         public byte[] decode(CharSequence encoded) {
-            return byteToTextEncoding.decode(encoded.toString().replaceAll(Pattern.quote(currentSeparator), ""));
+            char[] unformatted = new char[encoded.length()];
+            return byteToTextEncoding.decode(new String(unformatted, 0, removeSeparators(encoded, 0, encoded.length(), unformatted)));
+        }
+
+        @Override
+        public int decodeTo(CharSequence encoded, int start, int end, byte[] dst, int offset) {
+            if (start < 0 || end > encoded.length() || start > end) {
+                throw new IndexOutOfBoundsException("invalid range " + start + "-" + end + " for length " + encoded.length());
+            }
+            UnformattedChars unformatted = unformattedBuffers.get();
+            if (unformatted == null || unformatted.chars.length < end - start) {
+                unformatted = new UnformattedChars(Math.max(end - start, 64));
+                unformattedBuffers.set(unformatted);
+            }
+            unformatted.length = removeSeparators(encoded, start, end, unformatted.chars);
+            return byteToTextEncoding.decodeTo(unformatted, 0, unformatted.length, dst, offset);
+        }
+
+        private int removeSeparators(CharSequence encoded, int start, int end, char[] dst) {
+            int length = 0;
+            int separatorLength = currentSeparator.length();
+            for (int i = start; i < end; i++) {
+                if (i + separatorLength <= end && regionMatchesSeparator(encoded, i)) {
+                    i += separatorLength - 1;
+                } else {
+                    dst[length++] = encoded.charAt(i);
+                }
+            }
+            return length;
+        }
+
+        private boolean regionMatchesSeparator(CharSequence encoded, int index) {
+            for (int j = 0; j < currentSeparator.length(); j++) {
+                if (encoded.charAt(index + j) != currentSeparator.charAt(j)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void encodeTo(byte[] bytes, Appendable target) throws IOException {
+            target.append(encode(bytes));
+        }
+
+        @Override
+        public int encodeTo(byte[] bytes, char[] dst, int offset) {
+            String formatted = encode(bytes);
+            if (offset < 0 || offset > dst.length - formatted.length()) {
+                throw new IllegalArgumentException("target buffer too small, needs " + formatted.length() + " chars at offset " + offset);
+            }
+            formatted.getChars(0, formatted.length(), dst, offset);
+            return formatted.length();
+        }
+
+        @Override
+        public int encodedLength(int byteLength) {
+            int unformattedLength = byteToTextEncoding.encodedLength(byteLength);
+            if (unformattedLength < currentInterval * 2 - 1) {
+                return unformattedLength;
+            }
+            // same partitioning as in format(): alternating parts of interval and interval + 2 chars
+            int parts = 0;
+            int remainingLength = unformattedLength;
+            boolean even = true;
+            while (remainingLength > 0) {
+                remainingLength -= even ? currentInterval : currentInterval + 2;
+                parts++;
+                even = !even;
+            }
+            return unformattedLength + (parts - 1) * currentSeparator.length();
         }
 
         private String format(String unformatted) {
@@ -218,5 +395,40 @@ public interface ByteToTextEncoding {
                 return sb.toString();
             }
         }
+
+        /**
+         * Reusable per-thread view of the id without separators, so decoding a range does not copy it to a new string
+         */
+        private static final class UnformattedChars implements CharSequence {
+            private final char[] chars;
+            private int length;
+
+            UnformattedChars(int capacity) {
+                this.chars = new char[capacity];
+            }
+
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (index < 0 || index >= length) {
+                    throw new IndexOutOfBoundsException("index " + index + " for length " + length);
+                }
+                return chars[index];
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end) {
+                return toString().subSequence(start, end);
+            }
+
+            @Override
+            public String toString() {
+                return new String(chars, 0, length);
+            }
+        }
     }
 }
@@ -1,7 +1,27 @@
 package at.favre.lib.idmask;
 
 import at.favre.lib.bytes.Bytes;
+import com.google.auto.value.AutoValue;
 import net.markenwerk.utils.lrucache.LruCache;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Cache responsible for caching masked ids
@@ -9,13 +29,30 @@ import net.markenwerk.utils.lrucache.LruCache;
 public interface Cache {
 
     /**
-     * Puts a new id and it's encoded form in the cache.
+     * Puts a new id and it's encoded form in the cache. Same as calling {@link #cacheForEncode(byte[], String)}
+     * and {@link #cacheForDecode(byte[], String)}.
      *
      * @param originalId the id
      * @param encoded    the masked/encoded form of originalId
      */
     void cache(byte[] originalId, String encoded);
 
+    /**
+     * Puts a new id and it's encoded form in the cache, only retrievable with {@link #getEncoded(byte[])}.
+     *
+     * @param originalId the id
+     * @param encoded    the masked/encoded form of originalId
+     */
+    void cacheForEncode(byte[] originalId, String encoded);
+
+    /**
+     * Puts a new id and it's encoded form in the cache, only retrievable with {@link #getBytes(String)}.
+     *
+     * @param originalId the id
+     * @param encoded    the masked/encoded form of originalId
+     */
+    void cacheForDecode(byte[] originalId, String encoded);
+
     /**
      * Retrieve the encoded form of given original id. This is used when encoding/masking.
      *
@@ -37,6 +74,84 @@ public interface Cache {
      */
     void clear();
 
+    /**
+     * Removes only the entries used for masking (see {@link #getEncoded(byte[])}), e.g. after the active key
+     * changed. Entries used for unmasking stay valid as long as their key is known.
+     */
+    void clearEncoded();
+
+    /**
+     * Snapshot of the usage statistics of this cache. Counters are not reset by {@link #clear()}.
+     *
+     * @return current statistics or null if this implementation does not record any
+     */
+    @Nullable
+    Stats stats();
+
+    /**
+     * Immutable snapshot of cache statistics.
+     * <p>
+     * Counters of concurrently used caches are updated without locking, so a snapshot is not guaranteed to be
+     * consistent across fields.
+     */
+    @AutoValue
+    abstract class Stats {
+
+        /**
+         * Create a new snapshot
+         *
+         * @param encodeHitCount    lookups of masked ids that were found (see {@link Cache#getEncoded(byte[])})
+         * @param encodeMissCount   lookups of masked ids that were not found
+         * @param decodeHitCount    lookups of original ids that were found (see {@link Cache#getBytes(String)})
+         * @param decodeMissCount   lookups of original ids that were not found
+         * @param evictionCount     entries removed to make room for new ones (both directions)
+         * @param size              current number of entries (both directions)
+         * @param missLoadTimeNanos time spent masking or unmasking after a cache miss
+         * @return new instance
+         */
+        public static Stats create(long encodeHitCount, long encodeMissCount, long decodeHitCount, long decodeMissCount,
+                                   long evictionCount, long size, long missLoadTimeNanos) {
+            return new AutoValue_Cache_Stats(encodeHitCount, encodeMissCount, decodeHitCount, decodeMissCount,
+                    evictionCount, size, missLoadTimeNanos);
+        }
+
+        public abstract long encodeHitCount();
+
+        public abstract long encodeMissCount();
+
+        public abstract long decodeHitCount();
+
+        public abstract long decodeMissCount();
+
+        public abstract long evictionCount();
+
+        public abstract long size();
+
+        /**
+         * Total time spent creating the value after a cache miss. This is only known to the caller of the cache,
+         * so a cache itself always reports 0 and {@link IdMask#cacheStats()} adds the measured time.
+         *
+         * @return nano seconds
+         */
+        public abstract long missLoadTimeNanos();
+
+        /**
+         * Ratio of hits to all lookups in both directions
+         *
+         * @return between 0 and 1, 1 if there were no lookups
+         */
+        public double hitRate() {
+            long hits = encodeHitCount() + decodeHitCount();
+            long requests = hits + encodeMissCount() + decodeMissCount();
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        Stats withMissLoadTimeNanos(long nanos) {
+            return create(encodeHitCount(), encodeMissCount(), decodeHitCount(), decodeMissCount(),
+                    evictionCount(), size(), nanos);
+        }
+    }
+
     /**
      * Simple In-Memory LRU cache.
      * Per default has {@link #CACHE_SIZE} size for mask &amp; unmask cache.
@@ -48,6 +163,8 @@ public interface Cache {
         private static final int CACHE_SIZE = 256;
         private final LruCache<CharSequence, String> lruCacheEncode;
         private final LruCache<CharSequence, byte[]> lruCacheDecode;
+        private final int size;
+        private final CacheStatsCounter stats = new CacheStatsCounter();
 
         public SimpleLruMemCache() {
             this(CACHE_SIZE);
@@ -56,22 +173,33 @@ public interface Cache {
         public SimpleLruMemCache(int size) {
             lruCacheEncode = new LruCache<>(size);
             lruCacheDecode = new LruCache<>(size);
+            this.size = size;
         }
 
         @Override
         public void cache(byte[] originalId, String encoded) {
-            lruCacheEncode.put(Bytes.wrap(originalId).hashSha256().encodeBase64(), encoded);
-            lruCacheDecode.put(encoded, originalId);
+            cacheForEncode(originalId, encoded);
+            cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            put(lruCacheEncode, Bytes.wrap(originalId).hashSha256().encodeBase64(), encoded);
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            put(lruCacheDecode, encoded, originalId);
         }
 
         @Override
         public String getEncoded(byte[] originalId) {
-            return lruCacheEncode.get(Bytes.wrap(originalId).hashSha256().encodeBase64());
+            return stats.recordEncode(lruCacheEncode.get(Bytes.wrap(originalId).hashSha256().encodeBase64()));
         }
 
         @Override
         public byte[] getBytes(String encoded) {
-            return lruCacheDecode.get(encoded);
+            return stats.recordDecode(lruCacheDecode.get(encoded));
         }
 
         @Override
@@ -79,5 +207,1551 @@ public interface Cache {
             lruCacheDecode.clear();
             lruCacheEncode.clear();
         }
+
+        @Override
+        public void clearEncoded() {
+            lruCacheEncode.clear();
+        }
+
+        @Override
+        public Stats stats() {
+            return stats.snapshot(lruCacheEncode.size() + lruCacheDecode.size());
+        }
+
+        private <V> void put(LruCache<CharSequence, V> cache, CharSequence key, V value) {
+            boolean full = cache.size() >= size;
+            if (cache.put(key, value) == null && full) {
+                stats.recordEviction();
+            }
+        }
+    }
+
+    /**
+     * Lock-free in-memory cache keyed directly by the raw id instead of a hash string.
+     * <p>
+     * 8 byte ids are keyed by a single <code>long</code>, 16 byte ids (e.g. UUIDs) by two <code>long</code>s,
+     * so a lookup needs neither a cryptographic hash nor a temporary key object. Masked ids are keyed by their
+     * (internally cached) {@link String#hashCode()}.
+     * <p>
+     * Both directions are stored in open-addressed tables with a short, bounded probe sequence. Slots hold
+     * immutable entries, so readers never lock; if all probed slots are taken, the slot at the home position
+     * is overwritten. Per default has {@link #CACHE_SIZE} slots per direction.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class PrimitiveKeyMemCache implements Cache {
+        private static final int CACHE_SIZE = 256;
+        private static final int MAX_PROBES = 4;
+
+        private final AtomicReferenceArray<Entry> encodeTable;
+        private final AtomicReferenceArray<Entry> decodeTable;
+        private final int mask;
+        private final CacheStatsCounter stats = new CacheStatsCounter();
+
+        public PrimitiveKeyMemCache() {
+            this(CACHE_SIZE);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param size slots per direction, will be rounded up to the next power of 2
+         */
+        public PrimitiveKeyMemCache(int size) {
+            if (size < 1 || size > 1 << 30) {
+                throw new IllegalArgumentException("size must be between 1 and 2^30");
+            }
+            int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+            this.encodeTable = new AtomicReferenceArray<>(capacity);
+            this.decodeTable = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            Entry entry = new Entry(Arrays.copyOf(originalId, originalId.length), encoded);
+            put(encodeTable, entry.idHash, entry, true);
+            put(decodeTable, spread(encoded.hashCode()), entry, false);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            Entry entry = new Entry(Arrays.copyOf(originalId, originalId.length), encoded);
+            put(encodeTable, entry.idHash, entry, true);
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            Entry entry = new Entry(Arrays.copyOf(originalId, originalId.length), encoded);
+            put(decodeTable, spread(encoded.hashCode()), entry, false);
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            return stats.recordEncode(lookupEncoded(originalId));
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            return stats.recordDecode(lookupBytes(encoded));
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i <= mask; i++) {
+                encodeTable.set(i, null);
+                decodeTable.set(i, null);
+            }
+        }
+
+        @Override
+        public void clearEncoded() {
+            for (int i = 0; i <= mask; i++) {
+                encodeTable.set(i, null);
+            }
+        }
+
+        @Override
+        public Stats stats() {
+            int size = 0;
+            for (int i = 0; i <= mask; i++) {
+                size += (encodeTable.get(i) != null ? 1 : 0) + (decodeTable.get(i) != null ? 1 : 0);
+            }
+            return stats.snapshot(size);
+        }
+
+        private String lookupEncoded(byte[] originalId) {
+            final long k1 = longAt(originalId, 0);
+            final long k2 = longAt(originalId, 8);
+            final int hash = idHash(originalId, k1, k2);
+            for (int i = 0; i < MAX_PROBES; i++) {
+                Entry entry = encodeTable.get((hash + i) & mask);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.hasId(originalId, k1, k2)) {
+                    return entry.encoded;
+                }
+            }
+            return null;
+        }
+
+        private byte[] lookupBytes(String encoded) {
+            final int hash = spread(encoded.hashCode());
+            for (int i = 0; i < MAX_PROBES; i++) {
+                Entry entry = decodeTable.get((hash + i) & mask);
+                if (entry == null) {
+                    return null;
+                }
+                if (entry.encoded.equals(encoded)) {
+                    return entry.id;
+                }
+            }
+            return null;
+        }
+
+        private void put(AtomicReferenceArray<Entry> table, int hash, Entry entry, boolean byId) {
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int index = (hash + i) & mask;
+                Entry current = table.get(index);
+                if (current == null || (byId ? current.hasId(entry.id, entry.k1, entry.k2) : current.encoded.equals(entry.encoded))) {
+                    table.set(index, entry);
+                    return;
+                }
+            }
+            table.set(hash & mask, entry);
+            stats.recordEviction();
+        }
+
+        private static int idHash(byte[] id, long k1, long k2) {
+            if (id.length > 16) {
+                return spread(Arrays.hashCode(id));
+            }
+            long h = (k1 * 0x9E3779B97F4A7C15L) ^ (k2 * 0xC2B2AE3D27D4EB4FL) ^ id.length;
+            return spread((int) (h ^ (h >>> 32)));
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
+
+        /**
+         * Reads up to 8 bytes big endian starting at offset; missing bytes count as zero
+         */
+        private static long longAt(byte[] id, int offset) {
+            long value = 0;
+            int end = Math.min(id.length, offset + 8);
+            for (int i = offset; i < end; i++) {
+                value = (value << 8) | (id[i] & 0xFF);
+            }
+            return value;
+        }
+
+        private static final class Entry {
+            private final long k1;
+            private final long k2;
+            private final int idHash;
+            private final byte[] id;
+            private final String encoded;
+
+            Entry(byte[] id, String encoded) {
+                this.k1 = longAt(id, 0);
+                this.k2 = longAt(id, 8);
+                this.idHash = idHash(id, k1, k2);
+                this.id = id;
+                this.encoded = encoded;
+            }
+
+            boolean hasId(byte[] other, long otherK1, long otherK2) {
+                return k1 == otherK1 && k2 == otherK2 && id.length == other.length
+                        && (id.length <= 16 || Arrays.equals(id, other));
+            }
+        }
+    }
+
+    /**
+     * Concurrent in-memory cache with CLOCK (second chance) eviction, an approximation of LRU.
+     * <p>
+     * Each direction (mask and unmask) is split into lock-striped segments. A lookup is a lock-free
+     * {@link ConcurrentHashMap} read which only sets the entry's reference bit, so unlike an access-ordered
+     * LRU, hits do not reorder (or lock) anything. Only inserting takes the lock of a single segment, which then
+     * advances the clock hand over its ring of entries and evicts the first one not referenced since the last pass.
+     * <p>
+     * Per default has {@link #CACHE_SIZE} entries per direction in {@link #SEGMENT_COUNT} segments.
+     * <p>
+     * Optionally supports TinyLFU style frequency admission: every lookup is recorded in a compact per segment
+     * frequency sketch and a new entry only replaces the clock victim if it was requested more often. This keeps
+     * one-hit-wonders and long scans over cold ids from flushing the frequently used entries.
+     * <p>
+     * See: https://en.wikipedia.org/wiki/Page_replacement_algorithm#Clock
+     * See: https://arxiv.org/abs/1512.00727
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class ConcurrentClockMemCache implements Cache {
+        private static final int CACHE_SIZE = 1024;
+        private static final int SEGMENT_COUNT = 16;
+
+        private final Segment<IdKey, String>[] encodeSegments;
+        private final Segment<String, byte[]>[] decodeSegments;
+        private final int segmentMask;
+        private final CacheStatsCounter stats = new CacheStatsCounter();
+
+        public ConcurrentClockMemCache() {
+            this(CACHE_SIZE, SEGMENT_COUNT);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param size         max entries per direction
+         * @param segmentCount number of independently locked segments, will be rounded up to the next power of 2
+         */
+        @SuppressWarnings("unchecked")
+        public ConcurrentClockMemCache(int size, int segmentCount) {
+            this(size, segmentCount, false);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param size               max entries per direction
+         * @param segmentCount       number of independently locked segments, will be rounded up to the next power of 2
+         * @param frequencyAdmission if true, a new entry is only admitted if its estimated access frequency is
+         *                           higher than the one of the entry it would evict (TinyLFU)
+         */
+        @SuppressWarnings("unchecked")
+        public ConcurrentClockMemCache(int size, int segmentCount, boolean frequencyAdmission) {
+            if (size < 1 || segmentCount < 1 || segmentCount > 1 << 16) {
+                throw new IllegalArgumentException("size must be positive and segment count between 1 and 2^16");
+            }
+            int segments = Integer.highestOneBit(segmentCount) == segmentCount ? segmentCount : Integer.highestOneBit(segmentCount) << 1;
+            segments = Math.min(segments, Integer.highestOneBit(size));
+            int segmentCapacity = (size + segments - 1) / segments;
+
+            this.encodeSegments = (Segment<IdKey, String>[]) new Segment<?, ?>[segments];
+            this.decodeSegments = (Segment<String, byte[]>[]) new Segment<?, ?>[segments];
+            for (int i = 0; i < segments; i++) {
+                encodeSegments[i] = new Segment<>(segmentCapacity, frequencyAdmission, stats);
+                decodeSegments[i] = new Segment<>(segmentCapacity, frequencyAdmission, stats);
+            }
+            this.segmentMask = segments - 1;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            IdKey key = new IdKey(Arrays.copyOf(originalId, originalId.length));
+            encodeSegments[segment(key.hashCode())].put(key, encoded);
+            decodeSegments[segment(encoded.hashCode())].put(encoded, key.id);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            IdKey key = new IdKey(Arrays.copyOf(originalId, originalId.length));
+            encodeSegments[segment(key.hashCode())].put(key, encoded);
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            decodeSegments[segment(encoded.hashCode())].put(encoded, Arrays.copyOf(originalId, originalId.length));
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            IdKey key = new IdKey(originalId);
+            return stats.recordEncode(encodeSegments[segment(key.hashCode())].get(key));
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            return stats.recordDecode(decodeSegments[segment(encoded.hashCode())].get(encoded));
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i <= segmentMask; i++) {
+                encodeSegments[i].clear();
+                decodeSegments[i].clear();
+            }
+        }
+
+        @Override
+        public void clearEncoded() {
+            for (int i = 0; i <= segmentMask; i++) {
+                encodeSegments[i].clear();
+            }
+        }
+
+        @Override
+        public Stats stats() {
+            long size = 0;
+            for (int i = 0; i <= segmentMask; i++) {
+                size += encodeSegments[i].size() + decodeSegments[i].size();
+            }
+            return stats.snapshot(size);
+        }
+
+        private int segment(int hash) {
+            // use high bits, the hash map of the segment uses the low bits
+            hash *= 0x9E3779B9;
+            return (hash >>> 16) & segmentMask;
+        }
+
+        /**
+         * Id wrapper with content based equals and hash code
+         */
+        private static final class IdKey {
+            private final byte[] id;
+            private final int hash;
+
+            IdKey(byte[] id) {
+                this.id = id;
+                this.hash = Arrays.hashCode(id);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return this == o || (o instanceof IdKey && hash == ((IdKey) o).hash && Arrays.equals(id, ((IdKey) o).id));
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+
+        private static final class Node<K, V> {
+            private final K key;
+            private final V value;
+            /**
+             * Index in the ring, so replacing an entry does not need to search it
+             */
+            private final int slot;
+            /**
+             * Set on every hit and cleared by the clock hand; races are benign as it is only a hint
+             */
+            private volatile boolean referenced;
+
+            Node(K key, V value, int slot) {
+                this.key = key;
+                this.value = value;
+                this.slot = slot;
+            }
+        }
+
+        private static final class Segment<K, V> {
+            private final ConcurrentHashMap<K, Node<K, V>> map;
+            private final Node<K, V>[] ring;
+            /**
+             * Null if frequency admission is disabled
+             */
+            private final FrequencySketch sketch;
+            private final CacheStatsCounter stats;
+            private int size;
+            private int hand;
+
+            @SuppressWarnings("unchecked")
+            Segment(int capacity, boolean frequencyAdmission, CacheStatsCounter stats) {
+                this.map = new ConcurrentHashMap<>(capacity * 2);
+                this.ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+                this.sketch = frequencyAdmission ? new FrequencySketch(capacity) : null;
+                this.stats = stats;
+            }
+
+            V get(K key) {
+                if (sketch != null) {
+                    sketch.increment(key.hashCode());
+                }
+                Node<K, V> node = map.get(key);
+                if (node == null) {
+                    return null;
+                }
+                if (!node.referenced) {
+                    // avoid writing (and invalidating the cache line) on every hit of hot entries
+                    node.referenced = true;
+                }
+                return node.value;
+            }
+
+            synchronized void put(K key, V value) {
+                Node<K, V> existing = map.get(key);
+                if (existing != null) {
+                    insert(new Node<>(key, value, existing.slot));
+                    return;
+                }
+
+                if (size < ring.length) {
+                    insert(new Node<>(key, value, size++));
+                    return;
+                }
+
+                while (ring[hand].referenced) {
+                    ring[hand].referenced = false;
+                    hand = (hand + 1) % ring.length;
+                }
+                if (sketch != null && sketch.frequency(key.hashCode()) <= sketch.frequency(ring[hand].key.hashCode())) {
+                    // candidate is not more popular than the victim, keep the victim where the hand points to
+                    return;
+                }
+                map.remove(ring[hand].key);
+                stats.recordEviction();
+                insert(new Node<>(key, value, hand));
+                hand = (hand + 1) % ring.length;
+            }
+
+            private void insert(Node<K, V> node) {
+                map.put(node.key, node);
+                ring[node.slot] = node;
+            }
+
+            synchronized int size() {
+                return size;
+            }
+
+            synchronized void clear() {
+                map.clear();
+                Arrays.fill(ring, null);
+                size = 0;
+                hand = 0;
+            }
+        }
+    }
+
+    /**
+     * Cache which stores its entries outside of the Java heap in direct {@link ByteBuffer}s, meant for caching
+     * millions of ids without increasing GC pressure and old-gen size.
+     * <p>
+     * Each direction (mask and unmask) is split into lock-striped segments, each consisting of a slab of fixed-width
+     * slots (hash, lengths, reference bit, id of up to 16 bytes and an ASCII masked id of up to
+     * <code>maxEncodedLength</code> chars) and an open-addressed hash index of slot numbers, also off-heap. If a
+     * segment is full, the slot to reuse is chosen with CLOCK (second chance) eviction. Only the lookup results
+     * (masked id <code>String</code> or id <code>byte[]</code>) are allocated on the heap.
+     * <p>
+     * All memory is allocated on creation (see {@link #offHeapBytes()}) and counts against
+     * <code>-XX:MaxDirectMemorySize</code>. Ids longer than 16 bytes, masked ids longer than
+     * <code>maxEncodedLength</code> or containing non-ASCII chars are not cached.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class OffHeapMemCache implements Cache {
+        private static final int CACHE_SIZE = 1 << 16;
+        private static final int MAX_ENCODED_LENGTH = 48;
+        private static final int SEGMENT_COUNT = 16;
+
+        private final OffHeapSegment[] encodeSegments;
+        private final OffHeapSegment[] decodeSegments;
+        private final int segmentMask;
+        private final int segmentShift;
+        private final int maxEncodedLength;
+        private final CacheStatsCounter stats = new CacheStatsCounter();
+
+        public OffHeapMemCache() {
+            this(CACHE_SIZE);
+        }
+
+        /**
+         * Create new cache for masked ids of up to 48 chars
+         *
+         * @param size max entries per direction
+         */
+        public OffHeapMemCache(int size) {
+            this(size, MAX_ENCODED_LENGTH, SEGMENT_COUNT);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param size             max entries per direction
+         * @param maxEncodedLength max length of a cached masked id, see {@link IdMask#maskedLength()}
+         * @param segmentCount     number of independently locked segments, will be rounded up to the next power of 2
+         */
+        public OffHeapMemCache(int size, int maxEncodedLength, int segmentCount) {
+            if (size < 1 || maxEncodedLength < 1 || maxEncodedLength > 255 || segmentCount < 1 || segmentCount > 1 << 16) {
+                throw new IllegalArgumentException("size must be positive, max encoded length between 1 and 255 and segment count between 1 and 2^16");
+            }
+            int segments = Integer.highestOneBit(segmentCount) == segmentCount ? segmentCount : Integer.highestOneBit(segmentCount) << 1;
+            segments = Math.min(segments, Integer.highestOneBit(size));
+            int segmentCapacity = (size + segments - 1) / segments;
+            if ((long) segmentCapacity * (OffHeapSegment.ENCODED_OFFSET + maxEncodedLength + 7) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("segments must not be larger than 2GB, use more segments");
+            }
+
+            this.encodeSegments = new OffHeapSegment[segments];
+            this.decodeSegments = new OffHeapSegment[segments];
+            for (int i = 0; i < segments; i++) {
+                encodeSegments[i] = new OffHeapSegment(segmentCapacity, maxEncodedLength, true, stats);
+                decodeSegments[i] = new OffHeapSegment(segmentCapacity, maxEncodedLength, false, stats);
+            }
+            this.segmentMask = segments - 1;
+            this.segmentShift = 32 - Integer.numberOfTrailingZeros(segments);
+            this.maxEncodedLength = maxEncodedLength;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            cacheForEncode(originalId, encoded);
+            cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            if (fits(originalId, encoded)) {
+                int hash = OffHeapSegment.hash(originalId);
+                encodeSegments[segment(hash)].put(hash, originalId, encoded);
+            }
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            if (fits(originalId, encoded)) {
+                int hash = OffHeapSegment.hash(encoded);
+                decodeSegments[segment(hash)].put(hash, originalId, encoded);
+            }
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            if (originalId.length > OffHeapSegment.MAX_ID_LENGTH) {
+                return stats.recordEncode(null);
+            }
+            int hash = OffHeapSegment.hash(originalId);
+            return stats.recordEncode(encodeSegments[segment(hash)].getEncoded(hash, originalId));
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            if (encoded.length() > maxEncodedLength) {
+                return stats.recordDecode(null);
+            }
+            int hash = OffHeapSegment.hash(encoded);
+            return stats.recordDecode(decodeSegments[segment(hash)].getBytes(hash, encoded));
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i <= segmentMask; i++) {
+                encodeSegments[i].clear();
+                decodeSegments[i].clear();
+            }
+        }
+
+        @Override
+        public void clearEncoded() {
+            for (int i = 0; i <= segmentMask; i++) {
+                encodeSegments[i].clear();
+            }
+        }
+
+        @Override
+        public Stats stats() {
+            long size = 0;
+            for (int i = 0; i <= segmentMask; i++) {
+                size += encodeSegments[i].size() + decodeSegments[i].size();
+            }
+            return stats.snapshot(size);
+        }
+
+        /**
+         * Direct memory allocated by this cache
+         *
+         * @return size in bytes
+         */
+        public long offHeapBytes() {
+            long bytes = 0;
+            for (int i = 0; i <= segmentMask; i++) {
+                bytes += encodeSegments[i].capacityBytes() + decodeSegments[i].capacityBytes();
+            }
+            return bytes;
+        }
+
+        private boolean fits(byte[] originalId, String encoded) {
+            if (originalId.length > OffHeapSegment.MAX_ID_LENGTH || encoded.length() > maxEncodedLength) {
+                return false;
+            }
+            for (int i = 0; i < encoded.length(); i++) {
+                if (encoded.charAt(i) > 0x7F) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int segment(int hash) {
+            // use the highest bits, the index of the segment uses the low bits
+            return (int) ((hash & 0xFFFFFFFFL) >>> segmentShift);
+        }
+
+        /**
+         * Slab of fixed-width slots plus hash index, keyed either by id or by masked id.
+         * <p>
+         * Slot layout: hash (4), id length (1), masked id length (1), reference bit (1), unused (1),
+         * id (16), masked id (maxEncodedLength), padded to 8 bytes.
+         */
+        private static final class OffHeapSegment {
+            static final int MAX_ID_LENGTH = 16;
+            private static final int HASH_OFFSET = 0;
+            private static final int ID_LENGTH_OFFSET = 4;
+            private static final int ENCODED_LENGTH_OFFSET = 5;
+            private static final int REFERENCED_OFFSET = 6;
+            private static final int ID_OFFSET = 8;
+            static final int ENCODED_OFFSET = ID_OFFSET + MAX_ID_LENGTH;
+
+            private final ByteBuffer slots;
+            /**
+             * Slot number + 1 per bucket, 0 if empty
+             */
+            private final IntBuffer index;
+            private final int indexMask;
+            private final int slotSize;
+            private final int capacity;
+            private final boolean keyedById;
+            private final CacheStatsCounter stats;
+            private int size;
+            private int hand;
+
+            OffHeapSegment(int capacity, int maxEncodedLength, boolean keyedById, CacheStatsCounter stats) {
+                this.slotSize = (ENCODED_OFFSET + maxEncodedLength + 7) & ~7;
+                this.capacity = capacity;
+                this.slots = ByteBuffer.allocateDirect(capacity * slotSize);
+                int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+                this.index = ByteBuffer.allocateDirect(indexSize * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+                this.indexMask = indexSize - 1;
+                this.keyedById = keyedById;
+                this.stats = stats;
+            }
+
+            synchronized String getEncoded(int hash, byte[] id) {
+                int slot = find(hash, id, null);
+                if (slot < 0) {
+                    return null;
+                }
+                int offset = markReferenced(slot);
+                char[] chars = new char[slots.get(offset + ENCODED_LENGTH_OFFSET) & 0xFF];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char) slots.get(offset + ENCODED_OFFSET + i);
+                }
+                return new String(chars);
+            }
+
+            synchronized byte[] getBytes(int hash, String encoded) {
+                int slot = find(hash, null, encoded);
+                if (slot < 0) {
+                    return null;
+                }
+                int offset = markReferenced(slot);
+                byte[] id = new byte[slots.get(offset + ID_LENGTH_OFFSET)];
+                for (int i = 0; i < id.length; i++) {
+                    id[i] = slots.get(offset + ID_OFFSET + i);
+                }
+                return id;
+            }
+
+            synchronized void put(int hash, byte[] id, String encoded) {
+                int slot = keyedById ? find(hash, id, null) : find(hash, null, encoded);
+                if (slot >= 0) {
+                    write(slot, hash, id, encoded);
+                    return;
+                }
+
+                if (size < capacity) {
+                    slot = size++;
+                } else {
+                    while (slots.get(hand * slotSize + REFERENCED_OFFSET) != 0) {
+                        slots.put(hand * slotSize + REFERENCED_OFFSET, (byte) 0);
+                        hand = (hand + 1) % capacity;
+                    }
+                    slot = hand;
+                    hand = (hand + 1) % capacity;
+                    removeFromIndex(slot);
+                    stats.recordEviction();
+                }
+                write(slot, hash, id, encoded);
+                int bucket = hash & indexMask;
+                while (index.get(bucket) != 0) {
+                    bucket = (bucket + 1) & indexMask;
+                }
+                index.put(bucket, slot + 1);
+            }
+
+            synchronized int size() {
+                return size;
+            }
+
+            synchronized void clear() {
+                for (int i = 0; i <= indexMask; i++) {
+                    index.put(i, 0);
+                }
+                size = 0;
+                hand = 0;
+            }
+
+            long capacityBytes() {
+                return slots.capacity() + (indexMask + 1) * 4L;
+            }
+
+            private int find(int hash, byte[] id, String encoded) {
+                for (int bucket = hash & indexMask; ; bucket = (bucket + 1) & indexMask) {
+                    int slot = index.get(bucket) - 1;
+                    if (slot < 0) {
+                        return -1;
+                    }
+                    int offset = slot * slotSize;
+                    if (slots.getInt(offset + HASH_OFFSET) == hash
+                            && (id != null ? idEquals(offset, id) : encodedEquals(offset, encoded))) {
+                        return slot;
+                    }
+                }
+            }
+
+            private boolean idEquals(int offset, byte[] id) {
+                if (slots.get(offset + ID_LENGTH_OFFSET) != id.length) {
+                    return false;
+                }
+                for (int i = 0; i < id.length; i++) {
+                    if (slots.get(offset + ID_OFFSET + i) != id[i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private boolean encodedEquals(int offset, String encoded) {
+                if ((slots.get(offset + ENCODED_LENGTH_OFFSET) & 0xFF) != encoded.length()) {
+                    return false;
+                }
+                for (int i = 0; i < encoded.length(); i++) {
+                    if (slots.get(offset + ENCODED_OFFSET + i) != encoded.charAt(i)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            private int markReferenced(int slot) {
+                int offset = slot * slotSize;
+                if (slots.get(offset + REFERENCED_OFFSET) == 0) {
+                    slots.put(offset + REFERENCED_OFFSET, (byte) 1);
+                }
+                return offset;
+            }
+
+            private void write(int slot, int hash, byte[] id, String encoded) {
+                int offset = slot * slotSize;
+                slots.putInt(offset + HASH_OFFSET, hash);
+                slots.put(offset + ID_LENGTH_OFFSET, (byte) id.length);
+                slots.put(offset + ENCODED_LENGTH_OFFSET, (byte) encoded.length());
+                slots.put(offset + REFERENCED_OFFSET, (byte) 0);
+                for (int i = 0; i < id.length; i++) {
+                    slots.put(offset + ID_OFFSET + i, id[i]);
+                }
+                for (int i = 0; i < encoded.length(); i++) {
+                    slots.put(offset + ENCODED_OFFSET + i, (byte) encoded.charAt(i));
+                }
+            }
+
+            /**
+             * Removes the bucket pointing to given slot and shifts following entries of the probe sequence back,
+             * so lookups never stop at a gap (no tombstones needed)
+             */
+            private void removeFromIndex(int slot) {
+                int hole = slots.getInt(slot * slotSize + HASH_OFFSET) & indexMask;
+                while (index.get(hole) != slot + 1) {
+                    hole = (hole + 1) & indexMask;
+                }
+                for (int bucket = (hole + 1) & indexMask; index.get(bucket) != 0; bucket = (bucket + 1) & indexMask) {
+                    int candidate = index.get(bucket) - 1;
+                    int home = slots.getInt(candidate * slotSize + HASH_OFFSET) & indexMask;
+                    // move back if its home is not in the (cyclic) range between hole and bucket
+                    if (((bucket - home) & indexMask) >= ((bucket - hole) & indexMask)) {
+                        index.put(hole, candidate + 1);
+                        hole = bucket;
+                    }
+                }
+                index.put(hole, 0);
+            }
+
+            static int hash(byte[] id) {
+                return spread(Arrays.hashCode(id));
+            }
+
+            static int hash(String encoded) {
+                return spread(encoded.hashCode());
+            }
+
+            private static int spread(int h) {
+                h *= 0x9E3779B9;
+                return h ^ (h >>> 15);
+            }
+        }
+    }
+
+    /**
+     * Read-only, memory-mapped table of precomputed masked ids for a dense range of <code>long</code> ids, for
+     * deterministic ids only. Since a masked id only depends on the key and the id, the table can be generated once
+     * with {@link #generate(Path, Config, long, int)} (e.g. while building or deploying) and reused after restarts,
+     * so there is no cold cache after startup.
+     * <p>
+     * File layout: 64 byte header (magic, format version, key id, masked id length, first id, count) followed by
+     * <code>count</code> fixed-width ASCII masked ids. The table is only used if it matches the given config: same
+     * active key id and masked id length, deterministic ids and a few probe entries equal to freshly masked ids. A
+     * missing or stale table is ignored (see {@link #isActive()}). {@link #clear()} and {@link #clearEncoded()} (e.g.
+     * after a key rotation) deactivate the table for the lifetime of this instance.
+     * <p>
+     * Lookups of ids in the range are served from the mapped file without locking. Everything else (other ids and
+     * types, the unmask direction and all writes) is passed to the delegate cache. The file must be trusted like
+     * the configuration; entries are not authenticated individually.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class PrecomputedMaskTable implements Cache {
+        private static final int MAGIC = 0x49444D54;
+        private static final byte FORMAT_VERSION = 1;
+        private static final int HEADER_LENGTH = 64;
+        private static final int GENERATE_BATCH_SIZE = 4096;
+
+        private final Cache delegate;
+        /**
+         * Null if the table is stale or was cleared
+         */
+        private volatile MappedByteBuffer table;
+        private final long firstId;
+        private final int count;
+        private final int maskedLength;
+        private final StripedCounter tableHits = new StripedCounter();
+
+        /**
+         * Open a table
+         *
+         * @param file     generated with {@link #generate(Path, Config, long, int)}, may not exist
+         * @param config   the config the {@link IdMask} will use
+         * @param delegate used for everything the table does not contain
+         * @throws IOException if the file exists, but cannot be read
+         */
+        public PrecomputedMaskTable(Path file, Config config, Cache delegate) throws IOException {
+            this.delegate = Objects.requireNonNull(delegate, "delegate");
+            MappedByteBuffer mapped = null;
+            long first = 0;
+            int entries = 0;
+            IdMaskEngine engine = deterministicEngine(config);
+            int length = engine.maskedLength();
+
+            if (!config.randomizedIds() && Files.isRegularFile(file)) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    if (channel.size() >= HEADER_LENGTH) {
+                        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                        while (header.hasRemaining() && channel.read(header) >= 0) {
+                            // read full header
+                        }
+                        header.flip();
+                        first = header.getLong(8);
+                        entries = header.getInt(16);
+                        if (header.getInt(0) == MAGIC && header.get(4) == FORMAT_VERSION
+                                && header.get(5) == config.keyManager().getActiveKeyId()
+                                && header.getShort(6) == length && entries > 0
+                                && channel.size() == HEADER_LENGTH + (long) entries * length) {
+                            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                        }
+                    }
+                }
+            }
+
+            this.maskedLength = length;
+            this.firstId = first;
+            this.count = entries;
+            this.table = mapped != null && probe(mapped, engine, first, entries, length) ? mapped : null;
+        }
+
+        /**
+         * Precompute the masked ids of <code>count</code> consecutive ids starting with <code>firstId</code> and
+         * write them to given file. The file is replaced atomically, so running instances never see a partial table.
+         *
+         * @param file    to write to
+         * @param config  the config the {@link IdMask} will use, must create deterministic ids
+         * @param firstId first id of the range
+         * @param count   number of ids
+         * @throws IOException if the file cannot be written
+         */
+        public static void generate(Path file, Config config, long firstId, int count) throws IOException {
+            if (config.randomizedIds()) {
+                throw new IllegalArgumentException("only deterministic ids can be precomputed");
+            }
+            IdMaskEngine engine = deterministicEngine(config);
+            int length = engine.maskedLength();
+            if (count < 1 || HEADER_LENGTH + (long) count * length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("count must be positive and the table smaller than 2GB");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).put(FORMAT_VERSION).put((byte) config.keyManager().getActiveKeyId())
+                    .putShort((short) length).putLong(firstId).putInt(count);
+            header.clear();
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer chunk = ByteBuffer.allocate(GENERATE_BATCH_SIZE * length);
+                byte[][] ids = new byte[GENERATE_BATCH_SIZE][];
+                for (int start = 0; start < count; start += GENERATE_BATCH_SIZE) {
+                    int batch = Math.min(GENERATE_BATCH_SIZE, count - start);
+                    if (batch != ids.length) {
+                        ids = new byte[batch][];
+                    }
+                    for (int i = 0; i < batch; i++) {
+                        ids[i] = idBytes(firstId + start + i);
+                    }
+                    chunk.clear();
+                    for (CharSequence masked : engine.maskAll(ids)) {
+                        for (int i = 0; i < length; i++) {
+                            char c = masked.charAt(i);
+                            if (c > 0x7F) {
+                                throw new IllegalArgumentException("only ascii encodings are supported");
+                            }
+                            chunk.put((byte) c);
+                        }
+                    }
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * If the table matches the config and is used for lookups
+         *
+         * @return true if active
+         */
+        public boolean isActive() {
+            return table != null;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            delegate.cache(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            delegate.cacheForEncode(originalId, encoded);
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            delegate.cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            MappedByteBuffer mapped = table;
+            if (mapped != null && originalId.length == 8) {
+                long index = idValue(originalId) - firstId;
+                if (index >= 0 && index < count) {
+                    tableHits.increment();
+                    return read(mapped, (int) index);
+                }
+            }
+            return delegate.getEncoded(originalId);
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            return delegate.getBytes(encoded);
+        }
+
+        @Override
+        public void clear() {
+            table = null;
+            delegate.clear();
+        }
+
+        @Override
+        public void clearEncoded() {
+            table = null;
+            delegate.clearEncoded();
+        }
+
+        @Override
+        public Stats stats() {
+            Stats stats = delegate.stats();
+            if (stats == null) {
+                return null;
+            }
+            return Stats.create(stats.encodeHitCount() + tableHits.sum(), stats.encodeMissCount(), stats.decodeHitCount(),
+                    stats.decodeMissCount(), stats.evictionCount(), stats.size() + (table != null ? count : 0), stats.missLoadTimeNanos());
+        }
+
+        private String read(MappedByteBuffer mapped, int index) {
+            int offset = HEADER_LENGTH + index * maskedLength;
+            char[] chars = new char[maskedLength];
+            for (int i = 0; i < maskedLength; i++) {
+                chars[i] = (char) mapped.get(offset + i);
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Compares the first, middle and last entry with freshly masked ids, so a table created with a different
+         * key, encoding or engine version is not used.
+         */
+        private static boolean probe(MappedByteBuffer mapped, IdMaskEngine engine, long firstId, int count, int length) {
+            for (int index : new int[]{0, count / 2, count - 1}) {
+                CharSequence expected = engine.mask(idBytes(firstId + index));
+                int offset = HEADER_LENGTH + index * length;
+                for (int i = 0; i < length; i++) {
+                    if (mapped.get(offset + i) != expected.charAt(i)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private static IdMaskEngine deterministicEngine(Config config) {
+            return new IdMaskEngine.EightByteEncryptionEngine(config.keyManager(), config.securityProvider(),
+                    config.secureRandom(), config.encoding(), false, config.autoWipeMemory());
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Same byte representation as used by {@link IdMask.LongIdMask}
+         */
+        private static byte[] idBytes(long id) {
+            return ByteBuffer.allocate(8).putLong(id).array();
+        }
+
+        private static long idValue(byte[] id) {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (id[i] & 0xFF);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * LRU cache limited by an (estimated) memory budget in bytes instead of an entry count, so the same
+     * configuration fits small and large heaps. Every entry is weighed by the footprint of its objects (map entry,
+     * copied id, masked id <code>String</code>) on a 64 bit JVM with compressed oops; if the budget is exceeded
+     * the least recently used entries of the direction (mask or unmask) using more memory are evicted.
+     * <p>
+     * If the JVM reports heap pressure (heap usage after a garbage collection above the collection usage threshold
+     * of a heap pool, see {@link java.lang.management.MemoryPoolMXBean}), the budget is halved (down to
+     * {@link #MIN_BUDGET}) and entries are evicted immediately. Without further pressure it doubles again, at most
+     * once every {@link #RECOVERY_INTERVAL_NANOS}, up to the configured budget. These thresholds are JVM wide and
+     * not set by default; set them yourself or with {@link #initHeapUsageThresholds(double)}. Without thresholds,
+     * or on platforms without <code>java.lang.management</code> (e.g. Android), the budget stays fixed.
+     * <p>
+     * Use {@link #currentBudgetBytes()} and {@link #usedBytes()} to observe its current size.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class MemoryBudgetCache implements Cache {
+        static final long MIN_BUDGET = 64 * 1024;
+        static final long RECOVERY_INTERVAL_NANOS = 60_000_000_000L;
+        private static final long DEFAULT_BUDGET = 4 * 1024 * 1024;
+        /**
+         * Linked hash map entry (40 bytes) and its share of the bucket array
+         */
+        private static final int MAP_ENTRY_BYTES = 48;
+        /**
+         * Header, array reference and hash of {@link IdKey}
+         */
+        private static final int ID_KEY_BYTES = 24;
+        /**
+         * Header, array reference and hash of a String
+         */
+        private static final int STRING_BYTES = 24;
+
+        private final LinkedHashMap<IdKey, String> encodeMap = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<String, byte[]> decodeMap = new LinkedHashMap<>(16, 0.75f, true);
+        private final CacheStatsCounter stats = new CacheStatsCounter();
+        private final long budget;
+        @Nullable
+        private final HeapPressureMonitor monitor;
+        private long currentBudget;
+        private long encodeBytes;
+        private long decodeBytes;
+        private long lastBudgetChangeNanos;
+
+        /**
+         * Create new cache with a budget of 4 MB
+         */
+        public MemoryBudgetCache() {
+            this(DEFAULT_BUDGET);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param budgetBytes max (estimated) heap memory used by the entries
+         */
+        public MemoryBudgetCache(long budgetBytes) {
+            this(budgetBytes, true);
+        }
+
+        MemoryBudgetCache(long budgetBytes, boolean monitorHeap) {
+            if (budgetBytes < MIN_BUDGET) {
+                throw new IllegalArgumentException("budget must be at least " + MIN_BUDGET + " bytes");
+            }
+            this.budget = budgetBytes;
+            this.currentBudget = budgetBytes;
+            this.monitor = monitorHeap ? registerHeapMonitor(this) : null;
+        }
+
+        /**
+         * The monitor needs <code>java.lang.management</code>, which is missing on e.g. Android; there, its first
+         * use fails with a {@link LinkageError}, so it must only be used behind this guard.
+         */
+        @Nullable
+        private static HeapPressureMonitor registerHeapMonitor(MemoryBudgetCache cache) {
+            try {
+                return HeapPressureMonitor.register(cache);
+            } catch (LinkageError e) {
+                return null;
+            }
+        }
+
+        /**
+         * Sets the collection usage threshold of every heap memory pool without one to given fraction of its max size,
+         * so heap pressure can be detected. These thresholds are JVM wide and may also be used by other libraries or
+         * monitoring tools, so they are never set implicitly.
+         *
+         * @param fractionOfMax of the max pool size, e.g. 0.85
+         * @return true if heap pressure can be detected, always false without <code>java.lang.management</code>
+         */
+        public static boolean initHeapUsageThresholds(double fractionOfMax) {
+            if (!(fractionOfMax > 0 && fractionOfMax <= 1)) {
+                throw new IllegalArgumentException("fraction must be between 0 and 1");
+            }
+            try {
+                return HeapPressureMonitor.initThresholds(fractionOfMax);
+            } catch (LinkageError e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            cacheForEncode(originalId, encoded);
+            cacheForDecode(originalId, encoded);
+        }
+
+        @Override
+        public synchronized void cacheForEncode(byte[] originalId, String encoded) {
+            IdKey key = new IdKey(Arrays.copyOf(originalId, originalId.length));
+            String old = encodeMap.put(key, encoded);
+            encodeBytes += weight(originalId.length, encoded.length()) - (old != null ? weight(originalId.length, old.length()) : 0);
+            evictToBudget();
+        }
+
+        @Override
+        public synchronized void cacheForDecode(byte[] originalId, String encoded) {
+            byte[] old = decodeMap.put(encoded, Arrays.copyOf(originalId, originalId.length));
+            decodeBytes += weight(originalId.length, encoded.length()) - (old != null ? weight(old.length, encoded.length()) : 0);
+            evictToBudget();
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            IdKey key = new IdKey(originalId);
+            String encoded;
+            synchronized (this) {
+                encoded = encodeMap.get(key);
+            }
+            return stats.recordEncode(encoded);
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            byte[] raw;
+            synchronized (this) {
+                raw = decodeMap.get(encoded);
+            }
+            return stats.recordDecode(raw);
+        }
+
+        @Override
+        public synchronized void clear() {
+            encodeMap.clear();
+            decodeMap.clear();
+            encodeBytes = 0;
+            decodeBytes = 0;
+        }
+
+        @Override
+        public synchronized void clearEncoded() {
+            encodeMap.clear();
+            encodeBytes = 0;
+        }
+
+        @Override
+        public Stats stats() {
+            return stats.snapshot(size());
+        }
+
+        /**
+         * Number of cached entries of both directions
+         *
+         * @return entry count
+         */
+        public synchronized int size() {
+            return encodeMap.size() + decodeMap.size();
+        }
+
+        /**
+         * The configured memory budget
+         *
+         * @return max bytes
+         */
+        public long budgetBytes() {
+            return budget;
+        }
+
+        /**
+         * The memory budget currently in effect, lower than {@link #budgetBytes()} after heap pressure
+         *
+         * @return bytes
+         */
+        public synchronized long currentBudgetBytes() {
+            return currentBudget;
+        }
+
+        /**
+         * Estimated heap memory used by the cached entries
+         *
+         * @return bytes
+         */
+        public synchronized long usedBytes() {
+            return encodeBytes + decodeBytes;
+        }
+
+        /**
+         * Called on heap pressure: halves the budget and evicts entries accordingly
+         */
+        synchronized void onHeapPressure() {
+            currentBudget = Math.max(MIN_BUDGET, currentBudget / 2);
+            lastBudgetChangeNanos = System.nanoTime();
+            evictToBudget();
+        }
+
+        private void evictToBudget() {
+            if (encodeBytes + decodeBytes <= currentBudget) {
+                return;
+            }
+            if (currentBudget < budget && System.nanoTime() - lastBudgetChangeNanos > RECOVERY_INTERVAL_NANOS
+                    && (monitor == null || !monitor.isUnderPressure())) {
+                currentBudget = Math.min(budget, currentBudget * 2);
+                lastBudgetChangeNanos = System.nanoTime();
+            }
+            while (encodeBytes + decodeBytes > currentBudget) {
+                if (encodeBytes >= decodeBytes) {
+                    Map.Entry<IdKey, String> eldest = encodeMap.entrySet().iterator().next();
+                    encodeBytes -= weight(eldest.getKey().id.length, eldest.getValue().length());
+                    encodeMap.remove(eldest.getKey());
+                } else {
+                    Map.Entry<String, byte[]> eldest = decodeMap.entrySet().iterator().next();
+                    decodeBytes -= weight(eldest.getValue().length, eldest.getKey().length());
+                    decodeMap.remove(eldest.getKey());
+                }
+                stats.recordEviction();
+            }
+        }
+
+        /**
+         * Estimated footprint of one entry; strings are counted with 2 bytes per char (no compact strings)
+         */
+        static long weight(int idLength, int encodedLength) {
+            return MAP_ENTRY_BYTES + ID_KEY_BYTES + arrayBytes(idLength) + STRING_BYTES + arrayBytes(2 * encodedLength);
+        }
+
+        private static long arrayBytes(int length) {
+            return (16 + length + 7) & ~7;
+        }
+
+        private static final class IdKey {
+            private final byte[] id;
+            private final int hash;
+
+            IdKey(byte[] id) {
+                this.id = id;
+                this.hash = Arrays.hashCode(id);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof IdKey && Arrays.equals(id, ((IdKey) o).id);
+            }
+
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+    }
+
+    /**
+     * Lock-free in-memory cache optimized for footprint: every entry is a single packed <code>byte[]</code> holding
+     * the raw id and the masked id as ASCII (masked ids are always ASCII with the built-in encodings),
+     * shared by both directions. Compared to {@link SimpleLruMemCache} (hash key string, value string and map
+     * entries per direction) this fits more than 3 times as many ids per MB. Strings are only created when
+     * returned from {@link #getEncoded(byte[])}.
+     * <p>
+     * Like {@link PrimitiveKeyMemCache}, both directions are open-addressed tables with a short, bounded probe
+     * sequence; if all probed slots are taken, the slot at the home position is overwritten. Ids longer than
+     * 255 bytes and masked ids containing non-ASCII chars are not cached. Per default has {@link #CACHE_SIZE}
+     * slots per direction.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class CompactMemCache implements Cache {
+        private static final int CACHE_SIZE = 1024;
+        private static final int MAX_PROBES = 4;
+        /**
+         * Entry layout: id length (1), id, masked id
+         */
+        private static final int ID_OFFSET = 1;
+
+        private final AtomicReferenceArray<byte[]> encodeTable;
+        private final AtomicReferenceArray<byte[]> decodeTable;
+        private final int mask;
+        private final CacheStatsCounter stats = new CacheStatsCounter();
+
+        public CompactMemCache() {
+            this(CACHE_SIZE);
+        }
+
+        /**
+         * Create new cache
+         *
+         * @param size slots per direction, will be rounded up to the next power of 2
+         */
+        public CompactMemCache(int size) {
+            if (size < 1 || size > 1 << 30) {
+                throw new IllegalArgumentException("size must be between 1 and 2^30");
+            }
+            int capacity = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+            this.encodeTable = new AtomicReferenceArray<>(capacity);
+            this.decodeTable = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        @Override
+        public void cache(byte[] originalId, String encoded) {
+            byte[] entry = pack(originalId, encoded);
+            if (entry != null) {
+                put(encodeTable, entry, idHash(originalId), true);
+                put(decodeTable, entry, spread(encoded.hashCode()), false);
+            }
+        }
+
+        @Override
+        public void cacheForEncode(byte[] originalId, String encoded) {
+            byte[] entry = pack(originalId, encoded);
+            if (entry != null) {
+                put(encodeTable, entry, idHash(originalId), true);
+            }
+        }
+
+        @Override
+        public void cacheForDecode(byte[] originalId, String encoded) {
+            byte[] entry = pack(originalId, encoded);
+            if (entry != null) {
+                put(decodeTable, entry, spread(encoded.hashCode()), false);
+            }
+        }
+
+        @Override
+        public String getEncoded(byte[] originalId) {
+            final int hash = idHash(originalId);
+            for (int i = 0; i < MAX_PROBES; i++) {
+                byte[] entry = encodeTable.get((hash + i) & mask);
+                if (entry == null) {
+                    break;
+                }
+                if (hasId(entry, originalId)) {
+                    int offset = ID_OFFSET + (entry[0] & 0xFF);
+                    return stats.recordEncode(new String(entry, offset, entry.length - offset, StandardCharsets.ISO_8859_1));
+                }
+            }
+            return stats.recordEncode(null);
+        }
+
+        @Override
+        public byte[] getBytes(String encoded) {
+            final int hash = spread(encoded.hashCode());
+            for (int i = 0; i < MAX_PROBES; i++) {
+                byte[] entry = decodeTable.get((hash + i) & mask);
+                if (entry == null) {
+                    break;
+                }
+                if (hasEncoded(entry, encoded)) {
+                    return stats.recordDecode(Arrays.copyOfRange(entry, ID_OFFSET, ID_OFFSET + (entry[0] & 0xFF)));
+                }
+            }
+            return stats.recordDecode(null);
+        }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i <= mask; i++) {
+                encodeTable.set(i, null);
+                decodeTable.set(i, null);
+            }
+        }
+
+        @Override
+        public void clearEncoded() {
+            for (int i = 0; i <= mask; i++) {
+                encodeTable.set(i, null);
+            }
+        }
+
+        @Override
+        public Stats stats() {
+            int size = 0;
+            for (int i = 0; i <= mask; i++) {
+                size += (encodeTable.get(i) != null ? 1 : 0) + (decodeTable.get(i) != null ? 1 : 0);
+            }
+            return stats.snapshot(size);
+        }
+
+        private void put(AtomicReferenceArray<byte[]> table, byte[] entry, int hash, boolean byId) {
+            for (int i = 0; i < MAX_PROBES; i++) {
+                int index = (hash + i) & mask;
+                byte[] current = table.get(index);
+                if (current == null || (byId ? sameId(current, entry) : sameEncoded(current, entry))) {
+                    table.set(index, entry);
+                    return;
+                }
+            }
+            table.set(hash & mask, entry);
+            stats.recordEviction();
+        }
+
+        /**
+         * @return packed entry or null if it cannot be stored
+         */
+        private static byte[] pack(byte[] id, String encoded) {
+            if (id.length > 0xFF) {
+                return null;
+            }
+            byte[] entry = new byte[ID_OFFSET + id.length + encoded.length()];
+            entry[0] = (byte) id.length;
+            System.arraycopy(id, 0, entry, ID_OFFSET, id.length);
+            int offset = ID_OFFSET + id.length;
+            for (int i = 0; i < encoded.length(); i++) {
+                char c = encoded.charAt(i);
+                if (c > 0x7F) {
+                    return null;
+                }
+                entry[offset + i] = (byte) c;
+            }
+            return entry;
+        }
+
+        private static boolean hasId(byte[] entry, byte[] id) {
+            if ((entry[0] & 0xFF) != id.length) {
+                return false;
+            }
+            for (int i = 0; i < id.length; i++) {
+                if (entry[ID_OFFSET + i] != id[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean hasEncoded(byte[] entry, String encoded) {
+            int offset = ID_OFFSET + (entry[0] & 0xFF);
+            if (entry.length - offset != encoded.length()) {
+                return false;
+            }
+            for (int i = 0; i < encoded.length(); i++) {
+                if (entry[offset + i] != encoded.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean sameId(byte[] a, byte[] b) {
+            return a[0] == b[0] && regionEquals(a, ID_OFFSET, b, ID_OFFSET, a[0] & 0xFF);
+        }
+
+        private static boolean sameEncoded(byte[] a, byte[] b) {
+            int offsetA = ID_OFFSET + (a[0] & 0xFF);
+            int offsetB = ID_OFFSET + (b[0] & 0xFF);
+            return a.length - offsetA == b.length - offsetB
+                    && regionEquals(a, offsetA, b, offsetB, a.length - offsetA);
+        }
+
+        private static boolean regionEquals(byte[] a, int offsetA, byte[] b, int offsetB, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[offsetA + i] != b[offsetB + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * FNV-1a; {@link Arrays#hashCode(byte[])} collides too often for sequential ids with short probe sequences
+         */
+        private static int idHash(byte[] id) {
+            int h = 0x811C9DC5;
+            for (byte b : id) {
+                h = (h ^ (b & 0xFF)) * 0x01000193;
+            }
+            return spread(h);
+        }
+
+        private static int spread(int h) {
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            return h ^ (h >>> 13);
+        }
     }
 }
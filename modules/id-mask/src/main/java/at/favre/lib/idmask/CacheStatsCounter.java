@@ -0,0 +1,45 @@
+package at.favre.lib.idmask;
+
+/**
+ * Hit, miss and eviction counters used by the {@link Cache} implementations of this library.
+ */
+final class CacheStatsCounter {
+    private final StripedCounter encodeHits = new StripedCounter();
+    private final StripedCounter encodeMisses = new StripedCounter();
+    private final StripedCounter decodeHits = new StripedCounter();
+    private final StripedCounter decodeMisses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * Record a lookup of a masked id
+     *
+     * @param value the result of the lookup
+     * @param <T>   type of value
+     * @return value
+     */
+    <T> T recordEncode(T value) {
+        (value != null ? encodeHits : encodeMisses).increment();
+        return value;
+    }
+
+    /**
+     * Record a lookup of an original id
+     *
+     * @param value the result of the lookup
+     * @param <T>   type of value
+     * @return value
+     */
+    <T> T recordDecode(T value) {
+        (value != null ? decodeHits : decodeMisses).increment();
+        return value;
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    Cache.Stats snapshot(long size) {
+        return Cache.Stats.create(encodeHits.sum(), encodeMisses.sum(), decodeHits.sum(), decodeMisses.sum(),
+                evictions.sum(), size, 0);
+    }
+}
@@ -55,6 +55,23 @@ public abstract class Config {
      */
     abstract SecureRandom secureRandom();
 
+    /**
+     * If random bytes are taken from per-thread buffered generators seeded from {@link #secureRandom()}
+     *
+     * @return if buffered entropy is enabled
+     */
+    abstract boolean bufferedEntropy();
+
+    /**
+     * The random generator used by the engines: {@link #secureRandom()} or, if {@link #bufferedEntropy()} is enabled
+     * and ids are randomized, new per-thread generators seeded from it.
+     *
+     * @return random generator for an engine
+     */
+    SecureRandom engineSecureRandom() {
+        return bufferedEntropy() && randomizedIds() ? ThreadLocalDrbg.create(secureRandom(), securityProvider()) : secureRandom();
+    }
+
     /**
      * Cache implementation used to cache if enabled.
      *
@@ -69,6 +86,46 @@ public abstract class Config {
      */
     abstract boolean enableCache();
 
+    /**
+     * Which direction (masking and/or unmasking) uses the cache. If null, it is derived from
+     * {@link #randomizedIds()}, see {@link #effectiveCachePolicy()}.
+     *
+     * @return cache policy or null
+     */
+    @Nullable
+    abstract CachePolicy cachePolicy();
+
+    /**
+     * If the cache should automatically be bypassed while its hit ratio is too low to pay off
+     *
+     * @return if adaptive bypass is enabled
+     */
+    abstract boolean adaptiveCacheBypass();
+
+    /**
+     * Number of slots of the per-thread cache in front of the shared cache, 0 if disabled
+     *
+     * @return slots per thread
+     */
+    abstract int threadLocalCacheSize();
+
+    /**
+     * The cache policy actually used: {@link CachePolicy#NONE} if caching is disabled, otherwise the configured
+     * policy or, if none is set, {@link CachePolicy#DECODE_ONLY} for randomized ids and {@link CachePolicy#BOTH}
+     * for deterministic ids.
+     *
+     * @return used cache policy
+     */
+    CachePolicy effectiveCachePolicy() {
+        if (!enableCache()) {
+            return CachePolicy.NONE;
+        }
+        if (cachePolicy() != null) {
+            return cachePolicy();
+        }
+        return randomizedIds() ? CachePolicy.DECODE_ONLY : CachePolicy.BOTH;
+    }
+
     /**
      * Wipes memory of security relevant date (e.g. byte arrays)
      * in the expensive of making the process a bit slower.
@@ -77,13 +134,20 @@ public abstract class Config {
      */
     abstract boolean autoWipeMemory();
 
+    /**
+     * If unmasking throws exceptions without stack trace
+     *
+     * @return if stackless exceptions are enabled
+     */
+    abstract boolean stacklessExceptions();
+
     /**
      * Creates a new build with the following defaults:
      *
      * <ul>
      * <li>Base64 encoding</li>
      * <li>Default security provider</li>
-     * <li>Using in-memory-lru cache and enables it</li>
+     * <li>Using concurrent in-memory cache (approximate lru) and enables it</li>
      * <li>Default secure random</li>
      * <li>Deterministic ids &amp; high security mode disabled</li>
      * </ul>
@@ -98,10 +162,15 @@ public abstract class Config {
                 .highSecurityMode(false)
                 .randomizedIds(false)
                 .securityProvider(null)
-                .cacheImpl(new Cache.SimpleLruMemCache())
+                .cacheImpl(new Cache.ConcurrentClockMemCache())
                 .enableCache(true)
+                .cachePolicy(null)
+                .adaptiveCacheBypass(true)
+                .threadLocalCacheSize(0)
                 .autoWipeMemory(false)
-                .secureRandom(new SecureRandom());
+                .stacklessExceptions(false)
+                .secureRandom(new SecureRandom())
+                .bufferedEntropy(false);
     }
 
     /**
@@ -211,6 +280,17 @@ public abstract class Config {
          */
         public abstract Builder secureRandom(SecureRandom secureRandom);
 
+        /**
+         * Take the random bytes of randomized ids from per-thread generators (AES-CTR keystream, refilled 4 KB at a
+         * time) which are seeded from the configured {@link SecureRandom}, instead of calling it on every masking.
+         * Avoids contention on the shared secure random with many threads and is usually faster. Only used if
+         * {@link #randomizedIds(boolean)} is enabled. Disabled per default.
+         *
+         * @param bufferedEntropy true if enabled
+         * @return builder
+         */
+        public abstract Builder bufferedEntropy(boolean bufferedEntropy);
+
         /**
          * Optionally provide your own cache implementation.
          *
@@ -226,7 +306,7 @@ public abstract class Config {
          * <ul>
          * <li>Caching for masking will only work if randomizedIds are disabled</li>
          * <li>only makes sense if same ids will be masked from time to time</li>
-         * <li>use slightly more memory (when using the default in-memory lru cache)</li>
+         * <li>use slightly more memory (when using the default in-memory cache)</li>
          * <li>exposes the raw/masked ids mappings in memory which might be bad for Android</li>
          * </ul>
          *
@@ -235,6 +315,43 @@ public abstract class Config {
          */
         public abstract Builder enableCache(boolean shouldCache);
 
+        /**
+         * Which direction should use the cache if caching is enabled. Per default (null) masking and unmasking
+         * is cached for deterministic ids and only unmasking for randomized ids.
+         * <p>
+         * Randomized ids create a new masked id on every call, so masking never uses the cache with randomized ids,
+         * regardless of the policy, and its results are not cached.
+         *
+         * @param cachePolicy to use or null for the default
+         * @return builder
+         */
+        public abstract Builder cachePolicy(@Nullable CachePolicy cachePolicy);
+
+        /**
+         * If enabled (default), the id mask measures the hit ratio and costs of the cache and stops using it
+         * (per direction) while lookups and stores cost more than the hits save, e.g. if almost every request uses
+         * new ids. The cache is probed again periodically, so it is used again when the access pattern changes.
+         * <p>
+         * Disable if the cache must always be used, e.g. because its content is shared with other instances.
+         *
+         * @param adaptiveBypass true if enabled
+         * @return builder
+         */
+        public abstract Builder adaptiveCacheBypass(boolean adaptiveBypass);
+
+        /**
+         * Enables a tiny per-thread cache (direct mapped, lock-free, an entry simply overwrites the one in its slot)
+         * which is looked up before the shared cache. Helps if every thread masks the same few ids over and over,
+         * e.g. the current user and tenant id in every response. Only used if caching is enabled, for the
+         * directions of the {@link CachePolicy}. Disabled per default (0).
+         * <p>
+         * Every thread holds its own table, so keep it small (e.g. 16 or 32).
+         *
+         * @param slotsPerThread 0 to disable or 1 to 1024, rounded up to a power of 2
+         * @return builder
+         */
+        public abstract Builder threadLocalCacheSize(int slotsPerThread);
+
         /**
          * Wipes memory of security relevant date (e.g. byte arrays) immediately after usage
          * in the expensive of making masking a bit slower. This is an advanced security feature.
@@ -244,6 +361,18 @@ public abstract class Config {
          */
         public abstract Builder autoWipeMemory(boolean shouldAutoWipe);
 
+        /**
+         * Unmasking invalid or forged single ids throws exceptions without stack trace and without details in the
+         * message. Creating the stack trace dominates the costs of rejecting an id, so this helps if lots of garbage
+         * ids are received. The exception types and
+         * {@link IdMaskSecurityException#getReason()} stay the same. Consider using
+         * {@link IdMask#tryUnmask(CharSequence)} instead. Disabled per default.
+         *
+         * @param stackless true if enabled
+         * @return builder
+         */
+        public abstract Builder stacklessExceptions(boolean stackless);
+
         /**
          * Create config
          *
@@ -251,4 +380,42 @@ public abstract class Config {
          */
         public abstract Config build();
     }
+
+    /**
+     * Defines which direction uses the cache
+     */
+    public enum CachePolicy {
+        /**
+         * Only cache masking: lookups when masking, results of masking and unmasking are stored for masking
+         */
+        ENCODE_ONLY(true, false),
+        /**
+         * Only cache unmasking: lookups when unmasking, results of masking and unmasking are stored for unmasking
+         */
+        DECODE_ONLY(false, true),
+        /**
+         * Cache masking and unmasking
+         */
+        BOTH(true, true),
+        /**
+         * Never use the cache
+         */
+        NONE(false, false);
+
+        private final boolean encode;
+        private final boolean decode;
+
+        CachePolicy(boolean encode, boolean decode) {
+            this.encode = encode;
+            this.decode = decode;
+        }
+
+        boolean cachesEncode() {
+            return encode;
+        }
+
+        boolean cachesDecode() {
+            return decode;
+        }
+    }
 }
@@ -0,0 +1,107 @@
+package at.favre.lib.idmask;
+
+/**
+ * Compact, approximate access frequency counter used for TinyLFU admission.
+ * <p>
+ * A count-min sketch with 4 bit counters (16 per <code>long</code>) and 4 hash functions. Counters saturate at 15
+ * and all counters are halved after a sample period of 10 x the cache size, so old popularity ages out.
+ * <p>
+ * Not thread-safe by design: concurrent increments may be lost (or revert each other), which only makes the
+ * estimate a bit less accurate, but never produces an invalid counter. This avoids any synchronization on
+ * cache reads.
+ * <p>
+ * See: https://arxiv.org/abs/1512.00727 (TinyLFU: A Highly Efficient Cache Admission Policy)
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Create new sketch
+     *
+     * @param maximumSize of the cache using this sketch
+     */
+    FrequencySketch(int maximumSize) {
+        int size = Math.max(maximumSize, 16);
+        int length = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * Estimated frequency of given item
+     *
+     * @param hash of the item
+     * @return estimate between 0 and 15
+     */
+    int frequency(int hash) {
+        int item = spread(hash);
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int count = (int) ((table[indexOf(item, i)] >>> counterOffset(item, i)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Record an access of given item
+     *
+     * @param hash of the item
+     */
+    void increment(int hash) {
+        int item = spread(hash);
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(indexOf(item, i), counterOffset(item, i));
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = 0xFL << offset;
+        long value = table[index];
+        if ((value & mask) != mask) {
+            table[index] = value + (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters (aging)
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = additions / 2;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> 32;
+        return (int) hash & tableMask;
+    }
+
+    /**
+     * Bit offset of the 4 bit counter within the long, different for every hash function
+     */
+    private static int counterOffset(int item, int i) {
+        return ((item >>> (i << 3)) & 0xF) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,169 @@
+package at.favre.lib.idmask;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reports heap pressure to all {@link Cache.MemoryBudgetCache} instances, based on the usage of the heap memory
+ * pools after a garbage collection ("collection usage threshold"). Thresholds are JVM wide, so only thresholds
+ * already set are used; they are only set by an explicit call to {@link #initThresholds(double)}.
+ * <p>
+ * A single listener is registered for all caches. It only holds weak references to the caches, collected caches
+ * are removed with a {@link ReferenceQueue} and the listener unregisters itself once no cache is left.
+ * <p>
+ * Needs <code>java.lang.management</code>, so it is not available on e.g. Android; there, the first use of this class
+ * throws a {@link LinkageError}, see {@link Cache.MemoryBudgetCache}.
+ */
+final class HeapPressureMonitor {
+    private static final Object LOCK = new Object();
+    private static final ReferenceQueue<Cache.MemoryBudgetCache> COLLECTED = new ReferenceQueue<>();
+    private static final Set<Reference<Cache.MemoryBudgetCache>> CACHES = new HashSet<>();
+    private static HeapPressureMonitor shared;
+
+    private final NotificationEmitter emitter;
+    private final List<MemoryPoolMXBean> pools;
+    private final Listener listener = new Listener();
+
+    private HeapPressureMonitor(NotificationEmitter emitter, List<MemoryPoolMXBean> pools) {
+        this.emitter = emitter;
+        this.pools = pools;
+    }
+
+    /**
+     * Start monitoring the heap for given cache
+     *
+     * @param cache to notify with {@link Cache.MemoryBudgetCache#onHeapPressure()}
+     * @return shared monitor or null if heap usage cannot be monitored on this platform
+     */
+    static HeapPressureMonitor register(Cache.MemoryBudgetCache cache) {
+        synchronized (LOCK) {
+            expungeCollected();
+            if (shared == null) {
+                shared = create();
+                if (shared == null) {
+                    return null;
+                }
+            }
+            CACHES.add(new WeakReference<>(cache, COLLECTED));
+            return shared;
+        }
+    }
+
+    private static HeapPressureMonitor create() {
+        try {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            if (!(memory instanceof NotificationEmitter)) {
+                return null;
+            }
+            List<MemoryPoolMXBean> pools = heapPools();
+            if (pools.isEmpty()) {
+                return null;
+            }
+            HeapPressureMonitor monitor = new HeapPressureMonitor((NotificationEmitter) memory, pools);
+            monitor.emitter.addNotificationListener(monitor.listener, null, null);
+            return monitor;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the collection usage threshold of every heap memory pool without one to given fraction of its max size.
+     * This changes JVM wide settings, which may also be used by other libraries or monitoring tools.
+     *
+     * @param fractionOfMax between 0 (exclusive) and 1
+     * @return true if any heap pool has a threshold afterwards
+     */
+    static boolean initThresholds(double fractionOfMax) {
+        boolean thresholdSet = false;
+        try {
+            for (MemoryPoolMXBean pool : heapPools()) {
+                long max = pool.getUsage().getMax();
+                if (pool.getCollectionUsageThreshold() == 0 && max > 0) {
+                    pool.setCollectionUsageThreshold((long) (max * fractionOfMax));
+                }
+                thresholdSet |= pool.getCollectionUsageThreshold() > 0;
+            }
+        } catch (SecurityException e) {
+            return false;
+        }
+        return thresholdSet;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static void expungeCollected() {
+        Reference<? extends Cache.MemoryBudgetCache> collected;
+        while ((collected = COLLECTED.poll()) != null) {
+            CACHES.remove(collected);
+        }
+    }
+
+    /**
+     * @return true if any monitored pool was above its threshold after the last collection
+     */
+    boolean isUnderPressure() {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getCollectionUsageThreshold() > 0 && pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onThresholdExceeded() {
+        List<Cache.MemoryBudgetCache> targets = new ArrayList<>();
+        synchronized (LOCK) {
+            expungeCollected();
+            for (Reference<Cache.MemoryBudgetCache> reference : CACHES) {
+                Cache.MemoryBudgetCache cache = reference.get();
+                if (cache != null) {
+                    targets.add(cache);
+                }
+            }
+            if (CACHES.isEmpty() && shared == this) {
+                shared = null;
+                try {
+                    emitter.removeNotificationListener(listener);
+                } catch (ListenerNotFoundException ignored) {
+                    // already removed
+                }
+            }
+        }
+        // not called while holding the lock, the caches synchronize on themselves
+        for (Cache.MemoryBudgetCache cache : targets) {
+            cache.onHeapPressure();
+        }
+    }
+
+    private final class Listener implements NotificationListener {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                onThresholdExceeded();
+            }
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package at.favre.lib.idmask;
 
 import at.favre.lib.bytes.Bytes;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -38,72 +41,632 @@ public interface IdMask<T> {
      */
     T unmask(String encoded);
 
+    /**
+     * Unmask id contained in given range of a char sequence, e.g. a slice of a request path. Same as
+     * {@link #unmask(String)} with <code>encoded.subSequence(start, end).toString()</code>, but without
+     * creating an intermediate string. The cache is only used if encoded is a {@link String} and the range
+     * covers all of it; other ranges are always unmasked directly.
+     *
+     * @param encoded containing the masked id
+     * @param start   index of the first char (inclusive)
+     * @param end     index of the last char (exclusive)
+     * @return original id
+     * @throws IdMaskSecurityException   if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException  if basic parameter validation fails
+     * @throws IndexOutOfBoundsException if the range is not within encoded
+     */
+    T unmask(CharSequence encoded, int start, int end);
+
+    /**
+     * Unmask id without throwing if the masked id is invalid, e.g. for public endpoints receiving lots of forged
+     * or garbage ids. Failures create no exception and no stack trace; the result carries the
+     * {@link IdMaskSecurityException.Reason} instead.
+     *
+     * @param encoded to unmask
+     * @return result with either the original id or the reason why unmasking failed
+     */
+    UnmaskResult<T> tryUnmask(CharSequence encoded);
+
+    /**
+     * Mask a given id and append the masked id to given target, e.g. a {@link StringBuilder} or
+     * {@link java.io.Writer}. Produces the same text as {@link #mask(Object)}.
+     *
+     * @param id     to mask
+     * @param target to append the masked id to
+     * @throws IOException              if target throws
+     * @throws IllegalArgumentException if basic parameter validation fails
+     */
+    void maskTo(T id, Appendable target) throws IOException;
+
+    /**
+     * Mask a given id and write the masked id to given char buffer. Produces the same text as {@link #mask(Object)}.
+     *
+     * @param id     to mask
+     * @param dst    target buffer, must have at least {@link #maskedLength()} chars left after offset
+     * @param offset in dst to start writing
+     * @return number of chars written
+     * @throws IllegalArgumentException if basic parameter validation fails or dst is too small
+     */
+    int maskTo(T id, char[] dst, int offset);
+
+    /**
+     * Length of every masked id created by this instance. Use this to presize buffers
+     * for {@link #maskTo(Object, char[], int)}.
+     *
+     * @return masked id length in chars
+     */
+    int maskedLength();
+
+    /**
+     * Usage statistics of the configured cache, including the time spent masking or unmasking after a cache
+     * miss. Use this to check if the cache helps and how to size it.
+     *
+     * @return current statistics or null if caching is disabled or the cache does not record statistics
+     */
+    @Nullable
+    Cache.Stats cacheStats();
+
+    /**
+     * Prepare this instance for low first-request latency, e.g. at application startup: derives all keys and runs
+     * enough mask/unmask round trips with random ids for the JIT to compile the hot paths. The cache is not used,
+     * so its content and statistics are unchanged.
+     * <p>
+     * Ciphers and macs are created per thread, so only the calling thread gets ready-to-use instances. Takes up
+     * to about a second; calling it is never required.
+     */
+    void warmUp();
+
+    /**
+     * Result of {@link #tryUnmask(CharSequence)}: either the original id or the reason why the masked id was rejected.
+     * <p>
+     * DO NOT pass the reason to the client as it may reveal security relevant information.
+     *
+     * @param <T> type of the id
+     */
+    final class UnmaskResult<T> {
+        private static final UnmaskResult<?>[] FAILURES;
+
+        static {
+            IdMaskSecurityException.Reason[] reasons = IdMaskSecurityException.Reason.values();
+            FAILURES = new UnmaskResult<?>[reasons.length];
+            for (IdMaskSecurityException.Reason reason : reasons) {
+                FAILURES[reason.ordinal()] = new UnmaskResult<>(null, reason);
+            }
+        }
+
+        private final T id;
+        private final IdMaskSecurityException.Reason reason;
+
+        private UnmaskResult(T id, IdMaskSecurityException.Reason reason) {
+            this.id = id;
+            this.reason = reason;
+        }
+
+        static <T> UnmaskResult<T> success(T id) {
+            return new UnmaskResult<>(Objects.requireNonNull(id, "id"), null);
+        }
+
+        /**
+         * @param reason of the failure
+         * @return shared instance for given reason
+         */
+        @SuppressWarnings("unchecked")
+        static <T> UnmaskResult<T> failure(IdMaskSecurityException.Reason reason) {
+            return (UnmaskResult<T>) FAILURES[reason.ordinal()];
+        }
+
+        /**
+         * @return true if the id could be unmasked
+         */
+        public boolean isSuccess() {
+            return reason == null;
+        }
+
+        /**
+         * The unmasked id
+         *
+         * @return original id
+         * @throws IllegalStateException if unmasking failed
+         */
+        public T getId() {
+            if (reason != null) {
+                throw new IllegalStateException("id could not be unmasked: " + reason);
+            }
+            return id;
+        }
+
+        /**
+         * The unmasked id or given fallback
+         *
+         * @param other returned if unmasking failed
+         * @return original id or other
+         */
+        public T orElse(T other) {
+            return reason == null ? id : other;
+        }
+
+        /**
+         * Why unmasking failed
+         *
+         * @return reason or null if successful
+         */
+        @Nullable
+        public IdMaskSecurityException.Reason getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return reason == null ? "UnmaskResult{success}" : "UnmaskResult{reason=" + reason + "}";
+        }
+    }
+
     /**
      * Base implementation
      */
     abstract class BaseIdMask {
+        /**
+         * Round trips run by {@link #warmUp()}; enough for the C2 compiler with default thresholds
+         */
+        static final int WARM_UP_ITERATIONS = 12_000;
         private final IdMaskEngine engine;
         private final Config config;
+        private final StripedCounter missLoadTimeNanos = new StripedCounter();
+        /**
+         * The configured cache, wrapped if adaptive bypass is enabled
+         */
+        private final Cache cache;
+        @Nullable
+        private final AdaptiveBypassCache adaptiveCache;
+        @Nullable
+        private final ThreadLocalCache localCache;
+        /**
+         * If masking looks up the cache and results are stored for masking
+         */
+        private final boolean cacheEncode;
+        /**
+         * If unmasking looks up the cache and results are stored for unmasking
+         */
+        private final boolean cacheDecode;
+        /**
+         * If results of masking are stored for unmasking; randomized masked ids are (almost) never requested twice
+         */
+        private final boolean cacheDecodeOnMask;
+        /**
+         * Incremented on key rotation; results computed before a rotation are not stored afterwards
+         */
+        private volatile int keyGeneration;
+        /**
+         * Strong reference, the key manager only keeps a weak one
+         */
+        private final KeyManager.Rotatable.RotationListener rotationListener;
 
         BaseIdMask(IdMaskEngine engine, Config config) {
             this.engine = engine;
             this.config = config;
+            Config.CachePolicy policy = config.effectiveCachePolicy();
+            this.cacheEncode = policy.cachesEncode() && !config.randomizedIds();
+            this.cacheDecode = policy.cachesDecode();
+            this.cacheDecodeOnMask = cacheDecode && !config.randomizedIds();
+            this.adaptiveCache = config.adaptiveCacheBypass() && (cacheEncode || cacheDecode) ? new AdaptiveBypassCache(config.cacheImpl()) : null;
+            this.cache = adaptiveCache != null ? adaptiveCache : config.cacheImpl();
+            this.localCache = config.threadLocalCacheSize() > 0 && (cacheEncode || cacheDecode) ? new ThreadLocalCache(config.threadLocalCacheSize()) : null;
+
+            if (config.keyManager() instanceof KeyManager.Rotatable && (cacheEncode || cacheDecode)) {
+                // registered after the engine, so caches are invalidated after the engine switched keys
+                this.rotationListener = new KeyManager.Rotatable.RotationListener() {
+                    @Override
+                    public void onRotate(KeyManager previous, KeyManager next) {
+                        invalidateCache(KeyManager.Rotatable.retainsAllKeys(previous, next));
+                    }
+                };
+                ((KeyManager.Rotatable) config.keyManager()).addListener(rotationListener);
+            } else {
+                this.rotationListener = null;
+            }
         }
 
         String _encode(byte[] id) {
+            final int generation = keyGeneration;
             String encoded;
-            if (config.enableCache() && !config.randomizedIds()) {
-                if ((encoded = config.cacheImpl().getEncoded(id)) != null) {
+            if (cacheEncode) {
+                if (localCache != null && (encoded = localCache.getEncoded(id)) != null) {
+                    return encoded;
+                }
+                if ((encoded = cache.getEncoded(id)) != null) {
+                    if (localCache != null && generation == keyGeneration) {
+                        localCache.putEncoded(id, encoded);
+                    }
                     return encoded;
                 }
             }
 
-            encoded = engine.mask(id).toString();
-
-            if (config.enableCache()) {
-                config.cacheImpl().cache(id, encoded);
+            if (cacheEncode && isCacheUsed(true)) {
+                long start = System.nanoTime();
+                encoded = engine.mask(id).toString();
+                recordLoadTime(true, System.nanoTime() - start, 1);
+            } else {
+                encoded = engine.mask(id).toString();
             }
 
+            store(id, encoded, cacheDecodeOnMask, generation);
             return encoded;
         }
 
+        void _encodeTo(byte[] id, Appendable target) throws IOException {
+            Objects.requireNonNull(target, "target");
+            if (cacheEncode || cacheDecodeOnMask) {
+                // cache stores strings, so it is only a shortcut if there is no cache
+                target.append(_encode(id));
+            } else {
+                engine.maskTo(id, target);
+            }
+        }
+
+        int _encodeTo(byte[] id, char[] dst, int offset) {
+            Objects.requireNonNull(dst, "dst");
+            if (cacheEncode || cacheDecodeOnMask) {
+                String encoded = _encode(id);
+                if (offset < 0 || offset > dst.length - encoded.length()) {
+                    throw new IllegalArgumentException("target buffer too small, needs " + encoded.length() + " chars at offset " + offset);
+                }
+                encoded.getChars(0, encoded.length(), dst, offset);
+                return encoded.length();
+            }
+            return engine.maskTo(id, dst, offset);
+        }
+
+        public int maskedLength() {
+            return engine.maskedLength();
+        }
+
+        public void warmUp() {
+            engine.warmUp(WARM_UP_ITERATIONS);
+        }
+
+        public Cache.Stats cacheStats() {
+            if (!cacheEncode && !cacheDecode) {
+                return null;
+            }
+            Cache.Stats stats = cache.stats();
+            return stats != null ? stats.withMissLoadTimeNanos(stats.missLoadTimeNanos() + missLoadTimeNanos.sum()) : null;
+        }
+
         byte[] _decode(String encoded) {
+            if (!config.stacklessExceptions()) {
+                return decode(encoded, null);
+            }
+            IdMaskSecurityException.Reason[] failure = new IdMaskSecurityException.Reason[1];
+            byte[] raw = decode(encoded, failure);
+            if (raw == null) {
+                throw stacklessException(failure[0]);
+            }
+            return raw;
+        }
+
+        /**
+         * Unmask using the cache. If failure is null, invalid masked ids throw, otherwise the reason is stored in
+         * <code>failure[0]</code> and null is returned.
+         */
+        private byte[] decode(String encoded, @Nullable IdMaskSecurityException.Reason[] failure) {
+            final int generation = keyGeneration;
             byte[] raw;
-            if (config.enableCache() && !config.randomizedIds()) {
-                if ((raw = config.cacheImpl().getBytes(encoded)) != null) {
+            if (cacheDecode) {
+                if (localCache != null && (raw = localCache.getBytes(encoded)) != null) {
+                    return Bytes.wrap(raw).copy().array();
+                }
+                if ((raw = cache.getBytes(encoded)) != null) {
+                    if (localCache != null && generation == keyGeneration) {
+                        localCache.putBytes(encoded, raw);
+                    }
                     return Bytes.wrap(raw).copy().array();
                 }
             }
 
-            raw = engine.unmask(encoded);
-
-            if (config.enableCache()) {
-                config.cacheImpl().cache(raw, encoded);
+            if (cacheDecode && isCacheUsed(false)) {
+                long start = System.nanoTime();
+                raw = engineUnmask(encoded, failure);
+                recordLoadTime(false, System.nanoTime() - start, 1);
+            } else {
+                raw = engineUnmask(encoded, failure);
             }
 
+            if (raw != null) {
+                store(raw, encoded, cacheDecode, generation);
+            }
             return raw;
         }
+
+        private byte[] engineUnmask(String encoded, @Nullable IdMaskSecurityException.Reason[] failure) {
+            if (failure == null) {
+                return engine.unmask(encoded);
+            }
+            UnmaskResult<byte[]> result = engine.tryUnmask(encoded, 0, encoded.length());
+            failure[0] = result.getReason();
+            return result.orElse(null);
+        }
+
+        byte[] _decode(CharSequence encoded, int start, int end) {
+            Objects.requireNonNull(encoded, "encoded");
+            if ((cacheEncode || cacheDecode) && isWholeString(encoded, start, end)) {
+                return _decode((String) encoded);
+            }
+            // the cache is keyed by string; do not create one just for the lookup
+            if (!config.stacklessExceptions()) {
+                return engine.unmask(encoded, start, end);
+            }
+            UnmaskResult<byte[]> result = engine.tryUnmask(encoded, start, end);
+            if (!result.isSuccess()) {
+                throw stacklessException(result.getReason());
+            }
+            return result.getId();
+        }
+
+        UnmaskResult<byte[]> _tryDecode(CharSequence encoded) {
+            Objects.requireNonNull(encoded, "encoded");
+            if ((cacheEncode || cacheDecode) && encoded instanceof String) {
+                IdMaskSecurityException.Reason[] failure = new IdMaskSecurityException.Reason[1];
+                byte[] raw = decode((String) encoded, failure);
+                return raw != null ? UnmaskResult.success(raw) : UnmaskResult.<byte[]>failure(failure[0]);
+            }
+            return engine.tryUnmask(encoded, 0, encoded.length());
+        }
+
+        private static boolean isWholeString(CharSequence encoded, int start, int end) {
+            return encoded instanceof String && start == 0 && end == encoded.length();
+        }
+
+        private static RuntimeException stacklessException(IdMaskSecurityException.Reason reason) {
+            return reason == IdMaskSecurityException.Reason.MALFORMED_ID ? new StacklessIllegalArgumentException() : IdMaskSecurityException.stackless(reason);
+        }
+
+        /**
+         * Thrown for malformed ids if stackless exceptions are enabled
+         */
+        private static final class StacklessIllegalArgumentException extends IllegalArgumentException {
+            StacklessIllegalArgumentException() {
+                super("malformed masked id (stack trace disabled)", null);
+            }
+
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        }
+
+        String[] _encodeAll(byte[][] ids) {
+            final int generation = keyGeneration;
+            String[] result = new String[ids.length];
+            byte[][] misses = ids;
+            int[] missIndex = null;
+
+            if (cacheEncode) {
+                int missCount = 0;
+                missIndex = new int[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    if ((result[i] = cache.getEncoded(ids[i])) == null) {
+                        missIndex[missCount++] = i;
+                    }
+                }
+                misses = new byte[missCount][];
+                for (int i = 0; i < missCount; i++) {
+                    misses[i] = ids[missIndex[i]];
+                }
+            }
+
+            long start = System.nanoTime();
+            CharSequence[] encoded = engine.maskAll(misses);
+            if (missIndex != null) {
+                recordLoadTime(true, System.nanoTime() - start, misses.length);
+            }
+
+            for (int i = 0; i < encoded.length; i++) {
+                int index = missIndex != null ? missIndex[i] : i;
+                result[index] = encoded[i].toString();
+                store(ids[index], result[index], cacheDecodeOnMask, generation);
+            }
+
+            return result;
+        }
+
+        byte[][] _decodeAll(CharSequence[] encoded) {
+            final int generation = keyGeneration;
+            byte[][] result = new byte[encoded.length][];
+            CharSequence[] misses = encoded;
+            int[] missIndex = null;
+
+            if (cacheDecode) {
+                int missCount = 0;
+                missIndex = new int[encoded.length];
+                for (int i = 0; i < encoded.length; i++) {
+                    byte[] raw = cache.getBytes(Objects.requireNonNull(encoded[i], "encoded").toString());
+                    if (raw != null) {
+                        result[i] = Bytes.wrap(raw).copy().array();
+                    } else {
+                        missIndex[missCount++] = i;
+                    }
+                }
+                misses = new CharSequence[missCount];
+                for (int i = 0; i < missCount; i++) {
+                    misses[i] = encoded[missIndex[i]];
+                }
+            }
+
+            long start = System.nanoTime();
+            byte[][] raw = engine.unmaskAll(misses);
+            if (missIndex != null) {
+                recordLoadTime(false, System.nanoTime() - start, misses.length);
+            }
+
+            for (int i = 0; i < raw.length; i++) {
+                int index = missIndex != null ? missIndex[i] : i;
+                result[index] = raw[i];
+                if (cacheEncode || cacheDecode) {
+                    store(raw[i], encoded[index].toString(), cacheDecode, generation);
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Called on key rotation: masked ids of the previous key must not be returned anymore, unmask results
+         * are only invalid if a key was removed or replaced
+         */
+        private void invalidateCache(boolean retainsAllKeys) {
+            keyGeneration++;
+            if (localCache != null) {
+                localCache.clear();
+            }
+            if (retainsAllKeys) {
+                cache.clearEncoded();
+            } else {
+                cache.clear();
+            }
+        }
+
+        /**
+         * @return false if the adaptive cache currently bypasses given direction, so no load time is measured
+         */
+        private boolean isCacheUsed(boolean forEncode) {
+            return adaptiveCache == null || !(forEncode ? adaptiveCache.isBypassingEncode() : adaptiveCache.isBypassingDecode());
+        }
+
+        private void recordLoadTime(boolean forEncode, long nanos, int count) {
+            missLoadTimeNanos.add(nanos);
+            if (adaptiveCache != null && count > 0) {
+                adaptiveCache.recordLoadTime(forEncode, nanos / count);
+            }
+        }
+
+        /**
+         * Store a masking result in the cache for the enabled directions, unless the keys were rotated since
+         * the given generation was read
+         */
+        private void store(byte[] id, String encoded, boolean forDecode, int generation) {
+            if (generation != keyGeneration) {
+                return;
+            }
+            if (localCache != null) {
+                if (cacheEncode) {
+                    localCache.putEncoded(id, encoded);
+                }
+                if (forDecode) {
+                    localCache.putBytes(encoded, id);
+                }
+            }
+            if (cacheEncode && forDecode) {
+                cache.cache(id, encoded);
+            } else if (cacheEncode) {
+                cache.cacheForEncode(id, encoded);
+            } else if (forDecode) {
+                cache.cacheForDecode(id, encoded);
+            }
+        }
     }
 
     /**
      * Implementation which handles long type ids (64 bit integers)
+     * <p>
+     * Also implements {@link LongIdMasker} for masking primitive longs without boxing.
      */
-    final class LongIdMask extends BaseIdMask implements IdMask<Long> {
+    final class LongIdMask extends BaseIdMask implements IdMask<Long>, LongIdMasker {
 
         LongIdMask(Config config) {
             super(new IdMaskEngine.EightByteEncryptionEngine(config.keyManager(), config.securityProvider(),
-                    config.secureRandom(), config.encoding(), config.randomizedIds(), config.autoWipeMemory()), config);
+                    config.engineSecureRandom(), config.encoding(), config.randomizedIds(), config.autoWipeMemory()), config);
         }
 
         @Override
         public String mask(Long id) {
-            return _encode(Bytes.from(id).array());
+            return mask(Objects.requireNonNull(id, "id").longValue());
         }
 
         @Override
         public Long unmask(String encoded) {
-            byte[] out = _decode(encoded);
-            return Bytes.wrap(out).toLong();
+            return unmaskToLong(encoded);
+        }
+
+        @Override
+        public void maskTo(Long id, Appendable target) throws IOException {
+            maskTo(Objects.requireNonNull(id, "id").longValue(), target);
+        }
+
+        @Override
+        public int maskTo(Long id, char[] dst, int offset) {
+            return maskTo(Objects.requireNonNull(id, "id").longValue(), dst, offset);
+        }
+
+        @Override
+        public String mask(long id) {
+            return _encode(toBytes(id));
+        }
+
+        @Override
+        public void maskTo(long id, Appendable target) throws IOException {
+            _encodeTo(toBytes(id), target);
+        }
+
+        @Override
+        public int maskTo(long id, char[] dst, int offset) {
+            return _encodeTo(toBytes(id), dst, offset);
+        }
+
+        @Override
+        public Long unmask(CharSequence encoded, int start, int end) {
+            return unmaskToLong(encoded, start, end);
+        }
+
+        @Override
+        public UnmaskResult<Long> tryUnmask(CharSequence encoded) {
+            UnmaskResult<byte[]> raw = _tryDecode(encoded);
+            return raw.isSuccess() ? UnmaskResult.success(toLong(raw.getId())) : UnmaskResult.<Long>failure(raw.getReason());
+        }
+
+        @Override
+        public long unmaskToLong(CharSequence encoded) {
+            return toLong(_decode(encoded, 0, Objects.requireNonNull(encoded, "encoded").length()));
+        }
+
+        @Override
+        public long unmaskToLong(CharSequence encoded, int start, int end) {
+            return toLong(_decode(encoded, start, end));
+        }
+
+        @Override
+        public String[] maskAll(long[] ids) {
+            byte[][] raw = new byte[Objects.requireNonNull(ids, "ids").length][];
+            for (int i = 0; i < ids.length; i++) {
+                raw[i] = toBytes(ids[i]);
+            }
+            return _encodeAll(raw);
+        }
+
+        @Override
+        public long[] unmaskAll(CharSequence[] encoded) {
+            byte[][] raw = _decodeAll(Objects.requireNonNull(encoded, "encoded"));
+            long[] ids = new long[raw.length];
+            for (int i = 0; i < raw.length; i++) {
+                ids[i] = toLong(raw[i]);
+            }
+            return ids;
+        }
+
+        private static byte[] toBytes(long id) {
+            byte[] out = new byte[8];
+            for (int i = 7; i >= 0; i--) {
+                out[i] = (byte) id;
+                id >>>= 8;
+            }
+            return out;
+        }
+
+        private static long toLong(byte[] raw) {
+            long id = 0;
+            for (int i = 0; i < 8; i++) {
+                id = (id << 8) | (raw[i] & 0xFF);
+            }
+            return id;
         }
     }
 
@@ -114,17 +677,46 @@ public interface IdMask<T> {
 
         LongIdTupleMask(Config config) {
             super(new IdMaskEngine.SixteenByteEngine(config.keyManager(), config.highSecurityMode(), config.encoding(),
-                    config.secureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
+                    config.engineSecureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
         }
 
         @Override
         public String mask(LongTuple id) {
-            return _encode(Bytes.from(id.getNum1(), id.getNum2()).array());
+            return _encode(toBytes(id));
+        }
+
+        @Override
+        public void maskTo(LongTuple id, Appendable target) throws IOException {
+            _encodeTo(toBytes(id), target);
+        }
+
+        @Override
+        public int maskTo(LongTuple id, char[] dst, int offset) {
+            return _encodeTo(toBytes(id), dst, offset);
+        }
+
+        private static byte[] toBytes(LongTuple id) {
+            return Bytes.from(id.getNum1(), id.getNum2()).array();
         }
 
         @Override
         public LongTuple unmask(String encoded) {
-            Bytes out = Bytes.wrap(_decode(encoded));
+            return fromBytes(_decode(encoded));
+        }
+
+        @Override
+        public LongTuple unmask(CharSequence encoded, int start, int end) {
+            return fromBytes(_decode(encoded, start, end));
+        }
+
+        @Override
+        public UnmaskResult<LongTuple> tryUnmask(CharSequence encoded) {
+            UnmaskResult<byte[]> raw = _tryDecode(encoded);
+            return raw.isSuccess() ? UnmaskResult.success(fromBytes(raw.getId())) : UnmaskResult.<LongTuple>failure(raw.getReason());
+        }
+
+        private static LongTuple fromBytes(byte[] raw) {
+            Bytes out = Bytes.wrap(raw);
             return new LongTuple(out.longAt(0), out.longAt(8));
         }
     }
@@ -139,7 +731,7 @@ public interface IdMask<T> {
 
         UuidMask(Config config) {
             super(new IdMaskEngine.SixteenByteEngine(config.keyManager(), config.highSecurityMode(), config.encoding(),
-                    config.secureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
+                    config.engineSecureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
         }
 
         @Override
@@ -147,11 +739,32 @@ public interface IdMask<T> {
             return _encode(Bytes.from(id).array());
         }
 
+        @Override
+        public void maskTo(UUID id, Appendable target) throws IOException {
+            _encodeTo(Bytes.from(id).array(), target);
+        }
+
+        @Override
+        public int maskTo(UUID id, char[] dst, int offset) {
+            return _encodeTo(Bytes.from(id).array(), dst, offset);
+        }
+
         @Override
         public UUID unmask(String encoded) {
             byte[] out = _decode(encoded);
             return Bytes.wrap(out).toUUID();
         }
+
+        @Override
+        public UUID unmask(CharSequence encoded, int start, int end) {
+            return Bytes.wrap(_decode(encoded, start, end)).toUUID();
+        }
+
+        @Override
+        public UnmaskResult<UUID> tryUnmask(CharSequence encoded) {
+            UnmaskResult<byte[]> raw = _tryDecode(encoded);
+            return raw.isSuccess() ? UnmaskResult.success(Bytes.wrap(raw.getId()).toUUID()) : UnmaskResult.<UUID>failure(raw.getReason());
+        }
     }
 
     /**
@@ -162,7 +775,7 @@ public interface IdMask<T> {
 
         ByteArray128bitMask(Config config) {
             super(new IdMaskEngine.SixteenByteEngine(config.keyManager(), config.highSecurityMode(), config.encoding(),
-                    config.secureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
+                    config.engineSecureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
         }
 
         @Override
@@ -170,10 +783,30 @@ public interface IdMask<T> {
             return _encode(Bytes.from(id).array());
         }
 
+        @Override
+        public void maskTo(byte[] id, Appendable target) throws IOException {
+            _encodeTo(Bytes.from(id).array(), target);
+        }
+
+        @Override
+        public int maskTo(byte[] id, char[] dst, int offset) {
+            return _encodeTo(Bytes.from(id).array(), dst, offset);
+        }
+
         @Override
         public byte[] unmask(String encoded) {
             return _decode(encoded);
         }
+
+        @Override
+        public byte[] unmask(CharSequence encoded, int start, int end) {
+            return _decode(encoded, start, end);
+        }
+
+        @Override
+        public UnmaskResult<byte[]> tryUnmask(CharSequence encoded) {
+            return _tryDecode(encoded);
+        }
     }
 
     /**
@@ -184,11 +817,25 @@ public interface IdMask<T> {
 
         BigIntegerIdMask(Config config) {
             super(new IdMaskEngine.SixteenByteEngine(config.keyManager(), config.highSecurityMode(), config.encoding(),
-                    config.secureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
+                    config.engineSecureRandom(), config.securityProvider(), config.randomizedIds(), config.autoWipeMemory()), config);
         }
 
         @Override
         public String mask(BigInteger id) {
+            return _encode(toBytes(id));
+        }
+
+        @Override
+        public void maskTo(BigInteger id, Appendable target) throws IOException {
+            _encodeTo(toBytes(id), target);
+        }
+
+        @Override
+        public int maskTo(BigInteger id, char[] dst, int offset) {
+            return _encodeTo(toBytes(id), dst, offset);
+        }
+
+        private static byte[] toBytes(BigInteger id) {
             Bytes bytes = Bytes.from(id);
             if (bytes.length() > SUPPORTED_LENGTH) {
                 throw new IllegalArgumentException("biginteger only support up to " + SUPPORTED_LENGTH + " byte two-complements representation");
@@ -198,12 +845,27 @@ public interface IdMask<T> {
             bb.put((byte) bytes.length());
             bb.put(bytes.resize(SUPPORTED_LENGTH).array());
 
-            return _encode(bb.array());
+            return bb.array();
         }
 
         @Override
         public BigInteger unmask(String encoded) {
-            ByteBuffer bb = ByteBuffer.wrap(_decode(encoded));
+            return fromBytes(_decode(encoded));
+        }
+
+        @Override
+        public BigInteger unmask(CharSequence encoded, int start, int end) {
+            return fromBytes(_decode(encoded, start, end));
+        }
+
+        @Override
+        public UnmaskResult<BigInteger> tryUnmask(CharSequence encoded) {
+            UnmaskResult<byte[]> raw = _tryDecode(encoded);
+            return raw.isSuccess() ? UnmaskResult.success(fromBytes(raw.getId())) : UnmaskResult.<BigInteger>failure(raw.getReason());
+        }
+
+        private static BigInteger fromBytes(byte[] raw) {
+            ByteBuffer bb = ByteBuffer.wrap(raw);
             int length = bb.get();
             byte[] number = new byte[bb.remaining()];
             bb.get(number);
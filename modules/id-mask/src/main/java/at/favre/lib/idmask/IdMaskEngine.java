@@ -2,17 +2,25 @@ package at.favre.lib.idmask;
 
 import at.favre.lib.bytes.Bytes;
 import at.favre.lib.hkdf.HKDF;
+import org.jetbrains.annotations.Nullable;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.Provider;
 import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The underlying engine responsible for encrypting the provided id.
@@ -40,6 +48,93 @@ public interface IdMaskEngine {
      */
     byte[] unmask(CharSequence maskedId);
 
+    /**
+     * Unmask (or decrypt) given range of a char sequence containing a masked id, e.g. a slice of a request path.
+     * Same as {@link #unmask(CharSequence)} with <code>maskedId.subSequence(start, end)</code>, but without
+     * creating an intermediate string.
+     *
+     * @param maskedId containing the masked id to unmask
+     * @param start    index of the first char (inclusive)
+     * @param end      index of the last char (exclusive)
+     * @return unmasked, plain id as passed in {@link #mask(byte[])}
+     * @throws IdMaskSecurityException   if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException  if basic parameter validation fails
+     * @throws IndexOutOfBoundsException if the range is not within maskedId
+     */
+    byte[] unmask(CharSequence maskedId, int start, int end);
+
+    /**
+     * Same as {@link #unmask(CharSequence, int, int)}, but malformed or forged masked ids are reported with the
+     * result instead of an exception (no exception and stack trace is created).
+     *
+     * @param maskedId containing the masked id
+     * @param start    index of the first char (inclusive)
+     * @param end      index of the last char (exclusive)
+     * @return unmasked, plain id or reason of the failure
+     * @throws IndexOutOfBoundsException if the range is not within maskedId
+     */
+    IdMask.UnmaskResult<byte[]> tryUnmask(CharSequence maskedId, int start, int end);
+
+    /**
+     * Mask (or encrypt) given id as bytes and append the masked id to given target. Same as
+     * {@link #mask(byte[])}, but without creating an intermediate string.
+     *
+     * @param plainId (aka plaintext) to mask
+     * @param target  to append the masked id to
+     * @throws IOException              if target throws
+     * @throws IllegalArgumentException if basic parameter validation fails
+     */
+    void maskTo(byte[] plainId, Appendable target) throws IOException;
+
+    /**
+     * Mask (or encrypt) given id as bytes and write the masked id to given char buffer. Same as
+     * {@link #mask(byte[])}, but without creating an intermediate string.
+     *
+     * @param plainId (aka plaintext) to mask
+     * @param dst     target buffer, must have at least {@link #maskedLength()} chars left after offset
+     * @param offset  in dst to start writing
+     * @return number of chars written
+     * @throws IllegalArgumentException if basic parameter validation fails or dst is too small
+     */
+    int maskTo(byte[] plainId, char[] dst, int offset);
+
+    /**
+     * Length of every masked id created by this engine, see {@link #mask(byte[])}. Use this to presize buffers.
+     *
+     * @return masked id length in chars
+     */
+    int maskedLength();
+
+    /**
+     * Mask (or encrypt) multiple ids in one pass. The result is the same as calling {@link #mask(byte[])}
+     * for every single id, but implementations may share expensive setup (e.g. cipher initialization)
+     * over the whole batch.
+     *
+     * @param plainIds (aka plaintexts) to mask
+     * @return masked ids in the same order as the input
+     * @throws IllegalArgumentException if basic parameter validation fails for any of the ids
+     */
+    CharSequence[] maskAll(byte[][] plainIds);
+
+    /**
+     * Unmask (or decrypt) multiple masked ids in one pass. The result is the same as calling {@link #unmask(CharSequence)}
+     * for every single id. If a single id fails, the whole batch fails.
+     *
+     * @param maskedIds to unmask
+     * @return unmasked, plain ids in the same order as the input
+     * @throws IdMaskSecurityException  if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException if basic parameter validation fails for any of the ids
+     */
+    byte[][] unmaskAll(CharSequence[] maskedIds);
+
+    /**
+     * Run masking and unmasking with random ids for given iterations, so that ciphers and macs of the calling
+     * thread are created and the JIT compiles the hot paths before the first real request.
+     *
+     * @param iterations number of mask/unmask round trips
+     */
+    void warmUp(int iterations);
+
     /**
      * Internal maximal engine id used in version byte
      */
@@ -57,11 +152,19 @@ public interface IdMaskEngine {
         static int MAX_MASKED_ID_ENCODED_LENGTH = 768;
         static int MIN_MASKED_ID_ENCODED_LENGTH = 8;
         private ThreadLocal<Cipher> cipherWrapper = new ThreadLocal<>();
+        private ThreadLocal<KeyedCiphers> keyedCipherWrapper = new ThreadLocal<>();
         final Provider provider;
         final SecureRandom secureRandom;
         final ByteToTextEncoding encoding;
         final HKDF hkdf;
-        final KeyManager keyManager;
+        /**
+         * Derived keys; replaced on rotation if a {@link KeyManager.Rotatable} is used, so read it only once per call
+         */
+        volatile KeyManager keyManager;
+        /**
+         * Strong reference, the key manager only keeps a weak one
+         */
+        private final KeyManager.Rotatable.RotationListener rotationListener;
         final boolean randomizeIds;
         final boolean autoWipeMemory;
         final int supportedIdByteLength;
@@ -71,15 +174,42 @@ public interface IdMaskEngine {
             this.provider = provider;
             this.secureRandom = Objects.requireNonNull(secureRandom, "secureRandom");
             this.encoding = Objects.requireNonNull(encoding, "encoding");
-            this.keyManager = KeyManager.CachedKdfConverter.wrap(keyManager, new KeyManager.CachedKdfConverter.KdfConverter() {
+            this.randomizeIds = randomizeIds;
+            this.autoWipeMemory = autoWipeMemory;
+            this.supportedIdByteLength = supportedIdByteLength;
+
+            if (keyManager instanceof KeyManager.Rotatable) {
+                this.rotationListener = new KeyManager.Rotatable.RotationListener() {
+                    @Override
+                    public void onRotate(KeyManager previous, KeyManager next) {
+                        KeyManager derived = wrapWithKdf(next);
+                        prepareKeys(derived);
+                        BaseEngine.this.keyManager = derived;
+                    }
+                };
+                this.keyManager = wrapWithKdf(((KeyManager.Rotatable) keyManager).addListener(rotationListener));
+            } else {
+                this.rotationListener = null;
+                this.keyManager = wrapWithKdf(keyManager);
+            }
+        }
+
+        private KeyManager wrapWithKdf(KeyManager keyManager) {
+            return KeyManager.CachedKdfConverter.wrap(keyManager, new KeyManager.CachedKdfConverter.KdfConverter() {
                 @Override
                 public byte[] convert(KeyManager.IdSecretKey original) {
                     return hkdf.extract(Bytes.from(original.getKeyId()).array(), original.getKeyBytes());
                 }
             });
-            this.randomizeIds = randomizeIds;
-            this.autoWipeMemory = autoWipeMemory;
-            this.supportedIdByteLength = supportedIdByteLength;
+        }
+
+        /**
+         * Called on key rotation before the new keys are used, to prepare further key material. Runs in the
+         * thread rotating the keys.
+         *
+         * @param derivedKeyManager the new keys
+         */
+        void prepareKeys(KeyManager derivedKeyManager) {
         }
 
         /**
@@ -106,6 +236,31 @@ public interface IdMaskEngine {
             return supportedIdByteLength;
         }
 
+        /**
+         * Mask and unmask random ids with given engine, see {@link IdMaskEngine#warmUp(int)}
+         *
+         * @param engine     to warm up
+         * @param idLength   byte length of ids supported by the engine
+         * @param iterations number of round trips
+         */
+        static void warmUp(IdMaskEngine engine, int idLength, int iterations) {
+            byte[] id = Bytes.random(idLength).array();
+            char[] buffer = new char[engine.maskedLength()];
+            byte[][] batch = new byte[8][];
+            for (int i = 0; i < iterations; i++) {
+                id[i % idLength] ^= (byte) i;
+                engine.unmask(engine.mask(id));
+                engine.maskTo(id, buffer, 0);
+                engine.unmask(CharBuffer.wrap(buffer), 0, buffer.length);
+                if ((i & 63) == 0) {
+                    for (int j = 0; j < batch.length; j++) {
+                        batch[j] = id;
+                    }
+                    engine.unmaskAll(engine.maskAll(batch));
+                }
+            }
+        }
+
         /**
          * Create entropy bytes for further cryptographic functions
          *
@@ -122,18 +277,16 @@ public interface IdMaskEngine {
             }
         }
 
-        synchronized Cipher getCipher() {
+        /**
+         * Get the (uninitialized) cipher instance of the current thread. Since every thread has its own instance,
+         * this does not require any synchronization.
+         *
+         * @return cipher of the current thread
+         */
+        Cipher getCipher() {
             Cipher cipher = cipherWrapper.get();
             if (cipher == null) {
-                try {
-                    if (provider != null) {
-                        cipher = Cipher.getInstance(getCipherAlgorithm(), provider);
-                    } else {
-                        cipher = Cipher.getInstance(getCipherAlgorithm());
-                    }
-                } catch (Exception e) {
-                    throw new IllegalStateException("could not get cipher instance", e);
-                }
+                cipher = createCipherInstance();
                 cipherWrapper.set(cipher);
                 return cipherWrapper.get();
             } else {
@@ -141,6 +294,111 @@ public interface IdMaskEngine {
             }
         }
 
+        /**
+         * Get a cipher of the current thread which is already initialized with the (first 16 bytes of the)
+         * given key. Initializing a cipher runs the whole AES key schedule, so this will only be done once
+         * per thread and key id, or if the key for the key id changes.
+         * <p>
+         * Only use this with cipher modes which reset to their initial state after a call to
+         * {@link Cipher#doFinal()} and do not require an iv.
+         *
+         * @param opMode either {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+         * @param keyId  of the key
+         * @param key    secret key for given key id
+         * @return initialized cipher
+         */
+        Cipher getKeyedCipher(int opMode, int keyId, byte[] key) {
+            Cipher cipher = getKeyedCipherIfValid(opMode, keyId, key);
+            if (cipher == null) {
+                cipher = initKeyedCipher(opMode, keyId, key, new SecretKeySpec(key, 0, 16, "AES"), null);
+            }
+            return cipher;
+        }
+
+        /**
+         * Get a cipher of the current thread which is already initialized with given key and optional
+         * parameters. The cipher will only be initialized again if the passed key reference changes
+         * for given key id. See {@link #getKeyedCipher(int, int, byte[])}.
+         *
+         * @param opMode    either {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+         * @param keyId     of the key
+         * @param keyRef    reference identifying the used key material, compared by identity
+         * @param key       to init the cipher with
+         * @param keyParams optional parameter spec like an iv (may be null)
+         * @return initialized cipher
+         */
+        Cipher getKeyedCipher(int opMode, int keyId, Object keyRef, Key key, AlgorithmParameterSpec keyParams) {
+            Cipher cipher = getKeyedCipherIfValid(opMode, keyId, keyRef);
+            if (cipher == null) {
+                cipher = initKeyedCipher(opMode, keyId, keyRef, key, keyParams);
+            }
+            return cipher;
+        }
+
+        private Cipher getKeyedCipherIfValid(int opMode, int keyId, Object keyRef) {
+            KeyedCiphers keyedCiphers = keyedCipherWrapper.get();
+            if (keyedCiphers == null) {
+                return null;
+            }
+            return keyedCiphers.keyRefs(opMode)[keyId] == keyRef ? keyedCiphers.ciphers(opMode)[keyId] : null;
+        }
+
+        private Cipher initKeyedCipher(int opMode, int keyId, Object keyRef, Key key, AlgorithmParameterSpec keyParams) {
+            KeyedCiphers keyedCiphers = keyedCipherWrapper.get();
+            if (keyedCiphers == null) {
+                keyedCiphers = new KeyedCiphers();
+                keyedCipherWrapper.set(keyedCiphers);
+            }
+
+            Cipher[] ciphers = keyedCiphers.ciphers(opMode);
+            Object[] keyRefs = keyedCiphers.keyRefs(opMode);
+
+            Cipher cipher = ciphers[keyId] != null ? ciphers[keyId] : createCipherInstance();
+            try {
+                if (keyParams != null) {
+                    cipher.init(opMode, key, keyParams);
+                } else {
+                    cipher.init(opMode, key);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not init cipher", e);
+            }
+            ciphers[keyId] = cipher;
+            keyRefs[keyId] = keyRef;
+            return cipher;
+        }
+
+        private Cipher createCipherInstance() {
+            try {
+                if (provider != null) {
+                    return Cipher.getInstance(getCipherAlgorithm(), provider);
+                } else {
+                    return Cipher.getInstance(getCipherAlgorithm());
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("could not get cipher instance", e);
+            }
+        }
+
+        /**
+         * Initialized ciphers of a single thread per key id. The key reference used to initialize the cipher
+         * is kept to detect if the key for a key id changes.
+         */
+        private static final class KeyedCiphers {
+            private final Cipher[] encryptCiphers = new Cipher[MAX_KEY_ID + 1];
+            private final Cipher[] decryptCiphers = new Cipher[MAX_KEY_ID + 1];
+            private final Object[] encryptKeyRefs = new Object[MAX_KEY_ID + 1];
+            private final Object[] decryptKeyRefs = new Object[MAX_KEY_ID + 1];
+
+            Cipher[] ciphers(int opMode) {
+                return opMode == Cipher.ENCRYPT_MODE ? encryptCiphers : decryptCiphers;
+            }
+
+            Object[] keyRefs(int opMode) {
+                return opMode == Cipher.ENCRYPT_MODE ? encryptKeyRefs : decryptKeyRefs;
+            }
+        }
+
         /**
          * Parameter input validation for masked ids
          *
@@ -148,37 +406,115 @@ public interface IdMaskEngine {
          * @throws IllegalArgumentException if input is not valid
          */
         void checkInput(CharSequence maskedId) {
-            if (Objects.requireNonNull(maskedId, "maskedId").length() > MAX_MASKED_ID_ENCODED_LENGTH || maskedId.length() < MIN_MASKED_ID_ENCODED_LENGTH) {
-                throw new IllegalArgumentException("encoded masked id too long or short, must be between " + MIN_MASKED_ID_ENCODED_LENGTH + " and " + MAX_MASKED_ID_ENCODED_LENGTH + " chars");
+            checkInput(maskedId, 0, Objects.requireNonNull(maskedId, "maskedId").length());
+        }
+
+        void checkInput(CharSequence maskedId, int start, int end) {
+            checkInput(maskedId, start, end, null);
+        }
+
+        /**
+         * Checks range and length of the masked id
+         *
+         * @param failure see {@link #fail(IdMaskSecurityException.Reason[], IdMaskSecurityException.Reason, String)}
+         * @return false if the length is invalid and failure is given
+         */
+        boolean checkInput(CharSequence maskedId, int start, int end, @Nullable IdMaskSecurityException.Reason[] failure) {
+            if (start < 0 || end > Objects.requireNonNull(maskedId, "maskedId").length() || start > end) {
+                throw new IndexOutOfBoundsException("invalid range " + start + "-" + end + " for length " + maskedId.length());
+            }
+            if (end - start > MAX_MASKED_ID_ENCODED_LENGTH || end - start < MIN_MASKED_ID_ENCODED_LENGTH) {
+                fail(failure, IdMaskSecurityException.Reason.MALFORMED_ID, "encoded masked id too long or short, must be between " + MIN_MASKED_ID_ENCODED_LENGTH + " and " + MAX_MASKED_ID_ENCODED_LENGTH + " chars");
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Decode the masked id into dst; if failure is given, invalid text returns -1 instead of throwing
+         *
+         * @return number of decoded bytes or -1
+         */
+        int decodeTo(CharSequence maskedId, int start, int end, byte[] dst, @Nullable IdMaskSecurityException.Reason[] failure) {
+            if (failure == null) {
+                return encoding.decodeTo(maskedId, start, end, dst, 0);
+            }
+            if (encoding instanceof ByteToTextEncoding.Base64Url) {
+                // default encoding can be validated without exception
+                return Base64UrlCodec.tryDecodeTo(maskedId, start, end, dst, 0);
+            }
+            try {
+                return encoding.decodeTo(maskedId, start, end, dst, 0);
+            } catch (IllegalArgumentException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Unmask given range. If failure is null, invalid masked ids throw, otherwise the reason is stored in
+         * <code>failure[0]</code> and null is returned.
+         *
+         * @param maskedId containing the masked id
+         * @param start    index of the first char (inclusive)
+         * @param end      index of the last char (exclusive)
+         * @param failure  null or array of length 1
+         * @return unmasked id or null
+         */
+        abstract byte[] unmask(CharSequence maskedId, int start, int end, @Nullable IdMaskSecurityException.Reason[] failure);
+
+        public IdMask.UnmaskResult<byte[]> tryUnmask(CharSequence maskedId, int start, int end) {
+            IdMaskSecurityException.Reason[] failure = new IdMaskSecurityException.Reason[1];
+            byte[] raw = unmask(maskedId, start, end, failure);
+            return raw != null ? IdMask.UnmaskResult.success(raw) : IdMask.UnmaskResult.<byte[]>failure(failure[0]);
+        }
+
+        /**
+         * Report an invalid masked id
+         *
+         * @param failure if null, an exception is thrown, otherwise the reason is stored in it
+         * @param reason  of the failure; {@link IdMaskSecurityException.Reason#MALFORMED_ID} is thrown as {@link IllegalArgumentException}
+         * @param message of the exception
+         * @return always null
+         */
+        static byte[] fail(@Nullable IdMaskSecurityException.Reason[] failure, IdMaskSecurityException.Reason reason, String message) {
+            if (failure == null) {
+                throw reason == IdMaskSecurityException.Reason.MALFORMED_ID ? new IllegalArgumentException(message) : new IdMaskSecurityException(message, reason);
             }
+            failure[0] = reason;
+            return null;
         }
 
         /**
          * Creates a version byte encoding keyId and cipherText
          *
-         * @param keyId      to encode in version (encoded to first 4 bit)
-         * @param cipherText to encode in version (encoded to last 4 bit)
+         * @param keyId          to encode in version (encoded to first 4 bit)
+         * @param cipherTextHead first byte of the cipher text used to obfuscate the version byte
          * @return version byte
          */
-        byte createVersionByte(byte keyId, byte[] cipherText) {
+        byte createVersionByte(byte keyId, byte cipherTextHead) {
             byte engineId = engineId();
             if (keyId < 0 || keyId > MAX_KEY_ID || engineId < 0 || engineId > MAX_ENGINE_ID) {
                 throw new IllegalArgumentException("key and engine id must can only be 4 bit long");
             }
 
-            return Bytes.from(keyId).leftShift(4).or(Bytes.from(engineId)).xor(Bytes.from(cipherText, 0, 1)).toByte();
+            return (byte) (((keyId << 4) | engineId) ^ cipherTextHead);
         }
 
-        byte getKeyIdFromVersion(byte obfuscatedVersion, byte[] cipherText) {
-            return Bytes.from(obfuscatedVersion).xor(Bytes.from(cipherText, 0, 1)).rightShift(4).and(Bytes.from((byte) 0b00001111)).toByte();
+        byte getKeyIdFromVersion(byte obfuscatedVersion, byte cipherTextHead) {
+            return (byte) (((obfuscatedVersion ^ cipherTextHead) >>> 4) & 0b00001111);
         }
 
-        byte getEngineIdFromVersion(byte obfuscatedVersion, byte[] cipherText) {
-            return Bytes.from(obfuscatedVersion).xor(Bytes.from(cipherText, 0, 1)).and(Bytes.from((byte) 0b00001111)).toByte();
+        byte getEngineIdFromVersion(byte obfuscatedVersion, byte cipherTextHead) {
+            return (byte) ((obfuscatedVersion ^ cipherTextHead) & 0b00001111);
         }
 
-        byte[] getCurrentIdKey() {
-            return keyManager.getActiveKey().getKeyBytes();
+        /**
+         * The active key; use its key id and bytes, so both are from the same key even during a key rotation
+         *
+         * @return active (derived) key
+         */
+        KeyManager.IdSecretKey getActiveIdKey() {
+            return keyManager.getActiveKey();
         }
 
         byte[] getKeyForId(byte keyId) {
@@ -192,21 +528,28 @@ public interface IdMaskEngine {
         /**
          * Checks given version byte if it matches current implementation
          *
-         * @param version    to decode
-         * @param cipherText used to de obfuscate version byte
+         * @param version        to decode
+         * @param cipherTextHead first byte of the cipher text used to de obfuscate version byte
          * @return secret key to decode
          */
-        byte[] checkAndGetCurrentKey(byte version, byte[] cipherText) {
-            byte versionEngineId = getEngineIdFromVersion(version, cipherText);
+        byte[] checkAndGetCurrentKey(byte version, byte cipherTextHead) {
+            return checkAndGetCurrentKey(version, cipherTextHead, null);
+        }
+
+        /**
+         * Same as {@link #checkAndGetCurrentKey(byte, byte)}, but returns null if failure is given and the check fails
+         */
+        byte[] checkAndGetCurrentKey(byte version, byte cipherTextHead, @Nullable IdMaskSecurityException.Reason[] failure) {
+            byte versionEngineId = getEngineIdFromVersion(version, cipherTextHead);
             if (versionEngineId != engineId()) {
-                throw new IdMaskSecurityException("wrong idMask engine used according to version byte - expected '" + engineId() + "' got '" + versionEngineId + "'",
-                        IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID);
+                return fail(failure, IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID,
+                        "wrong idMask engine used according to version byte - expected '" + engineId() + "' got '" + versionEngineId + "'");
             }
-            byte keyId = getKeyIdFromVersion(version, cipherText);
+            byte keyId = getKeyIdFromVersion(version, cipherTextHead);
             byte[] currentSecretKey = getKeyForId(keyId);
 
             if (currentSecretKey == null) {
-                throw new IdMaskSecurityException("unknown key id '" + keyId + "'", IdMaskSecurityException.Reason.UNKNOWN_KEY_ID);
+                return fail(failure, IdMaskSecurityException.Reason.UNKNOWN_KEY_ID, "unknown key id '" + keyId + "'");
             }
             return currentSecretKey;
         }
@@ -268,6 +611,8 @@ public interface IdMaskEngine {
         private static final String ALGORITHM = "AES/ECB/NoPadding";
         private static final int ENGINE_ID = 0;
 
+        private ThreadLocal<Scratch> scratchThreadLocal = new ThreadLocal<>();
+
         EightByteEncryptionEngine(KeyManager keyManager) {
             this(keyManager, null, new SecureRandom(), new ByteToTextEncoding.Base64Url(), false, false);
         }
@@ -278,96 +623,362 @@ public interface IdMaskEngine {
 
         @Override
         public CharSequence mask(byte[] plainId) {
+            final Scratch scratch = encrypt(plainId);
+            try {
+                return encoding.encode(scratch.out);
+            } finally {
+                wipe(scratch);
+            }
+        }
+
+        @Override
+        public void maskTo(byte[] plainId, Appendable target) throws IOException {
+            Objects.requireNonNull(target, "target");
+            final Scratch scratch = encrypt(plainId);
+            try {
+                encoding.encodeTo(scratch.out, target);
+            } finally {
+                wipe(scratch);
+            }
+        }
+
+        @Override
+        public int maskTo(byte[] plainId, char[] dst, int offset) {
+            Objects.requireNonNull(dst, "dst");
+            final Scratch scratch = encrypt(plainId);
+            try {
+                return encoding.encodeTo(scratch.out, dst, offset);
+            } finally {
+                wipe(scratch);
+            }
+        }
+
+        @Override
+        public int maskedLength() {
+            return encoding.encodedLength(1 + (randomizeIds ? getSupportedIdByteLength() : 0) + 2 * getSupportedIdByteLength());
+        }
+
+        @Override
+        public void warmUp(int iterations) {
+            warmUp(this, getSupportedIdByteLength(), iterations);
+        }
+
+        /**
+         * Encrypts given id into the raw masked id buffer of the current thread's scratch
+         *
+         * @param plainId to encrypt
+         * @return scratch containing the raw masked id in {@link Scratch#out}
+         */
+        private Scratch encrypt(byte[] plainId) {
             if (plainId.length != getSupportedIdByteLength()) {
                 throw new IllegalArgumentException("input must be 8 byte long");
             }
 
-            byte[] random = null;
-            byte[] message = null;
-            byte[] cipherText = null;
+            final Scratch scratch = getScratch();
+            final byte[] message = scratch.message;
+            final byte[] out = scratch.out;
+            final int cipherTextOffset = out.length - message.length;
             try {
-                random = getEntropyBytes(getSupportedIdByteLength());
-                message = Bytes.wrap(random).append(plainId).array();
-                SecretKey secretKey = new SecretKeySpec(Bytes.from(getCurrentIdKey(), 0, 16).array(), "AES");
+                if (randomizeIds) {
+                    secureRandom.nextBytes(scratch.entropy);
+                    System.arraycopy(scratch.entropy, 0, out, 1, scratch.entropy.length);
+                }
+                System.arraycopy(scratch.entropy, 0, message, 0, scratch.entropy.length);
+                System.arraycopy(plainId, 0, message, scratch.entropy.length, plainId.length);
+
+                KeyManager.IdSecretKey activeKey = getActiveIdKey();
+                byte keyId = (byte) activeKey.getKeyId();
+                Cipher c = getKeyedCipher(Cipher.ENCRYPT_MODE, keyId, activeKey.getKeyBytes());
+                c.doFinal(message, 0, message.length, out, cipherTextOffset);
+
+                out[0] = createVersionByte(keyId, out[cipherTextOffset]);
+                return scratch;
+            } catch (GeneralSecurityException e) {
+                wipe(scratch);
+                throw new IllegalStateException(e);
+            } catch (RuntimeException e) {
+                wipe(scratch);
+                throw e;
+            }
+        }
+
+        private void wipe(Scratch scratch) {
+            if (autoWipeMemory) {
+                scratch.wipe();
+            }
+        }
 
-                Cipher c = getCipher();
-                c.init(Cipher.ENCRYPT_MODE, secretKey);
-                cipherText = c.doFinal(message);
+        @Override
+        public byte[] unmask(CharSequence maskedId) {
+            return unmask(maskedId, 0, Objects.requireNonNull(maskedId, "maskedId").length());
+        }
 
-                final ByteBuffer bb;
-                byte version = createVersionByte((byte) keyManager.getActiveKeyId(), cipherText);
-                if (randomizeIds) {
-                    bb = ByteBuffer.allocate(1 + random.length + cipherText.length);
-                    bb.put(version);
-                    bb.put(random);
-                    bb.put(cipherText);
-                } else {
-                    bb = ByteBuffer.allocate(1 + cipherText.length);
-                    bb.put(version);
-                    bb.put(cipherText);
+        @Override
+        public byte[] unmask(CharSequence maskedId, int start, int end) {
+            return unmask(maskedId, start, end, null);
+        }
+
+        @Override
+        byte[] unmask(CharSequence maskedId, int start, int end, @Nullable IdMaskSecurityException.Reason[] failure) {
+            if (!checkInput(maskedId, start, end, failure)) {
+                return null;
+            }
+
+            final Scratch scratch = getScratch();
+            final byte[] decoded = scratch.out;
+            final byte[] message = scratch.message;
+
+            final int decodedLength = decodeTo(maskedId, start, end, decoded, failure);
+            if (decodedLength != decoded.length) {
+                return fail(failure, IdMaskSecurityException.Reason.MALFORMED_ID, "unexpected message id length " + decodedLength);
+            }
+
+            final int entropyLength = scratch.entropy.length;
+            final int cipherTextOffset = decoded.length - message.length;
+            final byte version = decoded[0];
+            try {
+                final byte[] currentSecretKey = checkAndGetCurrentKey(version, decoded[cipherTextOffset], failure);
+                if (currentSecretKey == null) {
+                    return null;
                 }
 
                 try {
-                    return encoding.encode(bb.array());
-                } finally {
-                    Bytes.wrap(bb.array()).mutable().secureWipe();
+                    Cipher c = getKeyedCipher(Cipher.DECRYPT_MODE, getKeyIdFromVersion(version, decoded[cipherTextOffset]), currentSecretKey);
+                    c.doFinal(decoded, cipherTextOffset, message.length, message, 0);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+
+                // constant time compare of the reference entropy: either the prepended random or zeros
+                int diff = 0;
+                for (int i = 0; i < entropyLength; i++) {
+                    diff |= message[i] ^ (randomizeIds ? decoded[1 + i] : 0);
+                }
+
+                if (diff != 0) {
+                    return fail(failure, IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, "internal reference entropy does not match, probably forgery attempt or incorrect key");
+                }
+
+                return Arrays.copyOfRange(message, entropyLength, message.length);
+            } finally {
+                if (autoWipeMemory) {
+                    scratch.wipe();
+                }
+            }
+        }
+
+        private Scratch getScratch() {
+            Scratch scratch = scratchThreadLocal.get();
+            if (scratch == null) {
+                scratch = new Scratch(getSupportedIdByteLength(), randomizeIds);
+                scratchThreadLocal.set(scratch);
+            }
+            return scratch;
+        }
+
+        /**
+         * Reusable per-thread buffers, so masking and unmasking does not need to allocate temporary arrays.
+         */
+        private static final class Scratch {
+            /**
+             * Reference value; stays all zero in deterministic mode
+             */
+            private final byte[] entropy;
+            /**
+             * The single AES block: entropy | id
+             */
+            private final byte[] message;
+            /**
+             * Raw masked id: version | (entropy) | cipher text; mask output and unmask input
+             */
+            private final byte[] out;
+
+            Scratch(int idLength, boolean randomizeIds) {
+                this.entropy = new byte[idLength];
+                this.message = new byte[2 * idLength];
+                this.out = new byte[1 + (randomizeIds ? idLength : 0) + 2 * idLength];
+            }
+
+            void wipe() {
+                Arrays.fill(entropy, (byte) 0);
+                Arrays.fill(message, (byte) 0);
+                Arrays.fill(out, (byte) 0);
+            }
+        }
+
+        /**
+         * Since every id is exactly one AES block and ECB does not chain blocks, all ids of the batch
+         * can be encrypted with a single cipher call.
+         *
+         * @param plainIds (aka plaintexts) to mask
+         * @return masked ids
+         */
+        @Override
+        public CharSequence[] maskAll(byte[][] plainIds) {
+            Objects.requireNonNull(plainIds, "plainIds");
+
+            final int idLength = getSupportedIdByteLength();
+            final int blockLength = 2 * idLength;
+
+            for (byte[] plainId : plainIds) {
+                if (Objects.requireNonNull(plainId, "plainId").length != idLength) {
+                    throw new IllegalArgumentException("input must be 8 byte long");
+                }
+            }
+
+            if (plainIds.length == 0) {
+                return new CharSequence[0];
+            }
+
+            byte[] random = null;
+            byte[] messages = null;
+            byte[] cipherTexts = null;
+            try {
+                random = getEntropyBytes(plainIds.length * idLength);
+                messages = new byte[plainIds.length * blockLength];
+
+                for (int i = 0; i < plainIds.length; i++) {
+                    System.arraycopy(random, i * idLength, messages, i * blockLength, idLength);
+                    System.arraycopy(plainIds[i], 0, messages, i * blockLength + idLength, idLength);
                 }
+
+                KeyManager.IdSecretKey activeKey = getActiveIdKey();
+                byte keyId = (byte) activeKey.getKeyId();
+                Cipher c = getKeyedCipher(Cipher.ENCRYPT_MODE, keyId, activeKey.getKeyBytes());
+                cipherTexts = c.doFinal(messages);
+
+                CharSequence[] result = new CharSequence[plainIds.length];
+                for (int i = 0; i < plainIds.length; i++) {
+                    byte[] out = new byte[1 + (randomizeIds ? idLength : 0) + blockLength];
+                    out[0] = createVersionByte(keyId, cipherTexts[i * blockLength]);
+                    if (randomizeIds) {
+                        System.arraycopy(random, i * idLength, out, 1, idLength);
+                    }
+                    System.arraycopy(cipherTexts, i * blockLength, out, out.length - blockLength, blockLength);
+
+                    try {
+                        result[i] = encoding.encode(out);
+                    } finally {
+                        Bytes.wrap(out).mutable().secureWipe();
+                    }
+                }
+                return result;
             } catch (Exception e) {
                 throw new IllegalStateException(e);
             } finally {
                 if (autoWipeMemory) {
                     Bytes.wrapNullSafe(random).mutable().secureWipe();
-                    Bytes.wrapNullSafe(message).mutable().secureWipe();
-                    Bytes.wrapNullSafe(cipherText).mutable().secureWipe();
+                    Bytes.wrapNullSafe(messages).mutable().secureWipe();
+                    Bytes.wrapNullSafe(cipherTexts).mutable().secureWipe();
                 }
             }
         }
 
+        /**
+         * Decrypts all masked ids using the same key with a single cipher call. Usually this means the whole batch,
+         * only if ids of multiple (legacy) keys are mixed, one call per key id is necessary.
+         *
+         * @param maskedIds to unmask
+         * @return unmasked ids
+         */
         @Override
-        public byte[] unmask(CharSequence maskedId) {
-            checkInput(maskedId);
+        public byte[][] unmaskAll(CharSequence[] maskedIds) {
+            Objects.requireNonNull(maskedIds, "maskedIds");
 
-            ByteBuffer bb = ByteBuffer.wrap(encoding.decode(maskedId));
+            final int idLength = getSupportedIdByteLength();
+            final int blockLength = 2 * idLength;
+            final int n = maskedIds.length;
 
-            if (bb.remaining() != 1 + (randomizeIds ? 3 : 2) * getSupportedIdByteLength()) {
-                throw new IllegalArgumentException("unexpected message id length " + bb.remaining());
-            }
+            final Scratch scratch = getScratch();
+            final byte[] decoded = scratch.out;
 
             byte[] entropyData = null;
-            byte[] cipherText = null;
-            byte[] message = null;
-            byte version = bb.get();
+            byte[] cipherTexts = null;
+            byte[] messages = null;
             try {
-                entropyData = getEntropyBytes(getSupportedIdByteLength());
-                if (randomizeIds) {
-                    bb.get(entropyData);
-                }
+                // reference entropy: the prepended random or zeros
+                entropyData = new byte[n * idLength];
+                cipherTexts = new byte[n * blockLength];
+                messages = new byte[n * blockLength];
 
-                cipherText = new byte[bb.remaining()];
-                bb.get(cipherText);
+                byte[][] keys = new byte[n][];
+                byte[] keyIds = new byte[n];
 
-                final byte[] currentSecretKey = checkAndGetCurrentKey(version, cipherText);
+                for (int i = 0; i < n; i++) {
+                    checkInput(maskedIds[i]);
 
-                try {
-                    SecretKey secretKey = new SecretKeySpec(Bytes.from(currentSecretKey, 0, 16).array(), "AES");
-                    Cipher c = getCipher();
-                    c.init(Cipher.DECRYPT_MODE, secretKey);
-                    message = c.doFinal(cipherText);
-                } catch (Exception e) {
-                    throw new IllegalStateException(e);
+                    int decodedLength = decodeTo(maskedIds[i], 0, maskedIds[i].length(), decoded, null);
+                    if (decodedLength != decoded.length) {
+                        throw new IllegalArgumentException("unexpected message id length " + decodedLength);
+                    }
+
+                    byte version = decoded[0];
+                    if (randomizeIds) {
+                        System.arraycopy(decoded, 1, entropyData, i * idLength, idLength);
+                    }
+                    System.arraycopy(decoded, decoded.length - blockLength, cipherTexts, i * blockLength, blockLength);
+
+                    keys[i] = checkAndGetCurrentKey(version, cipherTexts[i * blockLength]);
+                    keyIds[i] = getKeyIdFromVersion(version, cipherTexts[i * blockLength]);
                 }
 
-                if (!Bytes.from(message, 0, getSupportedIdByteLength()).equalsConstantTime(entropyData)) {
-                    throw new IdMaskSecurityException("internal reference entropy does not match, probably forgery attempt or incorrect key", IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY);
+                boolean[] decrypted = new boolean[n];
+                int[] group = new int[n];
+                for (int i = 0; i < n; i++) {
+                    if (decrypted[i]) {
+                        continue;
+                    }
+
+                    int groupSize = 0;
+                    for (int j = i; j < n; j++) {
+                        if (!decrypted[j] && keyIds[j] == keyIds[i]) {
+                            group[groupSize++] = j;
+                        }
+                    }
+
+                    byte[] groupCipherTexts = new byte[groupSize * blockLength];
+                    for (int k = 0; k < groupSize; k++) {
+                        System.arraycopy(cipherTexts, group[k] * blockLength, groupCipherTexts, k * blockLength, blockLength);
+                    }
+
+                    byte[] groupMessages;
+                    try {
+                        Cipher c = getKeyedCipher(Cipher.DECRYPT_MODE, keyIds[i], keys[i]);
+                        groupMessages = c.doFinal(groupCipherTexts);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+
+                    for (int k = 0; k < groupSize; k++) {
+                        System.arraycopy(groupMessages, k * blockLength, messages, group[k] * blockLength, blockLength);
+                        decrypted[group[k]] = true;
+                    }
+
+                    if (autoWipeMemory) {
+                        Bytes.wrap(groupMessages).mutable().secureWipe();
+                    }
                 }
 
-                return Bytes.from(message, 8, getSupportedIdByteLength()).array();
+                byte[][] result = new byte[n][];
+                for (int i = 0; i < n; i++) {
+                    // constant time compare, same as in unmask()
+                    int diff = 0;
+                    for (int j = 0; j < idLength; j++) {
+                        diff |= messages[i * blockLength + j] ^ entropyData[i * idLength + j];
+                    }
 
+                    if (diff != 0) {
+                        throw new IdMaskSecurityException("internal reference entropy does not match, probably forgery attempt or incorrect key", IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY);
+                    }
+                    result[i] = Arrays.copyOfRange(messages, i * blockLength + idLength, (i + 1) * blockLength);
+                }
+                return result;
             } finally {
+                wipe(scratch);
                 if (autoWipeMemory) {
                     Bytes.wrapNullSafe(entropyData).mutable().secureWipe();
-                    Bytes.wrapNullSafe(cipherText).mutable().secureWipe();
-                    Bytes.wrapNullSafe(message).mutable().secureWipe();
+                    Bytes.wrapNullSafe(cipherTexts).mutable().secureWipe();
+                    Bytes.wrapNullSafe(messages).mutable().secureWipe();
                 }
             }
         }
@@ -442,6 +1053,8 @@ public interface IdMaskEngine {
         private final boolean highSecurityMode;
 
         private ThreadLocal<Mac> macThreadLocal = new ThreadLocal<>();
+        private ThreadLocal<KeyedMacs> keyedMacThreadLocal = new ThreadLocal<>();
+        private final AtomicReferenceArray<DerivedKeys> derivedKeysTable = new AtomicReferenceArray<>(MAX_KEY_ID + 1);
 
         SixteenByteEngine(KeyManager keyManager) {
             this(keyManager, false, new ByteToTextEncoding.Base64Url(), new SecureRandom(), null, false, false);
@@ -452,9 +1065,66 @@ public interface IdMaskEngine {
             this.highSecurityMode = highSecurityMode;
         }
 
-        @SuppressWarnings("Duplicates")
         @Override
         public CharSequence mask(byte[] plainId) {
+            final byte[] rawMaskedId = encrypt(plainId);
+            try {
+                return encoding.encode(rawMaskedId);
+            } finally {
+                wipe(rawMaskedId);
+            }
+        }
+
+        @Override
+        public void maskTo(byte[] plainId, Appendable target) throws IOException {
+            Objects.requireNonNull(target, "target");
+            final byte[] rawMaskedId = encrypt(plainId);
+            try {
+                encoding.encodeTo(rawMaskedId, target);
+            } finally {
+                wipe(rawMaskedId);
+            }
+        }
+
+        @Override
+        public int maskTo(byte[] plainId, char[] dst, int offset) {
+            Objects.requireNonNull(dst, "dst");
+            final byte[] rawMaskedId = encrypt(plainId);
+            try {
+                return encoding.encodeTo(rawMaskedId, dst, offset);
+            } finally {
+                wipe(rawMaskedId);
+            }
+        }
+
+        @Override
+        public int maskedLength() {
+            return encoding.encodedLength(getRawMaskedIdLength());
+        }
+
+        @Override
+        public void warmUp(int iterations) {
+            warmUp(this, getSupportedIdByteLength(), iterations);
+        }
+
+        private int getRawMaskedIdLength() {
+            return 1 + getSupportedIdByteLength() + (randomizeIds ? getSupportedIdByteLength() : 0) + getMacLength();
+        }
+
+        private void wipe(byte[] rawMaskedId) {
+            if (autoWipeMemory) {
+                Bytes.wrap(rawMaskedId).mutable().secureWipe();
+            }
+        }
+
+        /**
+         * Encrypts and authenticates given id
+         *
+         * @param plainId to encrypt
+         * @return raw masked id: version | (entropy) | cipher text | mac
+         */
+        @SuppressWarnings("Duplicates")
+        private byte[] encrypt(byte[] plainId) {
             Objects.requireNonNull(plainId, "id");
 
             if (plainId.length != getSupportedIdByteLength()) {
@@ -462,27 +1132,18 @@ public interface IdMaskEngine {
             }
 
             byte[] entropy = null;
-            byte[] keys = null;
-            byte[] currentKey = null;
-            byte[] iv;
-            byte[] macKey = null;
             byte[] encryptedId = null;
             byte[] mac = null;
             try {
                 entropy = getEntropyBytes(getSupportedIdByteLength());
-                keys = hkdf.expand(getCurrentIdKey(), entropy, 64);
 
-                currentKey = Bytes.from(keys, 0, 16).array();
-                iv = Bytes.from(keys, 16, 16).array();
-                macKey = Bytes.from(keys, 32, 32).array();
+                KeyManager.IdSecretKey activeKey = getActiveIdKey();
+                byte keyId = (byte) activeKey.getKeyId();
+                DerivedKeys keys = getDerivedKeys(keyId, activeKey.getKeyBytes(), entropy);
 
-                Cipher cipher = getCipher();
-                cipher.init(Cipher.ENCRYPT_MODE,
-                        new SecretKeySpec(currentKey, "AES"),
-                        new IvParameterSpec(iv));
-                encryptedId = cipher.doFinal(Bytes.from(plainId).xor(entropy).array());
-                byte version = createVersionByte((byte) keyManager.getActiveKeyId(), encryptedId);
-                mac = Bytes.from(macCipherText(macKey, encryptedId, iv, new byte[]{version}), 0, getMacLength()).array();
+                encryptedId = getCipher(Cipher.ENCRYPT_MODE, keyId, keys).doFinal(Bytes.from(plainId).xor(entropy).array());
+                byte version = createVersionByte(keyId, encryptedId[0]);
+                mac = Bytes.from(macCipherText(getMac(keyId, keys), encryptedId, keys.iv, new byte[]{version}), 0, getMacLength()).array();
 
                 ByteBuffer bb = ByteBuffer.allocate(1 + encryptedId.length + mac.length + (randomizeIds ? entropy.length : 0));
                 bb.put(version);
@@ -494,35 +1155,43 @@ public interface IdMaskEngine {
                 bb.put(encryptedId);
                 bb.put(mac);
 
-                return encoding.encode(bb.array());
+                return bb.array();
             } catch (Exception e) {
                 throw new IllegalStateException(e);
             } finally {
                 if (autoWipeMemory) {
                     Bytes.wrapNullSafe(entropy).mutable().secureWipe();
-                    Bytes.wrapNullSafe(keys).mutable().secureWipe();
-                    Bytes.wrapNullSafe(currentKey).mutable().secureWipe();
-                    Bytes.wrapNullSafe(macKey).mutable().secureWipe();
                     Bytes.wrapNullSafe(encryptedId).mutable().secureWipe();
                     Bytes.wrapNullSafe(mac).mutable().secureWipe();
                 }
             }
         }
 
-        @SuppressWarnings("Duplicates")
         @Override
         public byte[] unmask(CharSequence maskedId) {
-            checkInput(maskedId);
+            return unmask(maskedId, 0, Objects.requireNonNull(maskedId, "maskedId").length());
+        }
+
+        @Override
+        public byte[] unmask(CharSequence maskedId, int start, int end) {
+            return unmask(maskedId, start, end, null);
+        }
 
-            ByteBuffer bb = ByteBuffer.wrap(encoding.decode(maskedId));
+        @SuppressWarnings("Duplicates")
+        @Override
+        byte[] unmask(CharSequence maskedId, int start, int end, @Nullable IdMaskSecurityException.Reason[] failure) {
+            if (!checkInput(maskedId, start, end, failure)) {
+                return null;
+            }
 
-            checkDecodedLength(bb.remaining());
+            byte[] decoded = new byte[getRawMaskedIdLength()];
+            int decodedLength = decodeTo(maskedId, start, end, decoded, failure);
+            if (decodedLength != decoded.length) {
+                return fail(failure, IdMaskSecurityException.Reason.MALFORMED_ID, "unexpected message id length " + decodedLength + " - expected " + decoded.length);
+            }
+            ByteBuffer bb = ByteBuffer.wrap(decoded);
 
             byte[] entropy;
-            byte[] keys = null;
-            byte[] currentKey = null;
-            byte[] iv = null;
-            byte[] macKey = null;
             byte[] cipherText = null;
             byte[] mac = null;
             byte[] refMac = null;
@@ -538,22 +1207,19 @@ public interface IdMaskEngine {
                 mac = new byte[getMacLength()];
                 bb.get(mac);
 
-                byte[] currentSecretKey = checkAndGetCurrentKey(version, cipherText);
-
-                keys = hkdf.expand(currentSecretKey, entropy, 64);
-
-                currentKey = Bytes.from(keys, 0, 16).array();
-                iv = Bytes.from(keys, 16, 16).array();
-                macKey = Bytes.from(keys, 32, 32).array();
+                byte[] currentSecretKey = checkAndGetCurrentKey(version, cipherText[0], failure);
+                if (currentSecretKey == null) {
+                    return null;
+                }
+                byte keyId = getKeyIdFromVersion(version, cipherText[0]);
+                DerivedKeys keys = getDerivedKeys(keyId, currentSecretKey, entropy);
 
-                refMac = Bytes.from(macCipherText(macKey, cipherText, iv, new byte[]{version}), 0, getMacLength()).array();
+                refMac = Bytes.from(macCipherText(getMac(keyId, keys), cipherText, keys.iv, new byte[]{version}), 0, getMacLength()).array();
                 if (!Bytes.wrap(mac).equalsConstantTime(refMac)) {
-                    throw new IdMaskSecurityException("mac does not match", IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY);
+                    return fail(failure, IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, "mac does not match");
                 }
                 try {
-                    Cipher cipher = getCipher();
-                    cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(currentKey, "AES"), new IvParameterSpec(iv));
-                    return Bytes.wrap(cipher.doFinal(cipherText)).xor(entropy).array();
+                    return Bytes.wrap(getCipher(Cipher.DECRYPT_MODE, keyId, keys).doFinal(cipherText)).xor(entropy).array();
                 } catch (Exception e) {
                     throw new IllegalStateException(e);
                 }
@@ -561,63 +1227,144 @@ public interface IdMaskEngine {
                 if (autoWipeMemory) {
                     Bytes.wrapNullSafe(cipherText).mutable().secureWipe();
                     Bytes.wrapNullSafe(mac).mutable().secureWipe();
-                    Bytes.wrapNullSafe(keys).mutable().secureWipe();
-                    Bytes.wrapNullSafe(currentKey).mutable().secureWipe();
-                    Bytes.wrapNullSafe(iv).mutable().secureWipe();
-                    Bytes.wrapNullSafe(macKey).mutable().secureWipe();
                     Bytes.wrapNullSafe(refMac).mutable().secureWipe();
                 }
             }
         }
 
-        private void checkDecodedLength(int size) {
-            int expectedLength = 1 + getSupportedIdByteLength() + (randomizeIds ? getSupportedIdByteLength() : 0) + getMacLength();
-            if (size != expectedLength) {
-                throw new IllegalArgumentException("unexpected message id length " + size + " - expected " + expectedLength);
+        @Override
+        public CharSequence[] maskAll(byte[][] plainIds) {
+            Objects.requireNonNull(plainIds, "plainIds");
+
+            // every id has its own derived iv & keys in CBC mode, so there is nothing to share between ids
+            CharSequence[] result = new CharSequence[plainIds.length];
+            for (int i = 0; i < plainIds.length; i++) {
+                result[i] = mask(plainIds[i]);
+            }
+            return result;
+        }
+
+        @Override
+        public byte[][] unmaskAll(CharSequence[] maskedIds) {
+            Objects.requireNonNull(maskedIds, "maskedIds");
+
+            byte[][] result = new byte[maskedIds.length][];
+            for (int i = 0; i < maskedIds.length; i++) {
+                result[i] = unmask(maskedIds[i]);
             }
+            return result;
         }
 
         private int getMacLength() {
             return highSecurityMode ? MAC_LENGTH_LONG : MAC_LENGTH_SHORT;
         }
 
-        private byte[] macCipherText(byte[] rawEncryptionKey, byte[] cipherText, byte[] iv, byte[] associatedData) {
-            SecretKey macKey = createMacKey(rawEncryptionKey);
+        @Override
+        void prepareKeys(KeyManager derivedKeyManager) {
+            if (!randomizeIds) {
+                KeyManager.IdSecretKey activeKey = derivedKeyManager.getActiveKey();
+                getDerivedKeys(activeKey.getKeyId(), activeKey.getKeyBytes(), getEntropyBytes(getSupportedIdByteLength()));
+            }
+        }
+
+        /**
+         * Get the derived key material (aes key, iv and mac key) for given secret key and entropy.
+         * <p>
+         * In deterministic mode the entropy is always zero, so the derived keys only depend on the secret key and
+         * are computed only once per key id. In randomized mode they have to be derived for every call.
+         *
+         * @param keyId     of the secret key
+         * @param secretKey to derive from
+         * @param entropy   used as info parameter in the expand step
+         * @return derived keys
+         */
+        private DerivedKeys getDerivedKeys(int keyId, byte[] secretKey, byte[] entropy) {
+            if (randomizeIds) {
+                return deriveKeys(secretKey, entropy);
+            }
+
+            DerivedKeys keys = derivedKeysTable.get(keyId);
+            if (keys == null || keys.secretKey != secretKey) {
+                keys = deriveKeys(secretKey, entropy);
+                derivedKeysTable.set(keyId, keys);
+            }
+            return keys;
+        }
+
+        private DerivedKeys deriveKeys(byte[] secretKey, byte[] entropy) {
+            byte[] okm = null;
+            byte[] rawMacKey = null;
+            try {
+                okm = hkdf.expand(secretKey, entropy, 64);
+                rawMacKey = Bytes.from(okm, 32, 32).array();
+                return new DerivedKeys(secretKey,
+                        new SecretKeySpec(okm, 0, 16, "AES"),
+                        Bytes.from(okm, 16, 16).array(),
+                        createMacKey(rawMacKey));
+            } finally {
+                if (autoWipeMemory) {
+                    Bytes.wrapNullSafe(okm).mutable().secureWipe();
+                    Bytes.wrapNullSafe(rawMacKey).mutable().secureWipe();
+                }
+            }
+        }
+
+        private Cipher getCipher(int opMode, int keyId, DerivedKeys keys) throws GeneralSecurityException {
+            if (randomizeIds) {
+                Cipher cipher = getCipher();
+                cipher.init(opMode, keys.aesKey, keys.ivSpec);
+                return cipher;
+            }
+            return getKeyedCipher(opMode, keyId, keys, keys.aesKey, keys.ivSpec);
+        }
 
+        private Mac getMac(int keyId, DerivedKeys keys) {
             try {
-                Mac hmac = createHmacInstance();
-                hmac.init(macKey);
-                hmac.update(iv);
-                hmac.update(cipherText);
+                if (randomizeIds) {
+                    Mac mac = createHmacInstance();
+                    mac.init(keys.macKey);
+                    return mac;
+                }
 
-                if (associatedData != null) {
-                    hmac.update(associatedData);
+                KeyedMacs keyedMacs = keyedMacThreadLocal.get();
+                if (keyedMacs == null) {
+                    keyedMacs = new KeyedMacs();
+                    keyedMacThreadLocal.set(keyedMacs);
                 }
 
-                return hmac.doFinal();
+                if (keyedMacs.keyRefs[keyId] != keys) {
+                    Mac mac = keyedMacs.macs[keyId] != null ? keyedMacs.macs[keyId] : createMacInstance();
+                    mac.init(keys.macKey);
+                    keyedMacs.macs[keyId] = mac;
+                    keyedMacs.keyRefs[keyId] = keys;
+                }
+                return keyedMacs.macs[keyId];
             } catch (InvalidKeyException e) {
                 // due to key generation in createMacKey(byte[]) this actually can not happen
                 throw new IllegalStateException("error during HMAC calculation");
             }
         }
 
+        private byte[] macCipherText(Mac hmac, byte[] cipherText, byte[] iv, byte[] associatedData) {
+            hmac.update(iv);
+            hmac.update(cipherText);
+
+            if (associatedData != null) {
+                hmac.update(associatedData);
+            }
+
+            return hmac.doFinal();
+        }
+
         private SecretKey createMacKey(byte[] rawEncryptionKey) {
             byte[] derivedMacKey = HKDF.fromHmacSha256().expand(rawEncryptionKey, Bytes.from("macKey").array(), 32);
             return new SecretKeySpec(derivedMacKey, HMAC_ALGORITHM);
         }
 
-        private synchronized Mac createHmacInstance() {
+        private Mac createHmacInstance() {
             Mac mac = macThreadLocal.get();
             if (mac == null) {
-                try {
-                    if (provider != null) {
-                        mac = Mac.getInstance(HMAC_ALGORITHM, provider);
-                    } else {
-                        mac = Mac.getInstance(HMAC_ALGORITHM);
-                    }
-                } catch (Exception e) {
-                    throw new IllegalStateException("could not get cipher instance", e);
-                }
+                mac = createMacInstance();
                 macThreadLocal.set(mac);
                 return macThreadLocal.get();
             } else {
@@ -625,6 +1372,45 @@ public interface IdMaskEngine {
             }
         }
 
+        private Mac createMacInstance() {
+            try {
+                if (provider != null) {
+                    return Mac.getInstance(HMAC_ALGORITHM, provider);
+                } else {
+                    return Mac.getInstance(HMAC_ALGORITHM);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException("could not get cipher instance", e);
+            }
+        }
+
+        /**
+         * Key material derived from a secret key used for a single id, or in deterministic mode, for all ids of a key id.
+         */
+        private static final class DerivedKeys {
+            private final byte[] secretKey;
+            private final SecretKeySpec aesKey;
+            private final byte[] iv;
+            private final IvParameterSpec ivSpec;
+            private final SecretKey macKey;
+
+            DerivedKeys(byte[] secretKey, SecretKeySpec aesKey, byte[] iv, SecretKey macKey) {
+                this.secretKey = secretKey;
+                this.aesKey = aesKey;
+                this.iv = iv;
+                this.ivSpec = new IvParameterSpec(iv);
+                this.macKey = macKey;
+            }
+        }
+
+        /**
+         * Initialized macs of a single thread per key id, see {@link BaseEngine#getKeyedCipher(int, int, byte[])}.
+         */
+        private static final class KeyedMacs {
+            private final Mac[] macs = new Mac[MAX_KEY_ID + 1];
+            private final Object[] keyRefs = new Object[MAX_KEY_ID + 1];
+        }
+
         @Override
         protected String getCipherAlgorithm() {
             return ALGORITHM;
@@ -27,6 +27,12 @@ public class IdMaskSecurityException extends SecurityException {
          * The encoded key id in the version byte is unknown.
          */
         UNKNOWN_KEY_ID,
+
+        /**
+         * The masked id has the wrong length or contains characters not part of the encoding. Only reported by
+         * {@link IdMask#tryUnmask(CharSequence)}; unmasking methods throw an {@link IllegalArgumentException} instead.
+         */
+        MALFORMED_ID,
     }
 
     /**
@@ -57,4 +63,30 @@ public class IdMaskSecurityException extends SecurityException {
     public String getMessage() {
         return "[" + reason + "] " + super.getMessage();
     }
+
+    /**
+     * New exception without stack trace for given reason, see {@link Config.Builder#stacklessExceptions(boolean)}
+     *
+     * @param reason of the exception, not {@link Reason#MALFORMED_ID}
+     * @return exception
+     */
+    static IdMaskSecurityException stackless(Reason reason) {
+        return new Stackless(reason);
+    }
+
+    /**
+     * Skips filling in the stack trace, which dominates the costs of creating an exception. Not shared between
+     * throws: suppression can not be disabled for subclasses of {@link SecurityException}, so a shared instance would
+     * collect the suppressed exceptions of all callers.
+     */
+    private static final class Stackless extends IdMaskSecurityException {
+        private Stackless(Reason reason) {
+            super("could not unmask id (stack trace disabled)", reason, null);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
 }
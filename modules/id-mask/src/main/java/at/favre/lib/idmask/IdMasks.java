@@ -22,6 +22,18 @@ public final class IdMasks {
         return new IdMask.LongIdMask(config);
     }
 
+    /**
+     * Create new id mask for masking primitive 64 bit integers without boxing.
+     * <p>
+     * Masked ids are compatible with {@link #forLongIds(Config)} using the same config.
+     *
+     * @param config to adjust settings
+     * @return new instance
+     */
+    public static LongIdMasker forPrimitiveLongIds(Config config) {
+        return new IdMask.LongIdMask(config);
+    }
+
     /**
      * Create new id mask for masking a tuple of 2 x 64 bit integers.
      *
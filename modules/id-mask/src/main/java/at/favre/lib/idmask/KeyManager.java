@@ -3,6 +3,7 @@ package at.favre.lib.idmask;
 import at.favre.lib.bytes.Bytes;
 
 import javax.crypto.SecretKey;
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 import static at.favre.lib.bytes.BytesValidators.*;
@@ -136,6 +137,18 @@ public interface KeyManager {
             return new KeyManager.Default(activeKey, Objects.requireNonNull(legacyKeys, "legacyKeys"));
         }
 
+        /**
+         * Creates a new key manager whose keys can be replaced at runtime with
+         * {@link Rotatable#rotate(IdSecretKey)} or {@link Rotatable#rotate(KeyManager)}, without rebuilding the
+         * {@link IdMask} instances using it.
+         *
+         * @param initial key manager providing the keys until the first rotation
+         * @return rotatable manager
+         */
+        public static Rotatable rotatable(KeyManager initial) {
+            return new Rotatable(initial);
+        }
+
         /**
          * This is only for internal use. Creates a random 16 byte long key
          *
@@ -198,8 +211,152 @@ public interface KeyManager {
         }
     }
 
+    /**
+     * Key manager whose keys can be replaced at runtime, e.g. to rotate the active key without rebuilding
+     * {@link IdMask} instances (which would throw away their caches and prepared ciphers).
+     * <p>
+     * A rotation prepares the new keys for every engine and id mask using this manager (key derivation runs in the
+     * thread calling rotate, not in the mask or unmask calls), then swaps them in with a single volatile write.
+     * Mask and unmask calls never block; calls in flight during the swap complete with either the old or the new
+     * keys. Cached masked ids of the previous key are invalidated; cached unmask results stay valid as long as
+     * their key is still known. Rotations are serialized.
+     * <p>
+     * Engines and id masks are only weakly referenced and are notified in the order they were created.
+     */
+    @SuppressWarnings("WeakerAccess")
+    final class Rotatable implements KeyManager {
+        private final List<WeakReference<RotationListener>> listeners = new ArrayList<>();
+        private volatile KeyManager current;
+
+        Rotatable(KeyManager initial) {
+            this.current = Objects.requireNonNull(initial, "initial");
+        }
+
+        /**
+         * Makes given key the active key. All currently known keys with a different key id are kept as legacy
+         * keys, so ids masked with them can still be unmasked.
+         *
+         * @param newActiveKey new key to mask with
+         */
+        public synchronized void rotate(IdSecretKey newActiveKey) {
+            Objects.requireNonNull(newActiveKey, "newActiveKey");
+            List<IdSecretKey> legacyKeys = new ArrayList<>(current.size());
+            for (int id = 0; id <= MAX_KEY_ID; id++) {
+                IdSecretKey key = current.getById(id);
+                if (key != null && id != newActiveKey.getKeyId()) {
+                    legacyKeys.add(key);
+                }
+            }
+            rotate(new Default(newActiveKey, legacyKeys.toArray(new IdSecretKey[0])));
+        }
+
+        /**
+         * Replaces all keys with the keys of given manager. Ids masked with keys not contained in the new manager
+         * can no longer be unmasked.
+         *
+         * @param next key manager to use from now on
+         */
+        public synchronized void rotate(KeyManager next) {
+            Objects.requireNonNull(next, "next");
+            if (next instanceof Rotatable) {
+                throw new IllegalArgumentException("rotatable key managers cannot be nested");
+            }
+            KeyManager previous = current;
+            Iterator<WeakReference<RotationListener>> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                RotationListener listener = iterator.next().get();
+                if (listener == null) {
+                    iterator.remove();
+                } else {
+                    listener.onRotate(previous, next);
+                }
+            }
+            current = next;
+        }
+
+        /**
+         * Registers a listener notified (in the rotating thread) before the keys are swapped
+         *
+         * @param listener to register, only weakly referenced
+         * @return the key manager active at the time of registration
+         */
+        synchronized KeyManager addListener(RotationListener listener) {
+            listeners.add(new WeakReference<>(listener));
+            return current;
+        }
+
+        /**
+         * The key manager currently providing the keys
+         *
+         * @return current manager
+         */
+        KeyManager current() {
+            return current;
+        }
+
+        @Override
+        public IdSecretKey getById(int id) {
+            return current.getById(id);
+        }
+
+        @Override
+        public IdSecretKey getActiveKey() {
+            return current.getActiveKey();
+        }
+
+        @Override
+        public int getActiveKeyId() {
+            return current.getActiveKeyId();
+        }
+
+        @Override
+        public int size() {
+            return current.size();
+        }
+
+        @Override
+        public void clear() {
+            current.clear();
+        }
+
+        /**
+         * Checks if every key of given previous manager is still available with the same key id in next
+         *
+         * @param previous manager before the rotation
+         * @param next     manager after the rotation
+         * @return true if all keys are retained
+         */
+        static boolean retainsAllKeys(KeyManager previous, KeyManager next) {
+            for (int id = 0; id <= MAX_KEY_ID; id++) {
+                IdSecretKey key = previous.getById(id);
+                if (key != null && !key.equals(next.getById(id))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Notified on key rotation
+         */
+        interface RotationListener {
+            /**
+             * Called before the keys are swapped; prepare everything needed for the new keys here
+             *
+             * @param previous manager before the rotation
+             * @param next     manager after the rotation
+             */
+            void onRotate(KeyManager previous, KeyManager next);
+        }
+    }
+
     /**
      * Used as cached key derivation proxy.
+     * <p>
+     * All keys of the wrapped manager are derived once on construction and stored in a table indexed by key id
+     * (0 to {@link IdMaskEngine#MAX_KEY_ID}). The table is never modified afterwards (except on {@link #clear()}),
+     * so it is safely published by the final field and every lookup is a single array read without locking or
+     * allocation. Keys added to the wrapped manager later are derived on every call and not cached.
      */
     final class CachedKdfConverter implements KeyManager {
 
@@ -207,27 +364,33 @@ public interface KeyManager {
             return new CachedKdfConverter(keyManager, converter);
         }
 
-        private final Map<Integer, byte[]> cache;
+        private final IdSecretKey[] derivedKeys = new IdSecretKey[MAX_KEY_ID + 1];
         private final KeyManager keyManager;
         private final KdfConverter converter;
 
         CachedKdfConverter(KeyManager keyManager, KdfConverter converter) {
             this.keyManager = Objects.requireNonNull(keyManager, "keyManager");
             this.converter = Objects.requireNonNull(converter, "converter");
-            this.cache = new HashMap<>(keyManager.size());
+            for (int id = 0; id <= MAX_KEY_ID; id++) {
+                derivedKeys[id] = derive(id);
+            }
         }
 
         @Override
         public IdSecretKey getById(int id) {
-            if (!cache.containsKey(id)) {
-                final IdSecretKey k;
-                if ((k = keyManager.getById(id)) != null) {
-                    cache.put(id, converter.convert(k));
-                } else {
-                    return null;
-                }
+            if (id < 0 || id > MAX_KEY_ID) {
+                return null;
             }
-            return new IdSecretKey(id, cache.get(id));
+            IdSecretKey key = derivedKeys[id];
+            return key != null ? key : derive(id);
+        }
+
+        private IdSecretKey derive(int id) {
+            final IdSecretKey k;
+            if ((k = keyManager.getById(id)) != null) {
+                return new IdSecretKey(id, converter.convert(k));
+            }
+            return null;
         }
 
         @Override
@@ -247,6 +410,12 @@ public interface KeyManager {
 
         @Override
         public void clear() {
+            for (int id = 0; id <= MAX_KEY_ID; id++) {
+                if (derivedKeys[id] != null) {
+                    derivedKeys[id].clear();
+                    derivedKeys[id] = null;
+                }
+            }
             keyManager.clear();
         }
 
@@ -0,0 +1,103 @@
+package at.favre.lib.idmask;
+
+import java.io.IOException;
+
+/**
+ * Specialized id mask for primitive 64 bit integer ids.
+ * <p>
+ * Works the same as {@link IdMask} for {@link Long}, and produces the same masked ids with
+ * the same config, but never boxes ids. Use this when masking a large number of ids.
+ * <p>
+ * LongIdMasker should be thread-safe.
+ */
+public interface LongIdMasker {
+
+    /**
+     * Mask a given id.
+     *
+     * @param id to mask
+     * @return encoded masked id
+     */
+    String mask(long id);
+
+    /**
+     * Mask a given id and append the masked id to given target. Produces the same text as {@link #mask(long)}.
+     *
+     * @param id     to mask
+     * @param target to append the masked id to
+     * @throws IOException if target throws
+     */
+    void maskTo(long id, Appendable target) throws IOException;
+
+    /**
+     * Mask a given id and write the masked id to given char buffer. Produces the same text as {@link #mask(long)}.
+     *
+     * @param id     to mask
+     * @param dst    target buffer, must have at least {@link #maskedLength()} chars left after offset
+     * @param offset in dst to start writing
+     * @return number of chars written
+     * @throws IllegalArgumentException if dst is too small
+     */
+    int maskTo(long id, char[] dst, int offset);
+
+    /**
+     * Length of every masked id created by this instance. Use this to presize buffers.
+     *
+     * @return masked id length in chars
+     */
+    int maskedLength();
+
+    /**
+     * Unmask id that was previously masked with {@link #mask(long)}
+     *
+     * @param encoded to unmask
+     * @return original id
+     * @throws IdMaskSecurityException  if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException if basic parameter validation fails
+     */
+    long unmaskToLong(CharSequence encoded);
+
+    /**
+     * Unmask id contained in given range of a char sequence, e.g. a slice of a request path, without
+     * creating an intermediate string, see {@link IdMask#unmask(CharSequence, int, int)}
+     *
+     * @param encoded containing the masked id
+     * @param start   index of the first char (inclusive)
+     * @param end     index of the last char (exclusive)
+     * @return original id
+     * @throws IdMaskSecurityException   if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException  if basic parameter validation fails
+     * @throws IndexOutOfBoundsException if the range is not within encoded
+     */
+    long unmaskToLong(CharSequence encoded, int start, int end);
+
+    /**
+     * Unmask id without throwing if the masked id is invalid, see {@link IdMask#tryUnmask(CharSequence)}
+     *
+     * @param encoded to unmask
+     * @return result with either the original id or the reason why unmasking failed
+     */
+    IdMask.UnmaskResult<Long> tryUnmask(CharSequence encoded);
+
+    /**
+     * Mask multiple ids in one pass. Same as calling {@link #mask(long)} for every id, but
+     * the whole batch is encrypted with a single cipher call, which is considerably faster for
+     * large batches.
+     *
+     * @param ids to mask
+     * @return encoded masked ids in the same order as the input
+     * @throws IllegalArgumentException if basic parameter validation fails
+     */
+    String[] maskAll(long[] ids);
+
+    /**
+     * Unmask multiple ids previously masked with {@link #mask(long)} or {@link #maskAll(long[])} in one pass.
+     * If a single id can not be unmasked, the whole batch fails.
+     *
+     * @param encoded to unmask
+     * @return original ids in the same order as the input
+     * @throws IdMaskSecurityException  if used secret key, authentication tag, or version identifiers are incorrect
+     * @throws IllegalArgumentException if basic parameter validation fails
+     */
+    long[] unmaskAll(CharSequence[] encoded);
+}
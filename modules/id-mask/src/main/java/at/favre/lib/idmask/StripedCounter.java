@@ -0,0 +1,53 @@
+package at.favre.lib.idmask;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Sum of a fixed number of padded counter cells, a simplified <code>LongAdder</code> (which is not available on
+ * Java 7).
+ * <p>
+ * A thread always updates the cell selected by its thread id, so concurrent threads mostly write to different
+ * cache lines instead of all contending on one atomic value. Reading the sum is not an atomic snapshot.
+ */
+final class StripedCounter {
+    /**
+     * Cells are 8 longs (64 byte) apart, so they do not share a cache line
+     */
+    private static final int PADDING_SHIFT = 3;
+    private static final int MAX_STRIPES = 64;
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES << PADDING_SHIFT);
+
+    void increment() {
+        add(1);
+    }
+
+    void add(long value) {
+        cells.getAndAdd(cellIndex(), value);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i << PADDING_SHIFT);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i << PADDING_SHIFT, 0);
+        }
+    }
+
+    private static int cellIndex() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return ((h >>> 16) & (STRIPES - 1)) << PADDING_SHIFT;
+    }
+
+    private static int stripeCount() {
+        int cpus = Math.min(Runtime.getRuntime().availableProcessors(), MAX_STRIPES);
+        return Integer.highestOneBit(cpus) == cpus ? cpus : Integer.highestOneBit(cpus) << 1;
+    }
+}
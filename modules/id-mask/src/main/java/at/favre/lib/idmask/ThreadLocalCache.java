@@ -0,0 +1,109 @@
+package at.favre.lib.idmask;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tiny per-thread, direct-mapped cache consulted before the shared {@link Cache}. Every id (and masked id) maps
+ * to exactly one slot of the calling thread's table and a new entry simply overwrites the old one, so lookups and
+ * stores need no locks and touch no memory shared with other threads.
+ * <p>
+ * Meant for the few ids every request masks again and again (e.g. current user and tenant), not as a replacement
+ * of the shared cache. Hits are not recorded in the {@link Cache.Stats} of the shared cache.
+ */
+final class ThreadLocalCache {
+    static final int MAX_SIZE = 1024;
+
+    private final int size;
+    private final AtomicInteger epoch = new AtomicInteger();
+    private final ThreadLocal<Table> tables = new ThreadLocal<Table>() {
+        @Override
+        protected Table initialValue() {
+            return new Table(size, epoch.get());
+        }
+    };
+
+    /**
+     * Create new per-thread cache
+     *
+     * @param size number of slots per thread and direction, rounded up to a power of 2, max {@link #MAX_SIZE}
+     */
+    ThreadLocalCache(int size) {
+        if (size < 1 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("thread local cache size must be between 1 and " + MAX_SIZE);
+        }
+        this.size = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+    }
+
+    String getEncoded(byte[] id) {
+        Table table = table();
+        int index = index(Arrays.hashCode(id));
+        byte[] key = table.encodeKeys[index];
+        return key != null && Arrays.equals(key, id) ? table.encodeValues[index] : null;
+    }
+
+    void putEncoded(byte[] id, String encoded) {
+        Table table = table();
+        int index = index(Arrays.hashCode(id));
+        table.encodeKeys[index] = id.clone();
+        table.encodeValues[index] = encoded;
+    }
+
+    /**
+     * @return cached raw id; has to be copied before it is handed out
+     */
+    byte[] getBytes(String encoded) {
+        Table table = table();
+        int index = index(encoded.hashCode());
+        String key = table.decodeKeys[index];
+        return key != null && key.equals(encoded) ? table.decodeValues[index] : null;
+    }
+
+    void putBytes(String encoded, byte[] id) {
+        Table table = table();
+        int index = index(encoded.hashCode());
+        table.decodeKeys[index] = encoded;
+        table.decodeValues[index] = id.clone();
+    }
+
+    /**
+     * Invalidate the tables of all threads; each thread drops its table on its next access
+     */
+    void clear() {
+        epoch.incrementAndGet();
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Table table() {
+        Table table = tables.get();
+        int current = epoch.get();
+        if (table.epoch != current) {
+            table = new Table(size, current);
+            tables.set(table);
+        }
+        return table;
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & (size - 1);
+    }
+
+    private static final class Table {
+        private final int epoch;
+        private final byte[][] encodeKeys;
+        private final String[] encodeValues;
+        private final String[] decodeKeys;
+        private final byte[][] decodeValues;
+
+        Table(int size, int epoch) {
+            this.epoch = epoch;
+            this.encodeKeys = new byte[size][];
+            this.encodeValues = new String[size];
+            this.decodeKeys = new String[size];
+            this.decodeValues = new byte[size][];
+        }
+    }
+}
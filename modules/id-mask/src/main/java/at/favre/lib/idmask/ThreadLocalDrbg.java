@@ -0,0 +1,152 @@
+package at.favre.lib.idmask;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Random generator handing out slices of a per-thread buffer, filled in bulk by an AES-CTR keystream
+ * (a simplified CTR_DRBG). Every thread has its own generator, seeded from the configured {@link SecureRandom}
+ * on first use and again after {@link #RESEED_INTERVAL} bytes, so the (shared and possibly blocking) seed source is
+ * only called once in a while instead of on every masking.
+ * <p>
+ * After every refill the key and counter are replaced with fresh keystream, so a leaked generator state does not
+ * reveal bytes handed out before; consumed bytes are wiped from the buffer.
+ */
+final class ThreadLocalDrbg extends SecureRandom {
+    private static final long serialVersionUID = 1L;
+    static final int BUFFER_SIZE = 4096;
+    static final long RESEED_INTERVAL = 1L << 24;
+    private static final int SEED_LENGTH = 32;
+    private static final byte[] ZEROS = new byte[BUFFER_SIZE];
+
+    private final transient Spi spi;
+
+    private ThreadLocalDrbg(Spi spi) {
+        super(spi, null);
+        this.spi = spi;
+    }
+
+    /**
+     * Create new generator
+     *
+     * @param seedSource used for seeding every thread's generator
+     * @param provider   optional JCA provider for the AES cipher
+     * @return generator
+     */
+    static ThreadLocalDrbg create(SecureRandom seedSource, Provider provider) {
+        return new ThreadLocalDrbg(new Spi(seedSource, provider));
+    }
+
+    @Override
+    public void nextBytes(byte[] bytes) {
+        // SecureRandom#nextBytes is synchronized on older JVMs, call the per-thread generator directly
+        spi.engineNextBytes(bytes);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "AES-CTR-DRBG";
+    }
+
+    private static final class Spi extends SecureRandomSpi {
+        private static final long serialVersionUID = 1L;
+        private final SecureRandom seedSource;
+        private final Provider provider;
+        private final transient ThreadLocal<Generator> generators = new ThreadLocal<>();
+
+        Spi(SecureRandom seedSource, Provider provider) {
+            this.seedSource = Objects.requireNonNull(seedSource, "seedSource");
+            this.provider = provider;
+        }
+
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            // supplements the randomness of the generators created or reseeded from now on
+            seedSource.setSeed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            Generator generator = generators.get();
+            if (generator == null) {
+                generator = new Generator(provider, seedSource);
+                generators.set(generator);
+            }
+            generator.nextBytes(bytes, seedSource);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return seedSource.generateSeed(numBytes);
+        }
+    }
+
+    private static final class Generator {
+        private final Cipher cipher;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final byte[] nextState = new byte[SEED_LENGTH];
+        private int position = BUFFER_SIZE;
+        private long generatedSinceSeed;
+
+        Generator(Provider provider, SecureRandom seedSource) {
+            try {
+                cipher = provider != null ? Cipher.getInstance("AES/CTR/NoPadding", provider) : Cipher.getInstance("AES/CTR/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not create AES-CTR cipher", e);
+            }
+            reseed(seedSource);
+        }
+
+        void nextBytes(byte[] bytes, SecureRandom seedSource) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (position == BUFFER_SIZE) {
+                    refill(seedSource);
+                }
+                int n = Math.min(bytes.length - offset, BUFFER_SIZE - position);
+                System.arraycopy(buffer, position, bytes, offset, n);
+                Arrays.fill(buffer, position, position + n, (byte) 0);
+                position += n;
+                offset += n;
+            }
+        }
+
+        private void refill(SecureRandom seedSource) {
+            if (generatedSinceSeed >= RESEED_INTERVAL) {
+                reseed(seedSource);
+            }
+            try {
+                cipher.update(ZEROS, 0, BUFFER_SIZE, buffer, 0);
+                cipher.update(ZEROS, 0, SEED_LENGTH, nextState, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not generate random bytes", e);
+            }
+            init(nextState);
+            position = 0;
+            generatedSinceSeed += BUFFER_SIZE;
+        }
+
+        private void reseed(SecureRandom seedSource) {
+            seedSource.nextBytes(nextState);
+            init(nextState);
+            generatedSinceSeed = 0;
+        }
+
+        private void init(byte[] state) {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(state, 0, 16, "AES"), new IvParameterSpec(state, 16, 16));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not initialize AES-CTR cipher", e);
+            } finally {
+                Arrays.fill(state, (byte) 0);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package at.favre.lib.idmask;
 
 import org.junit.Before;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -25,6 +26,19 @@ public abstract class ABaseIdMaskTest {
         String encoded = idMask.mask(id);
         T refId = idMask.unmask(encoded);
         assertEquals(id, refId);
+        assertEquals(encoded.length(), idMask.maskedLength());
+
+        char[] buffer = new char[idMask.maskedLength()];
+        assertEquals(buffer.length, idMask.maskTo(id, buffer, 0));
+        assertEquals(id, idMask.unmask(new String(buffer)));
+
+        StringBuilder sb = new StringBuilder();
+        try {
+            idMask.maskTo(id, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        assertEquals(id, idMask.unmask(sb.toString()));
 
         System.out.println(encoded);
     }
@@ -0,0 +1,113 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveBypassCacheTest {
+    private Cache delegate;
+    private AdaptiveBypassCache cache;
+
+    @Before
+    public void setUp() {
+        delegate = new Cache.ConcurrentClockMemCache(64, 4);
+        cache = new AdaptiveBypassCache(delegate);
+    }
+
+    @Test
+    public void testBypassIfNoHits() {
+        missWindow();
+
+        assertTrue(cache.isBypassingEncode());
+        assertFalse(cache.isBypassingDecode());
+
+        byte[] id = Bytes.from(-1L).array();
+        cache.cacheForEncode(id, "bypassed");
+        assertNull(delegate.getEncoded(id));
+        assertNull(cache.getEncoded(id));
+    }
+
+    @Test
+    public void testKeepCacheIfHitsPayOff() {
+        byte[] id = Bytes.from(1L).array();
+        cache.recordLoadTime(true, 100_000);
+        cache.cache(id, "id1");
+        for (int i = 0; i < AdaptiveBypassCache.WINDOW * 4; i++) {
+            assertEquals("id1", cache.getEncoded(id));
+        }
+        assertFalse(cache.isBypassingEncode());
+    }
+
+    @Test
+    public void testKeepCacheIfLowHitRatioButExpensiveLoad() {
+        for (long i = 0; i < AdaptiveBypassCache.WINDOW; i++) {
+            byte[] id = Bytes.from(i % 16 == 0 ? 0 : i).array();
+            if (cache.getEncoded(id) == null) {
+                cache.recordLoadTime(true, 10_000_000);
+                cache.cacheForEncode(id, "id" + i);
+            }
+        }
+        assertFalse(cache.isBypassingEncode());
+    }
+
+    @Test
+    public void testProbeAgainAfterBypass() {
+        missWindow();
+        assertTrue(cache.isBypassingEncode());
+
+        byte[] id = Bytes.from(1L).array();
+        for (int i = 0; i < AdaptiveBypassCache.MIN_BYPASS; i++) {
+            assertNull(cache.getEncoded(id));
+        }
+        assertFalse(cache.isBypassingEncode());
+
+        // hits during probe keep the cache enabled
+        cache.cacheForEncode(id, "id1");
+        for (int i = 0; i < AdaptiveBypassCache.WINDOW; i++) {
+            assertEquals("id1", cache.getEncoded(id));
+        }
+        assertFalse(cache.isBypassingEncode());
+    }
+
+    @Test
+    public void testFailedProbeBypassesLonger() {
+        missWindow();
+        for (int i = 0; i < AdaptiveBypassCache.MIN_BYPASS; i++) {
+            cache.getEncoded(Bytes.from(1L).array());
+        }
+        assertFalse(cache.isBypassingEncode());
+
+        missWindow();
+        assertTrue(cache.isBypassingEncode());
+        for (int i = 0; i < AdaptiveBypassCache.MIN_BYPASS; i++) {
+            cache.getEncoded(Bytes.from(1L).array());
+        }
+        assertTrue(cache.isBypassingEncode());
+        for (int i = 0; i < AdaptiveBypassCache.MIN_BYPASS; i++) {
+            cache.getEncoded(Bytes.from(1L).array());
+        }
+        assertFalse(cache.isBypassingEncode());
+    }
+
+    @Test
+    public void testIdMaskWithNewIdsOnly() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.ConcurrentClockMemCache(64, 4)).build());
+        for (long i = 0; i < AdaptiveBypassCache.WINDOW * 2; i++) {
+            assertEquals(i, (long) idMask.unmask(idMask.mask(i)));
+        }
+        Cache.Stats stats = idMask.cacheStats();
+        assertTrue(stats.encodeMissCount() < AdaptiveBypassCache.WINDOW * 2);
+    }
+
+    private void missWindow() {
+        for (long i = 0; i < AdaptiveBypassCache.WINDOW; i++) {
+            byte[] id = Bytes.from(i + 1000).array();
+            assertNull(cache.getEncoded(id));
+            cache.recordLoadTime(true, 1_000);
+            cache.cacheForEncode(id, "id" + i);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Base64UrlCodecTest {
+
+    @Test
+    public void testCompatibleWithBytesLib() throws Exception {
+        for (int i = 0; i < 64; i++) {
+            byte[] random = Bytes.random(i).array();
+            String ref = Bytes.wrap(random).encodeBase64(true, false);
+
+            assertEquals(ref, Base64UrlCodec.encode(random));
+            assertEquals(ref.length(), Base64UrlCodec.encodedLength(i));
+
+            StringBuilder sb = new StringBuilder();
+            Base64UrlCodec.encodeTo(random, sb);
+            assertEquals(ref, sb.toString());
+
+            assertArrayEquals(random, Base64UrlCodec.decode(ref));
+            assertArrayEquals(random, Base64UrlCodec.decode(Bytes.wrap(random).encodeBase64(true, true)));
+        }
+    }
+
+    @Test
+    public void testMaskedIdLengths() {
+        for (int length : new int[]{17, 25, 33, 41, 49}) {
+            byte[] random = Bytes.random(length).array();
+            char[] buffer = new char[Base64UrlCodec.encodedLength(length)];
+            assertEquals(buffer.length, Base64UrlCodec.encodeTo(random, buffer, 0));
+
+            byte[] decoded = new byte[length];
+            assertEquals(length, Base64UrlCodec.decodeTo(new String(buffer), 0, buffer.length, decoded, 0));
+            assertArrayEquals(random, decoded);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectStandardAlphabet() {
+        Base64UrlCodec.decode("ab+/");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectNonAsciiChar() {
+        Base64UrlCodec.decode("abcä");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectImpossibleLength() {
+        Base64UrlCodec.decode("abcde");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectNonCanonicalTrailingBits() {
+        // "AA" is the canonical encoding of a single zero byte, "AB" sets an unused bit
+        assertArrayEquals(new byte[1], Base64UrlCodec.decode("AA"));
+        Base64UrlCodec.decode("AB");
+    }
+
+    @Test
+    public void testAcceptOnlyImpliedPadding() {
+        assertArrayEquals(new byte[1], Base64UrlCodec.decode("AA=="));
+        assertArrayEquals(new byte[2], Base64UrlCodec.decode("AAA="));
+        assertArrayEquals(new byte[3], Base64UrlCodec.decode("AAAA"));
+
+        for (String invalid : new String[]{"AA=", "AA===", "AAA==", "AAAA=", "AAAA==", "AA=====", "=", "==", "===="}) {
+            assertFalse(invalid, Base64UrlCodec.isValid(invalid, 0, invalid.length()));
+            assertEquals(invalid, -1, Base64UrlCodec.tryDecodeTo(invalid, 0, invalid.length(), new byte[8], 0));
+            try {
+                Base64UrlCodec.decodeTo(invalid, 0, invalid.length(), new byte[8], 0);
+                fail(invalid);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testUnmaskWithOverlongPaddingFails() {
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        String masked = idMask.mask(5L);
+        assertTrue(idMask.tryUnmask(masked).isSuccess());
+        for (String padding : new String[]{"=", "==", "===", "====="}) {
+            if ((masked.length() + padding.length()) % 4 == 0 && padding.length() <= 2) {
+                assertEquals(Long.valueOf(5L), idMask.unmask(masked + padding));
+                continue;
+            }
+            assertFalse(idMask.tryUnmask(masked + padding).isSuccess());
+            try {
+                idMask.unmask(masked + padding);
+                fail(padding);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testIsValidMatchesDecode() {
+        Random random = new Random(42);
+        char[] chars = "AZaz09-_=+/!".toCharArray();
+        for (int i = 0; i < 100_000; i++) {
+            char[] text = new char[random.nextInt(12)];
+            for (int j = 0; j < text.length; j++) {
+                text[j] = random.nextBoolean() ? chars[random.nextInt(chars.length)] : (char) ('A' + random.nextInt(58));
+            }
+            String encoded = new String(text);
+            boolean decodable;
+            try {
+                Base64UrlCodec.decodeTo(encoded, 0, encoded.length(), new byte[16], 0);
+                decodable = true;
+            } catch (IllegalArgumentException e) {
+                decodable = false;
+            }
+            assertEquals(encoded, decodable, Base64UrlCodec.isValid(encoded, 0, encoded.length()));
+        }
+    }
+}
@@ -9,6 +9,8 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 @RunWith(Parameterized.class)
 public class ByteToTextEncodingTest {
@@ -56,4 +58,106 @@ public class ByteToTextEncodingTest {
             System.out.println(String.format("%02d: ", i) + encoded);
         }
     }
+
+    @Test
+    public void testEncodeTo() throws Exception {
+        checkEncodeTo(encoding);
+        checkEncodeTo(ByteToTextEncoding.IdFormatter.wrap(encoding, 5, ".."));
+    }
+
+    private static void checkEncodeTo(ByteToTextEncoding encoding) throws Exception {
+        for (int i = 1; i < 64; i++) {
+            byte[] random = Bytes.random(i).array();
+            String encoded = encoding.encode(random);
+            assertEquals(encoded.length(), encoding.encodedLength(i));
+
+            StringBuilder sb = new StringBuilder("#");
+            encoding.encodeTo(random, sb);
+            assertEquals("#" + encoded, sb.toString());
+
+            char[] buffer = new char[encoding.encodedLength(i) + 2];
+            assertEquals(encoded.length(), encoding.encodeTo(random, buffer, 2));
+            assertEquals(encoded, new String(buffer, 2, encoded.length()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeToBufferTooSmall() {
+        encoding.encodeTo(new byte[16], new char[encoding.encodedLength(16)], 1);
+    }
+
+    @Test
+    public void testEncodingCompatibleWithBytesLib() {
+        for (int i = 1; i < 64; i++) {
+            byte[] random = Bytes.random(i).array();
+            assertEquals(Bytes.wrap(random).encodeBase64(true, false), new ByteToTextEncoding.Base64Url().encode(random));
+            assertEquals(Bytes.wrap(random).encodeHex(), new ByteToTextEncoding.Base16().encode(random));
+        }
+    }
+
+    @Test
+    public void testDecodeTo() {
+        checkDecodeTo(encoding);
+        checkDecodeTo(ByteToTextEncoding.IdFormatter.wrap(encoding, 5, ".."));
+    }
+
+    private static void checkDecodeTo(ByteToTextEncoding encoding) {
+        for (int i = 1; i < 64; i++) {
+            byte[] random = Bytes.random(i).array();
+            String text = "~~" + encoding.encode(random) + "~";
+
+            byte[] buffer = new byte[i + 1];
+            assertEquals(i, encoding.decodeTo(new StringBuilder(text), 2, text.length() - 1, buffer, 1));
+            assertArrayEquals(random, Arrays.copyOfRange(buffer, 1, i + 1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeToBufferTooSmall() {
+        String encoded = encoding.encode(new byte[16]);
+        encoding.decodeTo(encoded, 0, encoded.length(), new byte[15], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidCharacter() {
+        encoding.decode(encoding.encode(new byte[16]).substring(2) + "ä$");
+    }
+
+    @Test
+    public void testDecodeCompatibleWithBytesLib() {
+        byte[] random = Bytes.random(25).array();
+        assertArrayEquals(random, new ByteToTextEncoding.Base64Url().decode(Bytes.wrap(random).encodeBase64(true, true)));
+        assertArrayEquals(random, new ByteToTextEncoding.Base16().decode(Bytes.wrap(random).encodeHex(true)));
+    }
+
+    @Test
+    public void testUnmaskWithAppendedCharFails() {
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).encoding(encoding).enableCache(false).build());
+        String masked = idMask.mask(5L);
+        for (String suffix : new String[]{"a", masked.substring(0, 1), masked.substring(masked.length() - 1)}) {
+            try {
+                idMask.unmask(masked + suffix);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void testBase16RejectsOddLength() {
+        ByteToTextEncoding base16 = new ByteToTextEncoding.Base16();
+        String encoded = base16.encode(Bytes.random(8).array());
+        for (String invalid : new String[]{"a", encoded + "a", encoded + "0", encoded.substring(1)}) {
+            try {
+                base16.decode(invalid);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+            try {
+                base16.decodeTo(invalid, 0, invalid.length(), new byte[16], 0);
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
 }
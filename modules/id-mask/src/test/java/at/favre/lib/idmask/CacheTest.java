@@ -2,11 +2,33 @@ package at.favre.lib.idmask;
 
 import at.favre.lib.bytes.Bytes;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
 
 import static org.junit.Assert.*;
 
+@RunWith(Parameterized.class)
 public class CacheTest {
-    private Cache cache = new Cache.SimpleLruMemCache(16);
+    @Parameterized.Parameters
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][]{
+                {new Cache.SimpleLruMemCache(16)},
+                {new Cache.PrimitiveKeyMemCache(16)},
+                {new Cache.ConcurrentClockMemCache(16, 4)},
+                {new Cache.OffHeapMemCache(16, 48, 4)},
+                {new Cache.CompactMemCache(16)}
+        });
+    }
+
+    private final Cache cache;
+
+    public CacheTest(Cache cache) {
+        this.cache = cache;
+        cache.clear();
+    }
 
     @Test
     public void testCacheEncode() {
@@ -22,6 +44,57 @@ public class CacheTest {
         assertArrayEquals(bytes, cache.getBytes(encoded));
     }
 
+    @Test
+    public void testCacheSingleDirection() {
+        byte[] bytes = Bytes.random(8).array();
+        String encoded = Bytes.wrap(bytes).encodeBase64();
+
+        cache.cacheForEncode(bytes, encoded);
+        assertEquals(encoded, cache.getEncoded(bytes));
+        assertNull(cache.getBytes(encoded));
+
+        byte[] bytes2 = Bytes.random(8).array();
+        String encoded2 = Bytes.wrap(bytes2).encodeBase64();
+
+        cache.cacheForDecode(bytes2, encoded2);
+        assertNull(cache.getEncoded(bytes2));
+        assertArrayEquals(bytes2, cache.getBytes(encoded2));
+    }
+
+    @Test
+    public void testStats() {
+        Cache.Stats before = cache.stats();
+        byte[] bytes = Bytes.random(8).array();
+        String encoded = Bytes.wrap(bytes).encodeBase64();
+
+        cache.getEncoded(bytes);
+        cache.getBytes(encoded);
+        cache.cache(bytes, encoded);
+        cache.getEncoded(bytes);
+        cache.getEncoded(bytes);
+        cache.getBytes(encoded);
+
+        Cache.Stats after = cache.stats();
+        assertEquals(2, after.encodeHitCount() - before.encodeHitCount());
+        assertEquals(1, after.encodeMissCount() - before.encodeMissCount());
+        assertEquals(1, after.decodeHitCount() - before.decodeHitCount());
+        assertEquals(1, after.decodeMissCount() - before.decodeMissCount());
+        assertEquals(2, after.size());
+        assertEquals(0, after.missLoadTimeNanos());
+    }
+
+    @Test
+    public void testStatsCountEvictions() {
+        long evictionsBefore = cache.stats().evictionCount();
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = Bytes.from(i).array();
+            cache.cache(bytes, Bytes.wrap(bytes).encodeBase64());
+        }
+        Cache.Stats stats = cache.stats();
+        assertTrue(stats.evictionCount() - evictionsBefore > 0);
+        assertTrue(stats.size() > 0 && stats.size() <= 2 * 16);
+    }
+
     @Test
     public void testCacheEncodeRandom() {
         for (int i = 0; i < 256; i++) {
@@ -54,4 +127,47 @@ public class CacheTest {
         assertNull(cache.getBytes(encoded));
     }
 
+    @Test
+    public void testCacheMaskedIdLengths() {
+        for (int length : new int[]{8, 16, 1, 15, 17, 32}) {
+            if (length > 16 && cache instanceof Cache.OffHeapMemCache) {
+                // fixed-width slots, longer ids are not cached
+                continue;
+            }
+            byte[] bytes = Bytes.random(length).array();
+            String encoded = Bytes.wrap(bytes).encodeBase64();
+
+            cache.cache(bytes, encoded);
+
+            assertEquals(encoded, cache.getEncoded(Bytes.from(bytes).array()));
+            assertArrayEquals(bytes, cache.getBytes(encoded));
+            assertNull(cache.getEncoded(Bytes.from(bytes).resize(length + 1).array()));
+        }
+    }
+
+    @Test
+    public void testDifferentIdsWithSameLeadingBytes() {
+        byte[] id1 = Bytes.from(1L, 2L).array();
+        byte[] id2 = Bytes.from(1L, 3L).array();
+        cache.cache(id1, "id1");
+        cache.cache(id2, "id2");
+
+        assertEquals("id1", cache.getEncoded(id1));
+        assertEquals("id2", cache.getEncoded(id2));
+    }
+
+    @Test
+    public void testManyEntriesOnlyReturnsCorrectValues() {
+        for (int i = 0; i < 10000; i++) {
+            byte[] bytes = Bytes.from((long) i).array();
+            cache.cache(bytes, "id" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            String encoded = cache.getEncoded(Bytes.from((long) i).array());
+            assertTrue(encoded == null || encoded.equals("id" + i));
+            byte[] bytes = cache.getBytes("id" + i);
+            assertTrue(bytes == null || Arrays.equals(bytes, Bytes.from((long) i).array()));
+        }
+        assertEquals("id9999", cache.getEncoded(Bytes.from(9999L).array()));
+    }
 }
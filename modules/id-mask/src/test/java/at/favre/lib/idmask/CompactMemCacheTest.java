@@ -0,0 +1,90 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+import static org.junit.Assert.*;
+
+public class CompactMemCacheTest {
+    private static final int ENTRIES = 4096;
+
+    @Test
+    public void testFootprintComparedToSimpleLru() {
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        Cache compact = new Cache.CompactMemCache(ENTRIES);
+        Cache lru = new Cache.SimpleLruMemCache(ENTRIES);
+        int cached = 0;
+        for (long i = 0; cached < ENTRIES * 3 / 4; i++) {
+            byte[] id = Bytes.from(i).array();
+            String encoded = idMask.mask(i);
+            compact.cache(id, encoded);
+            lru.cache(id, encoded);
+            cached = (int) compact.stats().size() / 2;
+        }
+
+        long compactBytes = GraphLayout.parseInstance(compact).totalSize();
+        long lruBytes = GraphLayout.parseInstance(lru).totalSize();
+        System.out.println("bytes per cached id: compact " + compactBytes / cached + ", simple lru " + lruBytes / lru.stats().size() * 2);
+
+        assertTrue("compact " + compactBytes + " vs lru " + lruBytes, (double) lruBytes / lru.stats().size() >= 3 * (double) compactBytes / compact.stats().size());
+    }
+
+    @Test
+    public void testSharedEntryForBothDirections() {
+        Cache cache = new Cache.CompactMemCache(16);
+        byte[] id = Bytes.from(42L).array();
+        cache.cache(id, "AbCd-_12");
+        id[0] = 1;
+
+        assertEquals("AbCd-_12", cache.getEncoded(Bytes.from(42L).array()));
+        assertArrayEquals(Bytes.from(42L).array(), cache.getBytes("AbCd-_12"));
+        assertNull(cache.getBytes("AbCd-_13"));
+        assertNull(cache.getEncoded(Bytes.from(43L).array()));
+    }
+
+    @Test
+    public void testReturnedIdIsCopy() {
+        Cache cache = new Cache.CompactMemCache(16);
+        cache.cache(Bytes.from(42L).array(), "masked");
+        cache.getBytes("masked")[0] = 1;
+        assertArrayEquals(Bytes.from(42L).array(), cache.getBytes("masked"));
+    }
+
+    @Test
+    public void testNonAsciiNotCached() {
+        Cache cache = new Cache.CompactMemCache(16);
+        byte[] id = Bytes.from(42L).array();
+        cache.cache(id, "mäsked");
+        assertNull(cache.getEncoded(id));
+        assertNull(cache.getBytes("mäsked"));
+    }
+
+    @Test
+    public void testLongIds() {
+        Cache cache = new Cache.CompactMemCache(16);
+        byte[] id = Bytes.random(255).array();
+        cache.cache(id, "long");
+        assertEquals("long", cache.getEncoded(id));
+        assertArrayEquals(id, cache.getBytes("long"));
+
+        byte[] tooLong = Bytes.random(256).array();
+        cache.cache(tooLong, "tooLong");
+        assertNull(cache.getEncoded(tooLong));
+    }
+
+    @Test
+    public void testOverwriteSameId() {
+        Cache cache = new Cache.CompactMemCache(16);
+        byte[] id = Bytes.from(42L).array();
+        cache.cacheForEncode(id, "first");
+        cache.cacheForEncode(id, "second");
+        assertEquals("second", cache.getEncoded(id));
+        assertEquals(1, cache.stats().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new Cache.CompactMemCache(0);
+    }
+}
@@ -0,0 +1,183 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ConcurrentClockMemCacheTest extends AMultiThreadTest {
+
+    @Test
+    public void testReferencedEntryGetsSecondChance() {
+        Cache cache = new Cache.ConcurrentClockMemCache(4, 1);
+        for (long i = 0; i < 4; i++) {
+            cache.cache(Bytes.from(i).array(), "id" + i);
+        }
+
+        assertEquals("id0", cache.getEncoded(Bytes.from(0L).array()));
+        cache.cache(Bytes.from(4L).array(), "id4");
+
+        // hand passes the recently used entry 0 and evicts 1 instead
+        assertEquals("id0", cache.getEncoded(Bytes.from(0L).array()));
+        assertNull(cache.getEncoded(Bytes.from(1L).array()));
+        assertEquals("id4", cache.getEncoded(Bytes.from(4L).array()));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        Cache cache = new Cache.ConcurrentClockMemCache(64, 4);
+        for (long i = 0; i < 10000; i++) {
+            cache.cache(Bytes.from(i).array(), "id" + i);
+        }
+        int found = 0;
+        for (long i = 0; i < 10000; i++) {
+            if (cache.getEncoded(Bytes.from(i).array()) != null) {
+                found++;
+            }
+        }
+        assertEquals(64, found);
+    }
+
+    @Test
+    public void testUpdateExistingKey() {
+        Cache cache = new Cache.ConcurrentClockMemCache(4, 1);
+        byte[] id = Bytes.from(1L).array();
+        cache.cache(id, "a");
+        cache.cache(id, "b");
+        for (long i = 2; i < 5; i++) {
+            cache.cache(Bytes.from(i).array(), "id" + i);
+        }
+        assertEquals("b", cache.getEncoded(id));
+    }
+
+    @Test
+    public void testUpdateExistingKeysAfterEviction() {
+        Cache cache = new Cache.ConcurrentClockMemCache(4, 1);
+        for (long i = 0; i < 8; i++) {
+            cache.cacheForEncode(Bytes.from(i).array(), "id" + i);
+        }
+        long evictions = cache.stats().evictionCount();
+        for (long i = 4; i < 8; i++) {
+            cache.cacheForEncode(Bytes.from(i).array(), "new" + i);
+        }
+        assertEquals(evictions, cache.stats().evictionCount());
+        for (long i = 4; i < 8; i++) {
+            assertEquals("new" + i, cache.getEncoded(Bytes.from(i).array()));
+        }
+
+        // the replaced entries are still in the ring and get evicted as usual
+        for (long i = 8; i < 16; i++) {
+            cache.cacheForEncode(Bytes.from(i).array(), "id" + i);
+        }
+        int found = 0;
+        for (long i = 0; i < 16; i++) {
+            found += cache.getEncoded(Bytes.from(i).array()) != null ? 1 : 0;
+        }
+        assertEquals(4, found);
+    }
+
+    @Test
+    public void testFrequencyAdmissionRejectsOneHitWonder() {
+        Cache cache = new Cache.ConcurrentClockMemCache(4, 1, true);
+        for (long i = 0; i < 4; i++) {
+            byte[] id = Bytes.from(i).array();
+            for (int j = 0; j < 3; j++) {
+                cache.getEncoded(id);
+            }
+            cache.cache(id, "id" + i);
+        }
+
+        byte[] cold = Bytes.from(100L).array();
+        assertNull(cache.getEncoded(cold));
+        cache.cache(cold, "id100");
+
+        assertNull(cache.getEncoded(cold));
+        for (long i = 0; i < 4; i++) {
+            assertEquals("id" + i, cache.getEncoded(Bytes.from(i).array()));
+        }
+    }
+
+    @Test
+    public void testFrequencyAdmissionAdmitsPopularEntry() {
+        Cache cache = new Cache.ConcurrentClockMemCache(4, 1, true);
+        for (long i = 0; i < 4; i++) {
+            cache.cache(Bytes.from(i).array(), "id" + i);
+        }
+
+        byte[] popular = Bytes.from(100L).array();
+        for (int j = 0; j < 5; j++) {
+            cache.getEncoded(popular);
+        }
+        cache.cache(popular, "id100");
+
+        assertEquals("id100", cache.getEncoded(popular));
+    }
+
+    @Test
+    public void testFrequencyAdmissionHotSetSurvivesScan() {
+        Cache lfu = new Cache.ConcurrentClockMemCache(64, 1, true);
+        Cache clock = new Cache.ConcurrentClockMemCache(64, 1);
+        for (int round = 0; round < 8; round++) {
+            for (long i = 0; i < 32; i++) {
+                access(lfu, i);
+                access(clock, i);
+            }
+        }
+        for (long i = 1000; i < 1256; i++) {
+            access(lfu, i);
+            access(clock, i);
+        }
+
+        int hotLfu = 0;
+        int hotClock = 0;
+        for (long i = 0; i < 32; i++) {
+            hotLfu += lfu.getEncoded(Bytes.from(i).array()) != null ? 1 : 0;
+            hotClock += clock.getEncoded(Bytes.from(i).array()) != null ? 1 : 0;
+        }
+        assertEquals(32, hotLfu);
+        assertEquals(0, hotClock);
+    }
+
+    private static void access(Cache cache, long id) {
+        byte[] raw = Bytes.from(id).array();
+        if (cache.getEncoded(raw) == null) {
+            cache.cache(raw, "id" + id);
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws InterruptedException {
+        final Cache cache = new Cache.ConcurrentClockMemCache(128, 8);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < ROUNDS; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random();
+                    for (int j = 0; j < 100; j++) {
+                        long id = random.nextInt(512);
+                        byte[] raw = Bytes.from(id).array();
+                        String encoded = cache.getEncoded(raw);
+                        if (encoded == null) {
+                            cache.cache(raw, "id" + id);
+                        } else if (!encoded.equals("id" + id)) {
+                            errors.incrementAndGet();
+                        }
+                        byte[] cached = cache.getBytes("id" + id);
+                        if (cached != null && !Arrays.equals(raw, cached)) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        shutdown();
+
+        assertEquals(0, errors.get());
+    }
+}
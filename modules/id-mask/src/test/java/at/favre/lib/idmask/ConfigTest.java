@@ -15,6 +15,10 @@ public class ConfigTest {
     public void testDefaults() {
         Config config = Config.builder(KeyManager.Factory.withRandom()).build();
         assertTrue(config.enableCache());
+        assertTrue(config.adaptiveCacheBypass());
+        assertEquals(0, config.threadLocalCacheSize());
+        assertFalse(config.bufferedEntropy());
+        assertFalse(config.stacklessExceptions());
         assertFalse(config.randomizedIds());
         assertFalse(config.highSecurityMode());
         assertNull(config.securityProvider());
@@ -53,6 +57,19 @@ public class ConfigTest {
         assertTrue(config.highSecurityMode());
     }
 
+    @Test
+    public void testCachePolicy() {
+        KeyManager keyManager = KeyManager.Factory.withRandom();
+        assertNull(Config.builder(keyManager).build().cachePolicy());
+        assertEquals(Config.CachePolicy.BOTH, Config.builder(keyManager).build().effectiveCachePolicy());
+        assertEquals(Config.CachePolicy.DECODE_ONLY, Config.builder(keyManager).randomizedIds(true).build().effectiveCachePolicy());
+        assertEquals(Config.CachePolicy.NONE, Config.builder(keyManager).enableCache(false).build().effectiveCachePolicy());
+        assertEquals(Config.CachePolicy.NONE, Config.builder(keyManager).enableCache(false)
+                .cachePolicy(Config.CachePolicy.BOTH).build().effectiveCachePolicy());
+        assertEquals(Config.CachePolicy.ENCODE_ONLY, Config.builder(keyManager)
+                .cachePolicy(Config.CachePolicy.ENCODE_ONLY).build().effectiveCachePolicy());
+    }
+
     @Test
     public void testUsingKeyShorthand() {
         byte[] key = Bytes.random(16).array();
@@ -0,0 +1,44 @@
+package at.favre.lib.idmask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testIncrementAndEstimate() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        assertEquals(0, sketch.frequency(42));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(42);
+        }
+        assertTrue(sketch.frequency(42) >= 5);
+        assertTrue(sketch.frequency(43) < 5);
+    }
+
+    @Test
+    public void testSaturatesAt15() {
+        FrequencySketch sketch = new FrequencySketch(512);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(7);
+        }
+        assertEquals(15, sketch.frequency(7));
+    }
+
+    @Test
+    public void testAgingHalvesCounters() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment(-1);
+        }
+        assertEquals(8, sketch.frequency(-1));
+
+        // sample size is 10 x max size
+        for (int i = 0; i < 160; i++) {
+            sketch.increment(i);
+        }
+        assertTrue(sketch.frequency(-1) <= 4);
+    }
+}
@@ -283,4 +283,41 @@ public class IdMaskEngine16ByteTest {
             assertEquals(IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID, e.getReason());
         }
     }
+
+    @Test
+    public void testMaskAll() {
+        IdMaskEngine idMaskEngine = new IdMaskEngine.SixteenByteEngine(KeyManager.Factory.withRandom());
+        byte[][] ids = new byte[][]{Bytes.random(16).array(), Bytes.random(16).array(), Bytes.random(16).array()};
+
+        CharSequence[] maskedIds = idMaskEngine.maskAll(ids);
+        byte[][] unmasked = idMaskEngine.unmaskAll(maskedIds);
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(idMaskEngine.mask(ids[i]).toString(), maskedIds[i].toString());
+            assertArrayEquals(ids[i], unmasked[i]);
+        }
+    }
+
+    @Test
+    public void testUnmaskRange() {
+        byte[] id = Bytes.random(16).array();
+        String masked = idMaskEngine.mask(id).toString();
+        String path = "/api/v1/users/" + masked + "/profile";
+        int start = path.indexOf(masked);
+
+        assertArrayEquals(id, idMaskEngine.unmask(path, start, start + masked.length()));
+        assertArrayEquals(id, idMaskEngine.unmask(new StringBuilder(path), start, start + masked.length()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnmaskRangeWrongLength() {
+        String masked = idMaskEngine.mask(Bytes.random(16).array()).toString();
+        idMaskEngine.unmask(masked + "AAAA", 0, masked.length() + 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testUnmaskRangeOutOfBounds() {
+        String masked = idMaskEngine.mask(Bytes.random(16).array()).toString();
+        idMaskEngine.unmask(masked, 1, masked.length() + 1);
+    }
 }
@@ -3,6 +3,7 @@ package at.favre.lib.idmask;
 import at.favre.lib.bytes.Bytes;
 import org.junit.Test;
 
+import javax.crypto.Cipher;
 import java.security.SecureRandom;
 
 import static org.junit.Assert.*;
@@ -287,4 +288,161 @@ public class IdMaskEngine8ByteTest {
             assertArrayEquals(id, idMaskRandomized.unmask(maskedId));
         }
     }
+
+    @Test
+    public void testMaskAllShouldMatchSingleMask() {
+        IdMaskEngine idMaskEngine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withRandom());
+        byte[][] ids = new byte[33][];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Bytes.random(8).array();
+        }
+
+        CharSequence[] maskedIds = idMaskEngine.maskAll(ids);
+        assertEquals(ids.length, maskedIds.length);
+
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(idMaskEngine.mask(ids[i]).toString(), maskedIds[i].toString());
+            assertArrayEquals(ids[i], idMaskEngine.unmask(maskedIds[i]));
+        }
+
+        byte[][] unmasked = idMaskEngine.unmaskAll(maskedIds);
+        for (int i = 0; i < ids.length; i++) {
+            assertArrayEquals(ids[i], unmasked[i]);
+        }
+    }
+
+    @Test
+    public void testMaskAllRandomized() {
+        IdMaskEngine idMaskEngine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withRandom(),
+                null, new SecureRandom(), new ByteToTextEncoding.Base64Url(), true, true);
+        byte[][] ids = new byte[][]{Bytes.from(1L).array(), Bytes.from(1L).array(), Bytes.random(8).array()};
+
+        CharSequence[] maskedIds = idMaskEngine.maskAll(ids);
+        assertNotEquals(maskedIds[0].toString(), maskedIds[1].toString());
+
+        byte[][] unmasked = idMaskEngine.unmaskAll(maskedIds);
+        for (int i = 0; i < ids.length; i++) {
+            assertArrayEquals(ids[i], unmasked[i]);
+            assertArrayEquals(ids[i], idMaskEngine.unmask(maskedIds[i]));
+        }
+    }
+
+    @Test
+    public void testMaskAllEmpty() {
+        assertEquals(0, idMaskEngine.maskAll(new byte[0][]).length);
+        assertEquals(0, idMaskEngine.unmaskAll(new CharSequence[0]).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaskAllWrongLength() {
+        idMaskEngine.maskAll(new byte[][]{Bytes.random(8).array(), Bytes.random(9).array()});
+    }
+
+    @Test
+    public void testUnmaskAllMixedKeys() {
+        KeyManager.IdSecretKey k1 = new KeyManager.IdSecretKey(0, Bytes.random(16).array());
+        KeyManager.IdSecretKey k2 = new KeyManager.IdSecretKey(1, Bytes.random(16).array());
+
+        IdMaskEngine engine1 = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.with(k1));
+        IdMaskEngine engine2 = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withKeyAndLegacyKeys(k2, k1));
+
+        byte[][] ids = new byte[][]{Bytes.from(1L).array(), Bytes.from(2L).array(), Bytes.from(3L).array(), Bytes.from(4L).array()};
+        CharSequence[] maskedIds = new CharSequence[]{
+                engine1.mask(ids[0]), engine2.mask(ids[1]), engine1.mask(ids[2]), engine2.mask(ids[3])
+        };
+
+        byte[][] unmasked = engine2.unmaskAll(maskedIds);
+        for (int i = 0; i < ids.length; i++) {
+            assertArrayEquals(ids[i], unmasked[i]);
+        }
+
+        try {
+            engine1.unmaskAll(maskedIds);
+            fail();
+        } catch (IdMaskSecurityException e) {
+            assertEquals(IdMaskSecurityException.Reason.UNKNOWN_KEY_ID, e.getReason());
+        }
+    }
+
+    @Test
+    public void testUnmaskAllForgeryAttempt() {
+        IdMaskEngine idMaskEngine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withRandom());
+        CharSequence maskedId = idMaskEngine.mask(Bytes.from(70366123987523049L).array());
+
+        byte[] raw = new ByteToTextEncoding.Base64Url().decode(maskedId);
+        raw[14] = (byte) (raw[14] ^ 0xe2);
+
+        try {
+            idMaskEngine.unmaskAll(new CharSequence[]{maskedId, new ByteToTextEncoding.Base64Url().encode(raw)});
+            fail();
+        } catch (IdMaskSecurityException e) {
+            assertEquals(IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, e.getReason());
+        }
+    }
+
+    @Test
+    public void testUnmaskAllRandomizedForgedEntropy() {
+        IdMaskEngine idMaskEngine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withRandom(),
+                null, new SecureRandom(), new ByteToTextEncoding.Base64Url(), true, true);
+        CharSequence maskedId = idMaskEngine.mask(Bytes.from(70366123987523049L).array());
+
+        byte[] raw = new ByteToTextEncoding.Base64Url().decode(maskedId);
+        raw[3] = (byte) (raw[3] ^ 0x01);
+
+        try {
+            idMaskEngine.unmaskAll(new CharSequence[]{maskedId, new ByteToTextEncoding.Base64Url().encode(raw)});
+            fail();
+        } catch (IdMaskSecurityException e) {
+            assertEquals(IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, e.getReason());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnmaskAllWrongLength() {
+        byte[] raw = new ByteToTextEncoding.Base64Url().decode(idMaskEngine.mask(Bytes.random(8).array()));
+        idMaskEngine.unmaskAll(new CharSequence[]{new ByteToTextEncoding.Base64Url().encode(Bytes.wrap(raw).append((byte) 0).array())});
+    }
+
+    @Test
+    public void testKeyedCipherReusedPerKeyId() throws Exception {
+        IdMaskEngine.EightByteEncryptionEngine engine = new IdMaskEngine.EightByteEncryptionEngine(KeyManager.Factory.withRandom());
+        byte[] key1 = Bytes.random(16).array();
+        byte[] key2 = Bytes.random(16).array();
+        byte[] block = Bytes.random(16).array();
+
+        Cipher c1 = engine.getKeyedCipher(Cipher.ENCRYPT_MODE, 0, key1);
+        byte[] cipherText1 = c1.doFinal(block);
+        assertSame(c1, engine.getKeyedCipher(Cipher.ENCRYPT_MODE, 0, key1));
+        assertArrayEquals(cipherText1, engine.getKeyedCipher(Cipher.ENCRYPT_MODE, 0, key1).doFinal(block));
+        assertNotSame(c1, engine.getKeyedCipher(Cipher.DECRYPT_MODE, 0, key1));
+        assertNotSame(c1, engine.getKeyedCipher(Cipher.ENCRYPT_MODE, 1, key1));
+
+        // key change for the same key id must re-init the cipher
+        byte[] cipherText2 = engine.getKeyedCipher(Cipher.ENCRYPT_MODE, 0, key2).doFinal(block);
+        assertFalse(Bytes.wrap(cipherText1).equals(cipherText2));
+        assertArrayEquals(block, engine.getKeyedCipher(Cipher.DECRYPT_MODE, 0, key2).doFinal(cipherText2));
+    }
+
+    @Test
+    public void testUnmaskRange() {
+        byte[] id = Bytes.random(8).array();
+        String masked = idMaskEngine.mask(id).toString();
+        String path = "/api/v1/users/" + masked + "/profile";
+        int start = path.indexOf(masked);
+
+        assertArrayEquals(id, idMaskEngine.unmask(path, start, start + masked.length()));
+        assertArrayEquals(id, idMaskEngine.unmask(new StringBuilder(path), start, start + masked.length()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnmaskRangeWrongLength() {
+        String masked = idMaskEngine.mask(Bytes.random(8).array()).toString();
+        idMaskEngine.unmask(masked + "AAAA", 0, masked.length() + 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testUnmaskRangeOutOfBounds() {
+        String masked = idMaskEngine.mask(Bytes.random(8).array()).toString();
+        idMaskEngine.unmask(masked, 1, masked.length() + 1);
+    }
 }
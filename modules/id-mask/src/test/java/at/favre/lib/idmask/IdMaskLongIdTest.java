@@ -3,9 +3,13 @@ package at.favre.lib.idmask;
 import at.favre.lib.bytes.Bytes;
 import org.junit.Test;
 
+import java.nio.CharBuffer;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class IdMaskLongIdTest extends ABaseIdMaskTest {
@@ -44,6 +48,90 @@ public class IdMaskLongIdTest extends ABaseIdMaskTest {
         }
     }
 
+    @Test
+    public void testCacheStats() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.ConcurrentClockMemCache(64, 4)).build());
+        long id = new Random().nextLong();
+        String encoded = idMask.mask(id);
+        idMask.mask(id);
+        idMask.unmask(encoded);
+
+        Cache.Stats stats = idMask.cacheStats();
+        assertEquals(1, stats.encodeHitCount());
+        assertEquals(1, stats.encodeMissCount());
+        assertEquals(1, stats.decodeHitCount());
+        assertEquals(0, stats.decodeMissCount());
+        assertEquals(2, stats.size());
+        assertTrue(stats.missLoadTimeNanos() > 0);
+        assertEquals(2.0 / 3.0, stats.hitRate(), 0.0001);
+    }
+
+    @Test
+    public void testCachePolicyRandomizedDefault() {
+        Cache cache = new Cache.ConcurrentClockMemCache(64, 4);
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .randomizedIds(true).cacheImpl(cache).build());
+        long id = new Random().nextLong();
+        String encoded = idMask.mask(id);
+        assertEquals(0, idMask.cacheStats().size());
+
+        assertEquals(id, (long) idMask.unmask(encoded));
+        assertEquals(id, (long) idMask.unmask(encoded));
+
+        Cache.Stats stats = idMask.cacheStats();
+        assertEquals(0, stats.encodeHitCount() + stats.encodeMissCount());
+        assertEquals(1, stats.decodeHitCount());
+        assertEquals(1, stats.decodeMissCount());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    public void testCachePolicyEncodeOnly() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cachePolicy(Config.CachePolicy.ENCODE_ONLY).cacheImpl(new Cache.ConcurrentClockMemCache(64, 4)).build());
+        long id = new Random().nextLong();
+        String encoded = idMask.mask(id);
+        assertEquals(encoded, idMask.mask(id));
+        assertEquals(id, (long) idMask.unmask(encoded));
+
+        Cache.Stats stats = idMask.cacheStats();
+        assertEquals(1, stats.encodeHitCount());
+        assertEquals(0, stats.decodeHitCount() + stats.decodeMissCount());
+        assertEquals(1, stats.size());
+    }
+
+    @Test
+    public void testCachePolicyNone() {
+        Cache cache = new Cache.ConcurrentClockMemCache(64, 4);
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cachePolicy(Config.CachePolicy.NONE).cacheImpl(cache).build());
+        long id = new Random().nextLong();
+        assertEquals(id, (long) idMask.unmask(idMask.mask(id)));
+
+        assertNull(idMask.cacheStats());
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    public void testWarmUpDoesNotUseCache() {
+        Cache cache = new Cache.SimpleLruMemCache(64);
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).cacheImpl(cache).build());
+        idMask.warmUp();
+
+        Cache.Stats stats = idMask.cacheStats();
+        assertEquals(0, stats.encodeHitCount() + stats.encodeMissCount() + stats.decodeHitCount() + stats.decodeMissCount());
+        assertEquals(0, stats.size());
+
+        long id = new Random().nextLong();
+        assertEquals(id, (long) idMask.unmask(idMask.mask(id)));
+    }
+
+    @Test
+    public void testCacheStatsDisabledCache() {
+        assertNull(new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(false).build()).cacheStats());
+    }
+
     @Test
     public void testWithoutCache() {
         IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(false).build());
@@ -84,4 +172,110 @@ public class IdMaskLongIdTest extends ABaseIdMaskTest {
             assertEquals(IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID, e.getReason());
         }
     }
+
+    @Test
+    public void testMaskAllAndUnmaskAll() {
+        long[] ids = new long[]{0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, new Random().nextLong()};
+        IdMask.LongIdMask idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+
+        String[] encoded = idMask.maskAll(ids);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(idMask.mask(ids[i]), encoded[i]);
+        }
+        assertArrayEquals(ids, idMask.unmaskAll(encoded));
+    }
+
+    @Test
+    public void testMaskAllWithCache() {
+        IdMask.LongIdMask idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(true).build());
+        String cached = idMask.mask(2L);
+
+        long[] ids = new long[]{1L, 2L, 3L, 2L};
+        String[] encoded = idMask.maskAll(ids);
+        assertEquals(cached, encoded[1]);
+        assertEquals(cached, encoded[3]);
+        assertArrayEquals(ids, idMask.unmaskAll(encoded));
+        assertArrayEquals(ids, idMask.unmaskAll(encoded));
+    }
+
+    @Test
+    public void testPrimitiveMaskerCompatibleWithBoxed() {
+        Config config = Config.builder(Bytes.random(16).array()).enableCache(false).build();
+        IdMask<Long> boxed = IdMasks.forLongIds(config);
+        LongIdMasker primitive = IdMasks.forPrimitiveLongIds(config);
+
+        for (long id : new long[]{0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, new Random().nextLong()}) {
+            String encoded = primitive.mask(id);
+            assertEquals(boxed.mask(id), encoded);
+            assertEquals(id, primitive.unmaskToLong(encoded));
+            assertEquals(Long.valueOf(id), boxed.unmask(encoded));
+        }
+    }
+
+    @Test
+    public void testPrimitiveMaskerUnmaskCharSequence() {
+        LongIdMasker idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array()).build());
+        long id = new Random().nextLong();
+        assertEquals(id, idMask.unmaskToLong(new StringBuilder(idMask.mask(id))));
+    }
+
+    @Test
+    public void testMaskTo() throws Exception {
+        for (boolean cache : new boolean[]{false, true}) {
+            IdMask.LongIdMask idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(cache).build());
+            long id = new Random().nextLong();
+            String masked = idMask.mask(id);
+            assertEquals(masked.length(), idMask.maskedLength());
+
+            StringBuilder sb = new StringBuilder("/users/");
+            idMask.maskTo(id, sb);
+            assertEquals("/users/" + masked, sb.toString());
+
+            char[] buffer = new char[idMask.maskedLength() + 1];
+            assertEquals(masked.length(), idMask.maskTo(Long.valueOf(id), buffer, 1));
+            assertEquals(masked, new String(buffer, 1, masked.length()));
+            assertEquals(id, idMask.unmaskToLong(CharBuffer.wrap(buffer, 1, masked.length())));
+        }
+    }
+
+    @Test
+    public void testMaskedLengthRandomized() throws Exception {
+        LongIdMasker idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array()).randomizedIds(true).build());
+        assertEquals(idMask.mask(1L).length(), idMask.maskedLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaskToBufferTooSmall() {
+        LongIdMasker idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array()).enableCache(false).build());
+        idMask.maskTo(1L, new char[idMask.maskedLength() - 1], 0);
+    }
+
+    @Test
+    public void testUnmaskRange() {
+        for (boolean cache : new boolean[]{false, true}) {
+            IdMask.LongIdMask idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(cache).build());
+            long id = new Random().nextLong();
+            String masked = idMask.mask(id);
+            CharSequence path = CharBuffer.wrap("/users/" + masked + "?q=1");
+
+            assertEquals(id, idMask.unmaskToLong(path, 7, 7 + masked.length()));
+            assertEquals(Long.valueOf(id), idMask.unmask(path, 7, 7 + masked.length()));
+        }
+    }
+
+    @Test
+    public void testUnmaskRangeUsesCacheOnlyForWholeString() {
+        IdMask.LongIdMask idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array()).enableCache(true).build());
+        long id = new Random().nextLong();
+        String masked = idMask.mask(id);
+
+        Cache.Stats before = idMask.cacheStats();
+        assertEquals(id, idMask.unmaskToLong("/users/" + masked, 7, 7 + masked.length()));
+        assertEquals(id, idMask.unmaskToLong(new StringBuilder(masked), 0, masked.length()));
+        Cache.Stats after = idMask.cacheStats();
+        assertEquals(before.decodeHitCount() + before.decodeMissCount(), after.decodeHitCount() + after.decodeMissCount());
+
+        assertEquals(id, idMask.unmaskToLong(masked, 0, masked.length()));
+        assertEquals(before.decodeHitCount() + 1, idMask.cacheStats().decodeHitCount());
+    }
 }
@@ -38,4 +38,15 @@ public class IdMaskUuidTest extends ABaseIdMaskTest {
             assertEquals(IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID, e.getReason());
         }
     }
+
+    @Test
+    public void testWarmUpRandomized() {
+        IdMask<UUID> idMask = new IdMask.UuidMask(Config.builder(KeyManager.Factory.withKeyAndLegacyKeys(
+                new KeyManager.IdSecretKey(1, Bytes.random(16).array()),
+                new KeyManager.IdSecretKey(0, Bytes.random(16).array()))).randomizedIds(true).build());
+        idMask.warmUp();
+
+        UUID id = UUID.randomUUID();
+        assertEquals(id, idMask.unmask(idMask.mask(id)));
+    }
 }
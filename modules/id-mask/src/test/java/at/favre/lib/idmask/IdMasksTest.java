@@ -21,6 +21,16 @@ public class IdMasksTest {
         assertEquals(ref, decoded);
     }
 
+    @Test
+    public void createForPrimitiveLongIds() {
+        long ref = 6L;
+        LongIdMasker idMask = IdMasks.forPrimitiveLongIds(Config.builder(Bytes.random(16).array()).build());
+        String encoded = idMask.mask(ref);
+        long decoded = idMask.unmaskToLong(encoded);
+
+        assertEquals(ref, decoded);
+    }
+
     @Test
     public void createForLongTuples() {
         LongTuple tuple = new LongTuple(41L, 19283183891L);
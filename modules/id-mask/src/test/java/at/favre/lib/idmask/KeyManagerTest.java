@@ -4,6 +4,7 @@ import at.favre.lib.bytes.Bytes;
 import org.junit.Test;
 
 import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -122,4 +123,48 @@ public class KeyManagerTest {
         assertEquals(0, keyManager.size());
     }
 
+    @Test
+    public void testCachedKdfDerivesEagerlyOnce() {
+        KeyManager.IdSecretKey idSecretKey1 = new KeyManager.IdSecretKey(1, Bytes.random(16).array());
+        KeyManager.IdSecretKey idSecretKey2 = new KeyManager.IdSecretKey(15, Bytes.random(16).array());
+        final AtomicInteger derivations = new AtomicInteger();
+
+        KeyManager keyManager = new KeyManager.CachedKdfConverter(KeyManager.Factory.withKeyAndLegacyKeys(idSecretKey1, idSecretKey2),
+                new KeyManager.CachedKdfConverter.KdfConverter() {
+                    @Override
+                    public byte[] convert(KeyManager.IdSecretKey idSecretKey) {
+                        derivations.incrementAndGet();
+                        return Bytes.wrap(idSecretKey.getKeyBytes()).hashSha256().array();
+                    }
+                });
+        assertEquals(2, derivations.get());
+
+        KeyManager.IdSecretKey active = keyManager.getActiveKey();
+        for (int i = 0; i < 100; i++) {
+            assertSame(active, keyManager.getActiveKey());
+            assertSame(active, keyManager.getById(1));
+            assertNotNull(keyManager.getById(15));
+        }
+        assertNull(keyManager.getById(-1));
+        assertNull(keyManager.getById(16));
+        assertEquals(2, derivations.get());
+    }
+
+    @Test
+    public void testCachedKdfClearWipesDerivedKeys() {
+        KeyManager.IdSecretKey idSecretKey = new KeyManager.IdSecretKey(1, Bytes.random(16).array());
+        KeyManager keyManager = new KeyManager.CachedKdfConverter(KeyManager.Factory.with(idSecretKey),
+                new KeyManager.CachedKdfConverter.KdfConverter() {
+                    @Override
+                    public byte[] convert(KeyManager.IdSecretKey idSecretKey) {
+                        return Bytes.wrap(idSecretKey.getKeyBytes()).hashSha256().array();
+                    }
+                });
+        byte[] derived = keyManager.getActiveKey().getKeyBytes();
+        byte[] copy = Bytes.wrap(derived).copy().array();
+
+        keyManager.clear();
+        assertNull(keyManager.getActiveKey());
+        assertFalse(Bytes.wrap(derived).equals(copy));
+    }
 }
@@ -0,0 +1,166 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class KeyRotationTest {
+
+    @Test
+    public void testRotateKeepsLegacyKeys() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(keyManager).adaptiveCacheBypass(false).build());
+
+        String beforeRotation = idMask.mask(42L);
+        keyManager.rotate(new KeyManager.IdSecretKey(2, Bytes.random(16).array()));
+        String afterRotation = idMask.mask(42L);
+
+        assertEquals(2, keyManager.getActiveKeyId());
+        assertEquals(2, keyManager.size());
+        assertNotEquals(beforeRotation, afterRotation);
+        assertEquals(afterRotation, idMask.mask(42L));
+        assertEquals(42L, (long) idMask.unmask(beforeRotation));
+        assertEquals(42L, (long) idMask.unmask(afterRotation));
+    }
+
+    @Test
+    public void testRotateOnlyInvalidatesEncodeDirection() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        Cache cache = new Cache.ConcurrentClockMemCache(64, 4);
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(keyManager).cacheImpl(cache).adaptiveCacheBypass(false).build());
+
+        String beforeRotation = idMask.mask(42L);
+        keyManager.rotate(new KeyManager.IdSecretKey(2, Bytes.random(16).array()));
+
+        assertNull(cache.getEncoded(Bytes.from(42L).array()));
+        assertNotNull(cache.getBytes(beforeRotation));
+    }
+
+    @Test
+    public void testRotateRemovingKeyInvalidatesAll() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(keyManager).threadLocalCacheSize(16).adaptiveCacheBypass(false).build());
+
+        String beforeRotation = idMask.mask(42L);
+        assertEquals(42L, (long) idMask.unmask(beforeRotation));
+        keyManager.rotate(KeyManager.Factory.with(2, Bytes.random(16).array()));
+
+        try {
+            idMask.unmask(beforeRotation);
+            fail();
+        } catch (IdMaskSecurityException e) {
+            assertEquals(IdMaskSecurityException.Reason.UNKNOWN_KEY_ID, e.getReason());
+        }
+        assertEquals(42L, (long) idMask.unmask(idMask.mask(42L)));
+    }
+
+    @Test
+    public void testRotateSameKeyIdNewKey() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        IdMask<UUID> idMask = IdMasks.forUuids(Config.builder(keyManager).build());
+        UUID id = UUID.randomUUID();
+
+        String beforeRotation = idMask.mask(id);
+        keyManager.rotate(new KeyManager.IdSecretKey(1, Bytes.random(16).array()));
+
+        assertEquals(1, keyManager.size());
+        assertNotEquals(beforeRotation, idMask.mask(id));
+        assertEquals(id, idMask.unmask(idMask.mask(id)));
+        try {
+            idMask.unmask(beforeRotation);
+            fail();
+        } catch (IdMaskSecurityException ignored) {
+        }
+    }
+
+    @Test
+    public void testRotateRandomized() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        IdMask<UUID> uuidMask = IdMasks.forUuids(Config.builder(keyManager).randomizedIds(true).build());
+        IdMask<Long> longMask = IdMasks.forLongIds(Config.builder(keyManager).randomizedIds(true).build());
+        UUID uuid = UUID.randomUUID();
+
+        String maskedUuid = uuidMask.mask(uuid);
+        String maskedLong = longMask.mask(7L);
+        keyManager.rotate(new KeyManager.IdSecretKey(3, Bytes.random(16).array()));
+
+        assertEquals(uuid, uuidMask.unmask(maskedUuid));
+        assertEquals(7L, (long) longMask.unmask(maskedLong));
+        assertEquals(uuid, uuidMask.unmask(uuidMask.mask(uuid)));
+        assertEquals(7L, (long) longMask.unmask(longMask.mask(7L)));
+    }
+
+    @Test
+    public void testPrecomputedTableDeactivatedOnRotation() throws Exception {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(1, Bytes.random(16).array()));
+        java.io.File file = java.io.File.createTempFile("idmask", ".idmt");
+        file.deleteOnExit();
+        Config config = Config.builder(keyManager).build();
+        Cache.PrecomputedMaskTable.generate(file.toPath(), config, 0, 100);
+        Cache.PrecomputedMaskTable table = new Cache.PrecomputedMaskTable(file.toPath(), config, new Cache.SimpleLruMemCache(16));
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(keyManager).cacheImpl(table).build());
+        assertTrue(table.isActive());
+
+        keyManager.rotate(new KeyManager.IdSecretKey(2, Bytes.random(16).array()));
+
+        assertFalse(table.isActive());
+        assertEquals(idMask.mask(5L), IdMasks.forLongIds(Config.builder(keyManager).enableCache(false).build()).mask(5L));
+    }
+
+    @Test
+    public void testConcurrentRotation() throws Exception {
+        final KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.with(0, Bytes.random(16).array()));
+        final IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(keyManager).threadLocalCacheSize(8).build());
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final ConcurrentHashMap<String, Long> masked = new ConcurrentHashMap<>();
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long i = 0;
+                        while (running.get()) {
+                            long id = i++ % 64;
+                            String encoded = idMask.mask(id);
+                            masked.put(encoded, id);
+                            assertEquals(id, (long) idMask.unmask(encoded));
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (int keyId = 1; keyId <= KeyManager.Factory.DEFAULT_KEY_ID + 15; keyId++) {
+            keyManager.rotate(new KeyManager.IdSecretKey(keyId, Bytes.random(16).array()));
+            Thread.sleep(5);
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(16, keyManager.size());
+        for (String encoded : masked.keySet()) {
+            assertEquals(masked.get(encoded), idMask.unmask(encoded));
+        }
+        assertEquals(15, keyManager.getActiveKeyId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNestedRotatableNotAllowed() {
+        KeyManager.Rotatable keyManager = KeyManager.Factory.rotatable(KeyManager.Factory.withRandom());
+        keyManager.rotate(KeyManager.Factory.rotatable(KeyManager.Factory.withRandom()));
+    }
+}
@@ -0,0 +1,195 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetCacheTest {
+    private static final long ENTRY_WEIGHT = Cache.MemoryBudgetCache.weight(8, 22);
+
+    @Test
+    public void testCacheAndGet() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        byte[] id = Bytes.from(42L).array();
+        String encoded = Bytes.wrap(id).encodeBase64Url();
+        cache.cache(id, encoded);
+
+        assertEquals(encoded, cache.getEncoded(Bytes.from(42L).array()));
+        assertArrayEquals(id, cache.getBytes(encoded));
+        assertEquals(2, cache.size());
+        assertEquals(2 * Cache.MemoryBudgetCache.weight(8, encoded.length()), cache.usedBytes());
+    }
+
+    @Test
+    public void testOverwriteDoesNotCountTwice() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        byte[] id = Bytes.from(42L).array();
+        cache.cacheForEncode(id, "1234567890123456789012");
+        cache.cacheForEncode(id, "abcdefghijklmnopqrstuv");
+        assertEquals(ENTRY_WEIGHT, cache.usedBytes());
+        assertEquals("abcdefghijklmnopqrstuv", cache.getEncoded(id));
+    }
+
+    @Test
+    public void testStaysWithinBudget() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        int count = (int) (4 * Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT);
+        for (long i = 0; i < count; i++) {
+            cache.cache(Bytes.from(i).array(), String.format("%022d", i));
+            assertTrue(cache.usedBytes() <= cache.budgetBytes());
+        }
+        assertTrue(cache.usedBytes() > cache.budgetBytes() - 2 * ENTRY_WEIGHT);
+        assertTrue(cache.stats().evictionCount() > 0);
+        assertEquals(cache.size(), cache.usedBytes() / ENTRY_WEIGHT);
+
+        // least recently used are evicted
+        assertNull(cache.getEncoded(Bytes.from(0L).array()));
+        assertNotNull(cache.getEncoded(Bytes.from((long) count - 1).array()));
+    }
+
+    @Test
+    public void testRecentlyUsedSurvives() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        byte[] hot = Bytes.from(-1L).array();
+        cache.cacheForEncode(hot, "hot");
+        for (long i = 0; i < 4 * Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT; i++) {
+            cache.cacheForEncode(Bytes.from(i).array(), String.format("%022d", i));
+            assertEquals("hot", cache.getEncoded(hot));
+        }
+    }
+
+    @Test
+    public void testSingleDirectionUsesWholeBudget() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        for (long i = 0; i < 4 * Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT; i++) {
+            cache.cacheForDecode(Bytes.from(i).array(), String.format("%022d", i));
+        }
+        assertEquals(Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT, cache.size());
+    }
+
+    @Test
+    public void testShrinkOnHeapPressure() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(4 * Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        for (long i = 0; i < 4 * Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT; i++) {
+            cache.cache(Bytes.from(i).array(), String.format("%022d", i));
+        }
+        long usedBefore = cache.usedBytes();
+
+        cache.onHeapPressure();
+        assertEquals(2 * Cache.MemoryBudgetCache.MIN_BUDGET, cache.currentBudgetBytes());
+        assertTrue(cache.usedBytes() <= cache.currentBudgetBytes());
+        assertTrue(cache.usedBytes() < usedBefore);
+
+        for (int i = 0; i < 5; i++) {
+            cache.onHeapPressure();
+        }
+        assertEquals(Cache.MemoryBudgetCache.MIN_BUDGET, cache.currentBudgetBytes());
+        assertEquals(4 * Cache.MemoryBudgetCache.MIN_BUDGET, cache.budgetBytes());
+
+        // no recovery right after pressure
+        for (long i = 0; i < 4 * Cache.MemoryBudgetCache.MIN_BUDGET / ENTRY_WEIGHT; i++) {
+            cache.cache(Bytes.from(i).array(), String.format("%022d", i));
+        }
+        assertEquals(Cache.MemoryBudgetCache.MIN_BUDGET, cache.currentBudgetBytes());
+    }
+
+    @Test
+    public void testClear() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache();
+        cache.cache(Bytes.from(1L).array(), "id1");
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.usedBytes());
+        assertNull(cache.getEncoded(Bytes.from(1L).array()));
+    }
+
+    @Test
+    public void testWithHeapMonitor() {
+        Cache.MemoryBudgetCache cache = new Cache.MemoryBudgetCache(1024 * 1024);
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).cacheImpl(cache).build());
+        for (long i = 0; i < 100; i++) {
+            assertEquals(i, (long) idMask.unmask(idMask.mask(i)));
+        }
+        assertTrue(cache.usedBytes() > 0);
+        assertEquals(cache.budgetBytes(), cache.currentBudgetBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBudgetTooSmall() {
+        new Cache.MemoryBudgetCache(1024);
+    }
+
+    @Test
+    public void testDoesNotChangeUsageThresholds() {
+        List<Long> before = collectionUsageThresholds();
+        new Cache.MemoryBudgetCache(1024 * 1024);
+        assertEquals(before, collectionUsageThresholds());
+    }
+
+    private static List<Long> collectionUsageThresholds() {
+        List<Long> thresholds = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.isCollectionUsageThresholdSupported()) {
+                thresholds.add(pool.getCollectionUsageThreshold());
+            }
+        }
+        return thresholds;
+    }
+
+    @Test
+    public void testMonitorSharedBetweenCaches() {
+        Cache.MemoryBudgetCache cache1 = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        Cache.MemoryBudgetCache cache2 = new Cache.MemoryBudgetCache(Cache.MemoryBudgetCache.MIN_BUDGET, false);
+        assertSame(HeapPressureMonitor.register(cache1), HeapPressureMonitor.register(cache2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitHeapUsageThresholdsInvalidFraction() {
+        Cache.MemoryBudgetCache.initHeapUsageThresholds(1.5);
+    }
+
+    @Test
+    public void testWithoutManagementClasses() throws Exception {
+        URL classes = Cache.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[]{classes}, new WithoutManagementClassLoader());
+        Class<?> cacheClass = Class.forName(Cache.MemoryBudgetCache.class.getName(), true, loader);
+        assertNotSame(Cache.MemoryBudgetCache.class, cacheClass);
+
+        Object cache = cacheClass.getConstructor(long.class).newInstance(1024 * 1024L);
+        cacheClass.getMethod("cache", byte[].class, String.class).invoke(cache, Bytes.from(1L).array(), "id1");
+        assertArrayEquals(Bytes.from(1L).array(), (byte[]) cacheClass.getMethod("getBytes", String.class).invoke(cache, "id1"));
+        assertEquals(1024 * 1024L, cacheClass.getMethod("currentBudgetBytes").invoke(cache));
+        assertEquals(false, cacheClass.getMethod("initHeapUsageThresholds", double.class).invoke(null, 0.85));
+
+        Field monitor = cacheClass.getDeclaredField("monitor");
+        monitor.setAccessible(true);
+        assertNull(monitor.get(cache));
+    }
+
+    /**
+     * Simulates a platform without java.lang.management, like Android; id-mask classes are loaded by the child loader
+     */
+    private static final class WithoutManagementClassLoader extends ClassLoader {
+        WithoutManagementClassLoader() {
+            super(MemoryBudgetCacheTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("java.lang.management.") || name.startsWith("javax.management.")
+                    || name.startsWith(Cache.class.getPackage().getName() + ".")) {
+                throw new ClassNotFoundException(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+}
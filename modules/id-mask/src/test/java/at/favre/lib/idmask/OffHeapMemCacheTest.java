@@ -0,0 +1,121 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class OffHeapMemCacheTest {
+
+    @Test
+    public void testReferencedEntryGetsSecondChance() {
+        Cache cache = new Cache.OffHeapMemCache(4, 48, 1);
+        for (long i = 0; i < 4; i++) {
+            cache.cache(Bytes.from(i).array(), "id" + i);
+        }
+
+        assertEquals("id0", cache.getEncoded(Bytes.from(0L).array()));
+        cache.cache(Bytes.from(4L).array(), "id4");
+
+        assertEquals("id0", cache.getEncoded(Bytes.from(0L).array()));
+        assertNull(cache.getEncoded(Bytes.from(1L).array()));
+        assertEquals("id4", cache.getEncoded(Bytes.from(4L).array()));
+    }
+
+    @Test
+    public void testIndexConsistentAfterManyEvictions() {
+        Cache cache = new Cache.OffHeapMemCache(256, 48, 2);
+        Map<Long, String> inserted = new HashMap<>();
+        Random random = new Random(4223);
+        for (int i = 0; i < 100_000; i++) {
+            long id = random.nextInt(2048);
+            byte[] raw = Bytes.from(id).array();
+            String encoded = cache.getEncoded(raw);
+            if (encoded == null) {
+                encoded = Bytes.from(id * 31).encodeBase64Url();
+                cache.cache(raw, encoded);
+                inserted.put(id, encoded);
+            }
+            assertEquals(inserted.get(id), encoded);
+            // directions are evicted independently
+            byte[] cached = cache.getBytes(encoded);
+            if (cached != null) {
+                assertArrayEquals(raw, cached);
+            }
+        }
+
+        int found = 0;
+        for (long id = 0; id < 2048; id++) {
+            if (cache.getEncoded(Bytes.from(id).array()) != null) {
+                found++;
+            }
+        }
+        assertEquals(256, found);
+        assertEquals(512, cache.stats().size());
+    }
+
+    @Test
+    public void testUpdateExistingKey() {
+        Cache cache = new Cache.OffHeapMemCache(4, 48, 1);
+        byte[] id = Bytes.from(1L).array();
+        cache.cache(id, "a");
+        cache.cache(id, "b");
+        assertEquals("b", cache.getEncoded(id));
+        // one entry for encoding, two for decoding
+        assertEquals(3, cache.stats().size());
+    }
+
+    @Test
+    public void testEntriesWhichDoNotFitAreNotCached() {
+        Cache cache = new Cache.OffHeapMemCache(16, 8, 1);
+        byte[] longId = Bytes.random(17).array();
+        cache.cache(longId, "short");
+        assertNull(cache.getEncoded(longId));
+
+        byte[] id = Bytes.random(8).array();
+        cache.cache(id, "longer-than-8");
+        assertNull(cache.getEncoded(id));
+        assertNull(cache.getBytes("longer-than-8"));
+
+        cache.cache(id, "äöü");
+        assertNull(cache.getEncoded(id));
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    public void testOffHeapBytes() {
+        Cache.OffHeapMemCache cache = new Cache.OffHeapMemCache(1024, 40, 4);
+        // 2 directions x (1024 slots x 64 byte + 2048 index buckets x 4 byte)
+        assertEquals(2 * (1024 * 64 + 2048 * 4), cache.offHeapBytes());
+    }
+
+    @Test
+    public void testWithUuidMask() {
+        IdMask<UUID> idMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.OffHeapMemCache(64, 48, 4)).build());
+        for (int i = 0; i < 200; i++) {
+            UUID id = UUID.randomUUID();
+            String encoded = idMask.mask(id);
+            assertEquals(encoded, idMask.mask(id));
+            assertEquals(id, idMask.unmask(encoded));
+        }
+    }
+
+    @Test
+    public void testEncodedLengthAbove127() {
+        // longer than any built-in encoding produces (hex, randomized, high security: 98 chars), e.g. custom encodings
+        Cache cache = new Cache.OffHeapMemCache(16, 255, 1);
+        for (int length : new int[]{127, 128, 200, 255}) {
+            byte[] raw = Bytes.random(16).array();
+            String encoded = Bytes.random(length).encodeHex().substring(0, length);
+            cache.cache(raw, encoded);
+            assertEquals(encoded, cache.getEncoded(raw));
+            assertArrayEquals(raw, cache.getBytes(encoded));
+        }
+    }
+}
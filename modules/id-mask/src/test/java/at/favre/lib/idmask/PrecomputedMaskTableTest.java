@@ -0,0 +1,117 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class PrecomputedMaskTableTest {
+    private static final byte[] KEY = Bytes.random(16).array();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGenerateAndLookup() throws IOException {
+        Config config = Config.builder(KeyManager.Factory.with(3, KEY)).build();
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, config, 1000, 5000);
+
+        Cache.PrecomputedMaskTable table = new Cache.PrecomputedMaskTable(file, config, new Cache.SimpleLruMemCache(16));
+        assertTrue(table.isActive());
+
+        IdMask<Long> reference = IdMasks.forLongIds(Config.builder(KeyManager.Factory.with(3, KEY)).enableCache(false).build());
+        for (long id = 1000; id < 6000; id += 7) {
+            assertEquals(reference.mask(id), table.getEncoded(Bytes.from(id).array()));
+        }
+        assertEquals(reference.mask(5999L), table.getEncoded(Bytes.from(5999L).array()));
+        assertEquals(5000, table.stats().size());
+        assertTrue(table.stats().encodeHitCount() > 0);
+    }
+
+    @Test
+    public void testOutOfRangeUsesDelegate() throws IOException {
+        Config config = Config.builder(KEY).build();
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, config, 0, 100);
+
+        Cache.PrecomputedMaskTable table = new Cache.PrecomputedMaskTable(file, config, new Cache.SimpleLruMemCache(16));
+        byte[] id = Bytes.from(100L).array();
+        assertNull(table.getEncoded(id));
+        assertNull(table.getEncoded(Bytes.from(-1L).array()));
+        assertNull(table.getEncoded(Bytes.from(1).array()));
+
+        table.cache(id, "masked100");
+        assertEquals("masked100", table.getEncoded(id));
+        assertArrayEquals(id, table.getBytes("masked100"));
+    }
+
+    @Test
+    public void testUsedByIdMask() throws IOException {
+        Config config = Config.builder(KEY).build();
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, config, 0, 1000);
+
+        Cache table = new Cache.PrecomputedMaskTable(file, config, new Cache.SimpleLruMemCache(16));
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(KEY).cacheImpl(table).build());
+        for (long id = 0; id < 1000; id++) {
+            assertEquals(id, (long) idMask.unmask(idMask.mask(id)));
+        }
+        assertEquals(1000, idMask.cacheStats().encodeHitCount());
+    }
+
+    @Test
+    public void testStaleKeyIdIgnored() throws IOException {
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, Config.builder(KeyManager.Factory.with(1, KEY)).build(), 0, 100);
+
+        Config rotated = Config.builder(KeyManager.Factory.with(2, Bytes.random(16).array())).build();
+        Cache.PrecomputedMaskTable table = new Cache.PrecomputedMaskTable(file, rotated, new Cache.SimpleLruMemCache(16));
+        assertFalse(table.isActive());
+        assertNull(table.getEncoded(Bytes.from(1L).array()));
+    }
+
+    @Test
+    public void testSameKeyIdDifferentKeyIgnored() throws IOException {
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, Config.builder(KeyManager.Factory.with(1, KEY)).build(), 0, 100);
+
+        Config otherKey = Config.builder(KeyManager.Factory.with(1, Bytes.random(16).array())).build();
+        assertFalse(new Cache.PrecomputedMaskTable(file, otherKey, new Cache.SimpleLruMemCache(16)).isActive());
+    }
+
+    @Test
+    public void testRandomizedConfigIgnoresTable() throws IOException {
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        Cache.PrecomputedMaskTable.generate(file, Config.builder(KEY).build(), 0, 100);
+
+        Config randomized = Config.builder(KEY).randomizedIds(true).build();
+        assertFalse(new Cache.PrecomputedMaskTable(file, randomized, new Cache.SimpleLruMemCache(16)).isActive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGenerateRandomizedNotAllowed() throws IOException {
+        Cache.PrecomputedMaskTable.generate(new File(folder.getRoot(), "ids.idmt").toPath(),
+                Config.builder(KEY).randomizedIds(true).build(), 0, 100);
+    }
+
+    @Test
+    public void testMissingOrCorruptFileIgnored() throws IOException {
+        Config config = Config.builder(KEY).build();
+        Path file = new File(folder.getRoot(), "ids.idmt").toPath();
+        assertFalse(new Cache.PrecomputedMaskTable(file, config, new Cache.SimpleLruMemCache(16)).isActive());
+
+        Cache.PrecomputedMaskTable.generate(file, config, 0, 100);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        assertFalse(new Cache.PrecomputedMaskTable(file, config, new Cache.SimpleLruMemCache(16)).isActive());
+    }
+}
@@ -0,0 +1,122 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ThreadLocalCacheTest {
+
+    @Test
+    public void testPutAndGet() {
+        ThreadLocalCache cache = new ThreadLocalCache(16);
+        byte[] id = Bytes.from(42L).array();
+        assertNull(cache.getEncoded(id));
+        assertNull(cache.getBytes("masked42"));
+
+        cache.putEncoded(id, "masked42");
+        cache.putBytes("masked42", id);
+        assertEquals("masked42", cache.getEncoded(Bytes.from(42L).array()));
+        assertArrayEquals(id, cache.getBytes("masked42"));
+        assertNull(cache.getEncoded(Bytes.from(43L).array()));
+    }
+
+    @Test
+    public void testStoresCopyOfId() {
+        ThreadLocalCache cache = new ThreadLocalCache(16);
+        byte[] id = Bytes.from(42L).array();
+        cache.putEncoded(id, "masked42");
+        id[7] = 0;
+        assertNull(cache.getEncoded(id));
+        assertEquals("masked42", cache.getEncoded(Bytes.from(42L).array()));
+    }
+
+    @Test
+    public void testOverwriteInSameSlot() {
+        ThreadLocalCache cache = new ThreadLocalCache(1);
+        cache.putEncoded(Bytes.from(1L).array(), "id1");
+        cache.putEncoded(Bytes.from(2L).array(), "id2");
+        assertNull(cache.getEncoded(Bytes.from(1L).array()));
+        assertEquals("id2", cache.getEncoded(Bytes.from(2L).array()));
+    }
+
+    @Test
+    public void testSizeRoundedUp() {
+        assertEquals(1, new ThreadLocalCache(1).size());
+        assertEquals(16, new ThreadLocalCache(9).size());
+        assertEquals(ThreadLocalCache.MAX_SIZE, new ThreadLocalCache(ThreadLocalCache.MAX_SIZE).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new ThreadLocalCache(ThreadLocalCache.MAX_SIZE + 1);
+    }
+
+    @Test
+    public void testClear() {
+        ThreadLocalCache cache = new ThreadLocalCache(16);
+        cache.putEncoded(Bytes.from(1L).array(), "id1");
+        cache.clear();
+        assertNull(cache.getEncoded(Bytes.from(1L).array()));
+    }
+
+    @Test
+    public void testNotSharedBetweenThreads() throws Exception {
+        final ThreadLocalCache cache = new ThreadLocalCache(16);
+        cache.putEncoded(Bytes.from(1L).array(), "id1");
+
+        final AtomicReference<String> otherThread = new AtomicReference<>("not run");
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherThread.set(cache.getEncoded(Bytes.from(1L).array()));
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNull(otherThread.get());
+        assertEquals("id1", cache.getEncoded(Bytes.from(1L).array()));
+    }
+
+    @Test
+    public void testIdMaskWithThreadLocalCache() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.ConcurrentClockMemCache(64, 4)).threadLocalCacheSize(16).build());
+        Random random = new Random();
+        for (int i = 0; i < 100; i++) {
+            long id = random.nextLong();
+            String encoded = idMask.mask(id);
+            assertEquals(encoded, idMask.mask(id));
+            assertEquals(id, (long) idMask.unmask(encoded));
+            assertEquals(id, (long) idMask.unmask(encoded));
+        }
+    }
+
+    @Test
+    public void testIdMaskLocalHitsSkipSharedCache() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .cacheImpl(new Cache.ConcurrentClockMemCache(64, 4)).threadLocalCacheSize(16).build());
+        String encoded = idMask.mask(7L);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(encoded, idMask.mask(7L));
+            assertEquals(7L, (long) idMask.unmask(encoded));
+        }
+        Cache.Stats stats = idMask.cacheStats();
+        assertEquals(0, stats.encodeHitCount());
+        assertEquals(0, stats.decodeHitCount());
+    }
+
+    @Test
+    public void testIdMaskRandomizedOnlyCachesUnmask() {
+        IdMask<Long> idMask = new IdMask.LongIdMask(Config.builder(Bytes.random(16).array())
+                .randomizedIds(true).threadLocalCacheSize(16).build());
+        String encoded = idMask.mask(7L);
+        assertNotEquals(encoded, idMask.mask(7L));
+        assertEquals(7L, (long) idMask.unmask(encoded));
+        assertEquals(7L, (long) idMask.unmask(encoded));
+    }
+}
@@ -0,0 +1,123 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ThreadLocalDrbgTest {
+
+    @Test
+    public void testOutputIsAesCtrKeystreamOfSeed() throws Exception {
+        CountingRandom seedSource = new CountingRandom();
+        ThreadLocalDrbg drbg = ThreadLocalDrbg.create(seedSource, null);
+        byte[] out = new byte[100];
+        drbg.nextBytes(out);
+
+        byte[] seed = seedSource.lastSeed;
+        Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(seed, 0, 16, "AES"), new IvParameterSpec(seed, 16, 16));
+        assertArrayEquals(cipher.update(new byte[100]), out);
+        assertEquals(1, seedSource.calls.get());
+    }
+
+    @Test
+    public void testSlicesDoNotRepeat() {
+        ThreadLocalDrbg drbg = ThreadLocalDrbg.create(new SecureRandom(), null);
+        byte[] previous = new byte[16];
+        for (int i = 0; i < 1000; i++) {
+            byte[] out = new byte[16];
+            drbg.nextBytes(out);
+            assertFalse(Arrays.equals(previous, out));
+            previous = out;
+        }
+    }
+
+    @Test
+    public void testRequestLargerThanBuffer() {
+        ThreadLocalDrbg drbg = ThreadLocalDrbg.create(new SecureRandom(), null);
+        byte[] out = new byte[3 * ThreadLocalDrbg.BUFFER_SIZE + 7];
+        drbg.nextBytes(out);
+        byte[] lastBlock = Arrays.copyOfRange(out, out.length - 16, out.length);
+        assertFalse(Arrays.equals(new byte[16], lastBlock));
+        assertFalse(Arrays.equals(Arrays.copyOfRange(out, 0, 16), Arrays.copyOfRange(out, ThreadLocalDrbg.BUFFER_SIZE, ThreadLocalDrbg.BUFFER_SIZE + 16)));
+    }
+
+    @Test
+    public void testReseedsAfterInterval() {
+        CountingRandom seedSource = new CountingRandom();
+        ThreadLocalDrbg drbg = ThreadLocalDrbg.create(seedSource, null);
+        byte[] out = new byte[ThreadLocalDrbg.BUFFER_SIZE];
+        for (long i = 0; i <= ThreadLocalDrbg.RESEED_INTERVAL / ThreadLocalDrbg.BUFFER_SIZE; i++) {
+            drbg.nextBytes(out);
+        }
+        assertEquals(2, seedSource.calls.get());
+    }
+
+    @Test
+    public void testSeparateGeneratorPerThread() throws Exception {
+        final CountingRandom seedSource = new CountingRandom();
+        final ThreadLocalDrbg drbg = ThreadLocalDrbg.create(seedSource, null);
+        byte[] own = new byte[16];
+        drbg.nextBytes(own);
+
+        final AtomicReference<byte[]> other = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] out = new byte[16];
+                drbg.nextBytes(out);
+                other.set(out);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(2, seedSource.calls.get());
+        assertFalse(Arrays.equals(own, other.get()));
+    }
+
+    @Test
+    public void testRandomizedIdMaskWithBufferedEntropy() {
+        IdMask<UUID> idMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array())
+                .randomizedIds(true).bufferedEntropy(true).build());
+        UUID id = UUID.randomUUID();
+        String masked = idMask.mask(id);
+        assertNotEquals(masked, idMask.mask(id));
+        assertEquals(id, idMask.unmask(masked));
+
+        IdMask<Long> longIdMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array())
+                .randomizedIds(true).bufferedEntropy(true).build());
+        assertNotEquals(longIdMask.mask(42L), longIdMask.mask(42L));
+        assertEquals(42L, (long) longIdMask.unmask(longIdMask.mask(42L)));
+    }
+
+    @Test
+    public void testOnlyUsedForRandomizedIds() {
+        Config config = Config.builder(Bytes.random(16).array()).bufferedEntropy(true).build();
+        assertSame(config.secureRandom(), config.engineSecureRandom());
+        assertTrue(Config.builder(Bytes.random(16).array()).bufferedEntropy(true).randomizedIds(true).build()
+                .engineSecureRandom() instanceof ThreadLocalDrbg);
+    }
+
+    private static final class CountingRandom extends SecureRandom {
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile byte[] lastSeed;
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            calls.incrementAndGet();
+            super.nextBytes(bytes);
+            lastSeed = bytes.clone();
+        }
+    }
+}
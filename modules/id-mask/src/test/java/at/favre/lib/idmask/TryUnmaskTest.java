@@ -0,0 +1,140 @@
+package at.favre.lib.idmask;
+
+import at.favre.lib.bytes.Bytes;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class TryUnmaskTest {
+
+    @Test
+    public void testSuccess() {
+        for (boolean cache : new boolean[]{false, true}) {
+            IdMask<Long> longIdMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(cache).build());
+            IdMask.UnmaskResult<Long> result = longIdMask.tryUnmask(longIdMask.mask(42L));
+            assertTrue(result.isSuccess());
+            assertNull(result.getReason());
+            assertEquals(42L, (long) result.getId());
+
+            IdMask<UUID> uuidMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array()).enableCache(cache).randomizedIds(true).build());
+            UUID id = UUID.randomUUID();
+            assertEquals(id, uuidMask.tryUnmask(new StringBuilder(uuidMask.mask(id))).getId());
+        }
+    }
+
+    @Test
+    public void testWrongKey() {
+        String masked = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).build()).mask(42L);
+        IdMask.UnmaskResult<Long> result = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).build()).tryUnmask(masked);
+        assertFalse(result.isSuccess());
+        assertEquals(IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, result.getReason());
+        assertEquals(-1L, (long) result.orElse(-1L));
+
+        String maskedUuid = IdMasks.forUuids(Config.builder(Bytes.random(16).array()).build()).mask(UUID.randomUUID());
+        assertEquals(IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY,
+                IdMasks.forUuids(Config.builder(Bytes.random(16).array()).build()).tryUnmask(maskedUuid).getReason());
+    }
+
+    @Test
+    public void testUnknownKeyId() {
+        String masked = IdMasks.forLongIds(Config.builder(KeyManager.Factory.with(new KeyManager.IdSecretKey(1, Bytes.random(16).array()))).build()).mask(42L);
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(KeyManager.Factory.with(new KeyManager.IdSecretKey(0, Bytes.random(16).array()))).build());
+        assertEquals(IdMaskSecurityException.Reason.UNKNOWN_KEY_ID, idMask.tryUnmask(masked).getReason());
+    }
+
+    @Test
+    public void testUnknownEngineId() {
+        IdMask<UUID> idMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array()).build());
+        assertEquals(IdMaskSecurityException.Reason.UNKNOWN_ENGINE_ID, idMask.tryUnmask("dGlxN7fmLBvpKKOCDi3Ps1m_-sxvPcbFzg").getReason());
+    }
+
+    @Test
+    public void testMalformed() {
+        for (boolean cache : new boolean[]{false, true}) {
+            IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(cache).build());
+            String masked = idMask.mask(42L);
+            assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask("").getReason());
+            assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask("abc").getReason());
+            assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask(masked + "AAAA").getReason());
+            assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask("*" + masked.substring(1)).getReason());
+            assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask(masked.substring(0, masked.length() - 1) + "!").getReason());
+        }
+    }
+
+    @Test
+    public void testMalformedOtherEncoding() {
+        IdMask<UUID> idMask = IdMasks.forUuids(Config.builder(Bytes.random(16).array()).encoding(new ByteToTextEncoding.Base32Rfc4648()).build());
+        String masked = idMask.mask(UUID.randomUUID());
+        assertTrue(idMask.tryUnmask(masked).isSuccess());
+        assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, idMask.tryUnmask("!" + masked.substring(1)).getReason());
+    }
+
+    @Test
+    public void testFailureDoesNotPolluteCache() {
+        Cache cache = new Cache.SimpleLruMemCache(64);
+        IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).cacheImpl(cache).build());
+        idMask.tryUnmask("AAAAAAAAAAAAAAAAAAAAAAA");
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetIdOfFailure() {
+        IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).build()).tryUnmask("abc").getId();
+    }
+
+    @Test
+    public void testAllTypes() {
+        byte[] key = Bytes.random(16).array();
+        LongIdMasker longIdMasker = IdMasks.forPrimitiveLongIds(Config.builder(key).build());
+        assertEquals(7L, (long) longIdMasker.tryUnmask(longIdMasker.mask(7L)).getId());
+
+        IdMask<LongTuple> tupleMask = IdMasks.forLongTuples(Config.builder(key).build());
+        LongTuple tuple = new LongTuple(1, 2);
+        assertEquals(tuple, tupleMask.tryUnmask(tupleMask.mask(tuple)).getId());
+
+        IdMask<byte[]> byteMask = IdMasks.for128bitNumbers(Config.builder(key).build());
+        byte[] id = Bytes.random(16).array();
+        assertArrayEquals(id, byteMask.tryUnmask(byteMask.mask(id)).getId());
+
+        IdMask<BigInteger> bigIntegerMask = IdMasks.forBigInteger(Config.builder(key).build());
+        assertEquals(BigInteger.TEN, bigIntegerMask.tryUnmask(bigIntegerMask.mask(BigInteger.TEN)).getId());
+        assertEquals(IdMaskSecurityException.Reason.MALFORMED_ID, bigIntegerMask.tryUnmask("abc").getReason());
+    }
+
+    @Test
+    public void testStacklessExceptions() {
+        for (boolean cache : new boolean[]{false, true}) {
+            IdMask<Long> idMask = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).enableCache(cache).stacklessExceptions(true).build());
+            String foreign = IdMasks.forLongIds(Config.builder(Bytes.random(16).array()).build()).mask(42L);
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    idMask.unmask(foreign);
+                    fail();
+                } catch (IdMaskSecurityException e) {
+                    assertEquals(IdMaskSecurityException.Reason.AUTH_TAG_DOES_NOT_MATCH_OR_INVALID_KEY, e.getReason());
+                    assertEquals(0, e.getStackTrace().length);
+                    assertNull(e.getCause());
+                    // suppressed exceptions of a previous caller must not show up
+                    assertEquals(0, e.getSuppressed().length);
+                    e.addSuppressed(new IllegalStateException("close failed"));
+                }
+            }
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    idMask.unmask("abc", 0, 3);
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    assertEquals(0, e.getStackTrace().length);
+                    assertEquals(0, e.getSuppressed().length);
+                    e.addSuppressed(new IllegalStateException("close failed"));
+                }
+            }
+            assertEquals(42L, (long) idMask.unmask(idMask.mask(42L)));
+        }
+    }
+}